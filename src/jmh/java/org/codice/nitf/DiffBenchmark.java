@@ -0,0 +1,73 @@
+package org.codice.nitf;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of comparing the two outputs for a file, which is what compareMetadataFiles spends its time on.
+ *
+ * The gdalinfo side is our own rendering of a synthetic file, and our side is a copy with a number of values
+ * changed, spread evenly through the output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiffBenchmark
+{
+    @Param({"1", "10", "30"})
+    public int treCount;
+
+    @Param({"1", "10"})
+    public int groupRepetitions;
+
+    @Param({"0", "9"})
+    public int commentCount;
+
+    @Param({"0", "10"})
+    public int changedValues;
+
+    @Param({"SECTIONS", "LINES", "LINEAR"})
+    public ComparisonOptions.DiffMode diffMode;
+
+    private DiffEngine diffEngine = null;
+    private List<String> theirLines = null;
+    private List<String> ourLines = null;
+
+    @Setup
+    public void renderOutputs() throws IOException, ParseException {
+        diffEngine = ComparisonContext.createDiffEngine(diffMode, new ComparisonOptions().getMaxDiffEdits());
+        theirLines = MetadataRenderer.render(RenderingBenchmark.FILENAME,
+                                             new SyntheticNitf(treCount, groupRepetitions, commentCount).parse(),
+                                             System.err);
+        ourLines = new ArrayList<String>(theirLines);
+        if (changedValues > 0) {
+            int step = Math.max(ourLines.size() / changedValues, 1);
+            for (int i = 0, changed = 0; (i < ourLines.size()) && (changed < changedValues); i += step, ++changed) {
+                ourLines.set(i, ourLines.get(i) + "0");
+            }
+        }
+    }
+
+    @Benchmark
+    public List<String> compareMetadata() {
+        return diffEngine.compare(theirLines, ourLines);
+    }
+}
@@ -0,0 +1,63 @@
+package org.codice.nitf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of the number formatting used for RPC values, over a mix of integral, fractional and very small
+ * values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumberFormattingBenchmark
+{
+    private static final int VALUE_COUNT = 64;
+
+    private final double[] values = new double[VALUE_COUNT];
+    private final NumberFormatter numberFormatter = new NumberFormatter();
+    private final StringBuilder buffer = new StringBuilder();
+
+    public NumberFormattingBenchmark() {
+        for (int i = 0; i < VALUE_COUNT; ++i) {
+            switch (i % 4) {
+                case 0:
+                    values[i] = i * 16;
+                    break;
+                case 1:
+                    values[i] = 31.75 + i / 7.0;
+                    break;
+                case 2:
+                    values[i] = -44.125 - i / 1000.0;
+                    break;
+                default:
+                    values[i] = (i + 1) * 1.2345e-7;
+                    break;
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUE_COUNT)
+    public void format(Blackhole blackhole) {
+        for (double value : values) {
+            buffer.setLength(0);
+            numberFormatter.format(value, buffer);
+            blackhole.consume(buffer);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.codice.nitf;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.codice.imaging.nitf.core.NitfFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of each rendering stage of our side of the comparison, on headers that have already been parsed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderingBenchmark
+{
+    static final String FILENAME = "/data/synthetic/benchmark.ntf";
+
+    @Param({"1", "10", "30"})
+    public int treCount;
+
+    @Param({"1", "5", "10"})
+    public int groupRepetitions;
+
+    @Param({"0", "9"})
+    public int commentCount;
+
+    private NitfFile nitf = null;
+    private TreIndex.FileTreIndex treIndex = null;
+
+    @Setup
+    public void parseHeaders() throws ParseException {
+        nitf = new SyntheticNitf(treCount, groupRepetitions, commentCount).parse();
+        treIndex = TreIndex.forFile(nitf);
+    }
+
+    @Benchmark
+    public String baseMetadata() throws IOException, ParseException {
+        StringWriter out = new StringWriter();
+        renderer(out).outputBaseMetadata();
+        return out.toString();
+    }
+
+    @Benchmark
+    public String treXml() throws IOException {
+        StringWriter out = new StringWriter();
+        renderer(out).outputTRExml();
+        return out.toString();
+    }
+
+    @Benchmark
+    public String rpcs() throws IOException {
+        StringWriter out = new StringWriter();
+        renderer(out).outputRPCs();
+        return out.toString();
+    }
+
+    @Benchmark
+    public List<String> wholeOutput() throws IOException, ParseException {
+        return MetadataRenderer.render(FILENAME, nitf, treIndex, 0, System.err);
+    }
+
+    private MetadataRenderer renderer(Writer out) {
+        return new MetadataRenderer(FILENAME, nitf, treIndex, 0, out, System.err);
+    }
+}
@@ -0,0 +1,184 @@
+package org.codice.nitf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * End-to-end load test: generates synthetic corpora of increasing size, and runs FileComparison over each at
+ * increasing concurrency, reporting files per second, p99 time per file and peak resident memory.
+ *
+ * Each run is a separate JVM, so its peak memory is its own, with the stand-in gdalinfo from src/jmh/scripts first on
+ * its PATH. Files per second and p99 come from the run's own timing metrics, so they leave out JVM startup. Peak
+ * memory is read from /proc when the run finishes, so it is only reported on Linux.
+ */
+public class ScaleBenchmark
+{
+    private static final String CHILD = "--child";
+    private static final Pattern FILES_PER_SECOND = Pattern.compile("\"files_per_second\": ([0-9.]+)");
+    private static final Pattern FILE_P99 = Pattern.compile("\"file\": \\{\"count\": [0-9]+, \"p50_ms\": [0-9.]+, \"p99_ms\": ([0-9.]+)");
+    private static final Pattern MATCHED = Pattern.compile("^  MATCH: ([0-9]+)$", Pattern.MULTILINE);
+    private static final Pattern PEAK_RSS = Pattern.compile("^Peak RSS: ([0-9]+) kB$", Pattern.MULTILINE);
+
+    private List<Integer> corpusSizes = Arrays.asList(100, 1000, 10000);
+    private List<Integer> jobCounts = Arrays.asList(1, 4, 16);
+    private Path workDirectory = Paths.get("target", "scale-benchmark");
+    private Path standInDirectory = Paths.get("src", "jmh", "scripts");
+    private String heap = null;
+    private final List<String> comparisonOptions = new ArrayList<String>();
+
+    public static void main(String[] args) throws IOException, InterruptedException, ParseException {
+        if ((args.length > 0) && args[0].equals(CHILD)) {
+            runChild(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        ScaleBenchmark benchmark = new ScaleBenchmark();
+        SyntheticCorpus corpus = new SyntheticCorpus();
+        if (!benchmark.parseArguments(args, corpus)) {
+            printUsage();
+            return;
+        }
+        benchmark.run(corpus);
+    }
+
+    private boolean parseArguments(String[] args, SyntheticCorpus corpus) {
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            boolean hasValue = (i + 1 < args.length);
+            try {
+                int next = corpus.parseOption(args, i);
+                if (next >= 0) {
+                    i = next;
+                } else if (arg.equals("--sizes") && hasValue) {
+                    corpusSizes = parseCounts(args[++i]);
+                } else if (arg.equals("--jobs") && hasValue) {
+                    jobCounts = parseCounts(args[++i]);
+                } else if (arg.equals("--work") && hasValue) {
+                    workDirectory = Paths.get(args[++i]);
+                } else if (arg.equals("--stand-in") && hasValue) {
+                    standInDirectory = Paths.get(args[++i]);
+                } else if (arg.equals("--heap") && hasValue) {
+                    heap = args[++i];
+                } else if (arg.equals("--")) {
+                    comparisonOptions.addAll(Arrays.asList(args).subList(i + 1, args.length));
+                    break;
+                } else {
+                    System.out.println("Unknown or incomplete option: " + arg);
+                    return false;
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println("Bad value for " + arg + ": " + e.getMessage());
+                return false;
+            }
+        }
+        if (!Files.isExecutable(standInDirectory.resolve("gdalinfo"))) {
+            System.out.println("No stand-in gdalinfo in " + standInDirectory + ", give its directory with --stand-in");
+            return false;
+        }
+        return true;
+    }
+
+    private static List<Integer> parseCounts(String list) {
+        List<Integer> counts = new ArrayList<Integer>();
+        for (String count : list.split(",")) {
+            int value = Integer.parseInt(count.trim());
+            if (value < 1) {
+                throw new IllegalArgumentException("Counts must be at least 1, got " + value);
+            }
+            counts.add(value);
+        }
+        return counts;
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: ScaleBenchmark [options] [corpus options] [-- FileComparison options]");
+        System.out.println("  --sizes N,...        corpus sizes to run, in files (default 100,1000,10000)");
+        System.out.println("  --jobs N,...         values of --jobs to run each corpus with (default 1,4,16)");
+        System.out.println("  --work DIR           where corpora, logs and timings go (default target/scale-benchmark)");
+        System.out.println("  --stand-in DIR       directory holding the stand-in gdalinfo (default src/jmh/scripts)");
+        System.out.println("  --heap SIZE          maximum heap for each run, as for -Xmx (default: the JVM's own)");
+        System.out.println("Corpus options:");
+        SyntheticCorpus.printOptions();
+    }
+
+    private void run(SyntheticCorpus corpus) throws IOException, InterruptedException, ParseException {
+        System.out.println(String.format(Locale.ROOT, "%8s %6s %8s %10s %10s %14s", "Files", "Jobs", "Matched", "Files/s", "p99 ms", "Peak RSS MB"));
+        for (int size : corpusSizes) {
+            Path corpusDirectory = workDirectory.resolve("corpus-" + size);
+            corpus.generate(corpusDirectory, size);
+            for (int jobs : jobCounts) {
+                runComparison(corpusDirectory, size, jobs);
+            }
+        }
+        System.out.println("Run logs and timings are in " + workDirectory);
+    }
+
+    private void runComparison(Path corpusDirectory, int size, int jobs) throws IOException, InterruptedException {
+        String runName = "run-" + size + "-" + jobs;
+        Path log = workDirectory.resolve(runName + ".log");
+        Path timing = workDirectory.resolve(runName + ".json");
+        Files.deleteIfExists(timing);
+        List<String> command = new ArrayList<String>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (heap != null) {
+            command.add("-Xmx" + heap);
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ScaleBenchmark.class.getName());
+        command.add(CHILD);
+        command.add("--jobs");
+        command.add(Integer.toString(jobs));
+        command.add("--timing-out");
+        command.add(timing.toString());
+        command.addAll(comparisonOptions);
+        command.add(corpusDirectory.toString());
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        String path = System.getenv("PATH");
+        processBuilder.environment().put("PATH", standInDirectory.toAbsolutePath() + ((path == null) ? "" : File.pathSeparator + path));
+        processBuilder.redirectErrorStream(true);
+        processBuilder.redirectOutput(log.toFile());
+        int status = processBuilder.start().waitFor();
+        String output = new String(Files.readAllBytes(log), StandardCharsets.UTF_8);
+        String metrics = Files.exists(timing) ? new String(Files.readAllBytes(timing), StandardCharsets.UTF_8) : "";
+        if ((status != 0) || metrics.isEmpty()) {
+            System.out.println(String.format(Locale.ROOT, "%8d %6d  run failed (status %d), see %s", size, jobs, status, log));
+            return;
+        }
+        String peakRss = find(PEAK_RSS, output);
+        System.out.println(String.format(Locale.ROOT, "%8d %6d %8s %10s %10s %14s", size, jobs, find(MATCHED, output),
+                                         find(FILES_PER_SECOND, metrics), find(FILE_P99, metrics),
+                                         (peakRss == null) ? "unknown" : String.format(Locale.ROOT, "%.1f", Long.parseLong(peakRss) / 1024.0)));
+    }
+
+    private static String find(Pattern pattern, String text) {
+        Matcher matcher = pattern.matcher(text);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    // In the child JVM: run the comparison, then report the peak resident memory
+    private static void runChild(String[] args) throws IOException {
+        FileComparison.main(args);
+        Path status = Paths.get("/proc/self/status");
+        if (Files.isReadable(status)) {
+            for (String line : Files.readAllLines(status, StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmHWM:")) {
+                    System.out.println("Peak RSS: " + line.substring("VmHWM:".length()).replace("kB", "").trim() + " kB");
+                }
+            }
+        }
+        System.out.flush();
+        // Do not wait on any threads the run left behind
+        System.exit(0);
+    }
+}
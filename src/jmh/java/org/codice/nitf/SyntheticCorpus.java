@@ -0,0 +1,221 @@
+package org.codice.nitf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.codice.imaging.nitf.core.NitfFile;
+import org.codice.imaging.nitf.core.NitfFileFactory;
+
+/**
+ * Writes a corpus of synthetic NITF files for load testing, each with the output gdalinfo gives for it alongside,
+ * for the stand-in gdalinfo in src/jmh/scripts to print.
+ *
+ * The files are built by {@link SyntheticNitf}, so they are header-only unless padded out to a size. The output
+ * alongside a file is our own rendering of it, normalized with the built-in line rules, and with the file name
+ * replaced by {@value #FILE_PLACEHOLDER} so the corpus can be moved. A comparison against the stand-in therefore
+ * matches; the point is to load the rest of the run (walking, sniffing, starting processes, parsing, rendering and
+ * diffing) the way a real corpus would, without GDAL or real imagery.
+ */
+public class SyntheticCorpus
+{
+    static final String OUTPUT_SUFFIX = ".gdalinfo.txt";
+    static final String FILE_PLACEHOLDER = "@FILE@";
+
+    private List<SyntheticNitf.Version> versions = Arrays.asList(SyntheticNitf.Version.values());
+    private int imageSegmentCount = 1;
+    private int dataExtensionSegmentCount = 0;
+    private int treCount = 3;
+    private int groupRepetitions = 2;
+    private int commentCount = 1;
+    private boolean ichipb = true;
+    private long fileSize = 0;
+    private final LineRules.Normalizer normalizer;
+
+    SyntheticCorpus() throws IOException {
+        normalizer = LineRules.loadDefaults().forOurs();
+    }
+
+    public static void main(String[] args) throws IOException, ParseException {
+        SyntheticCorpus corpus = new SyntheticCorpus();
+        int fileCount = 100;
+        Path directory = null;
+        for (int i = 0; i < args.length; ++i) {
+            try {
+                int next = corpus.parseOption(args, i);
+                if (next >= 0) {
+                    i = next;
+                } else if (args[i].equals("--files") && (i + 1 < args.length)) {
+                    fileCount = Integer.parseInt(args[++i]);
+                } else if (!args[i].startsWith("--") && (directory == null)) {
+                    directory = Paths.get(args[i]);
+                } else {
+                    System.out.println("Unknown or incomplete option: " + args[i]);
+                    printUsage();
+                    return;
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println("Bad value for " + args[i] + ": " + e.getMessage());
+                return;
+            }
+        }
+        if (directory == null) {
+            printUsage();
+            return;
+        }
+        corpus.generate(directory, fileCount);
+        System.out.println("Wrote " + fileCount + " files to " + directory);
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: SyntheticCorpus [options] directory");
+        System.out.println("  --files N            number of files to write (default 100)");
+        printOptions();
+    }
+
+    static void printOptions() {
+        System.out.println("  --versions V,...     header versions to cycle through: 2.0, 2.1 and nsif (default all three)");
+        System.out.println("  --image-segments N   image segments per file (default 1)");
+        System.out.println("  --des N              data extension segments per file (default 0)");
+        System.out.println("  --tres N             TREs per image segment, an RPC00B then ACCPOBs (default 3)");
+        System.out.println("  --repetitions N      how often each repeated group in an ACCPOB repeats (default 2)");
+        System.out.println("  --comments N         image comments per image segment (default 1)");
+        System.out.println("  --no-ichipb          leave out the ICHIPB each image segment otherwise has");
+        System.out.println("  --file-size BYTES    pad each file with image data to this size (default: headers only)");
+    }
+
+    /**
+     * Parse one of the corpus options.
+     *
+     * @param args the command line
+     * @param i the index of the option
+     * @return the index of the last argument used, or -1 if args[i] is not a corpus option
+     */
+    int parseOption(String[] args, int i) {
+        String arg = args[i];
+        boolean hasValue = (i + 1 < args.length);
+        if (arg.equals("--versions") && hasValue) {
+            setVersions(args[i + 1]);
+        } else if (arg.equals("--image-segments") && hasValue) {
+            imageSegmentCount = Integer.parseInt(args[i + 1]);
+        } else if (arg.equals("--des") && hasValue) {
+            dataExtensionSegmentCount = Integer.parseInt(args[i + 1]);
+        } else if (arg.equals("--tres") && hasValue) {
+            treCount = Integer.parseInt(args[i + 1]);
+        } else if (arg.equals("--repetitions") && hasValue) {
+            groupRepetitions = Integer.parseInt(args[i + 1]);
+        } else if (arg.equals("--comments") && hasValue) {
+            commentCount = Integer.parseInt(args[i + 1]);
+        } else if (arg.equals("--file-size") && hasValue) {
+            fileSize = Long.parseLong(args[i + 1]);
+        } else if (arg.equals("--no-ichipb")) {
+            ichipb = false;
+            return i;
+        } else {
+            return -1;
+        }
+        // Check the values now, rather than part way through writing the corpus
+        createFile(0);
+        return i + 1;
+    }
+
+    private void setVersions(String list) {
+        List<SyntheticNitf.Version> chosen = new ArrayList<SyntheticNitf.Version>();
+        for (String name : list.split(",")) {
+            String trimmed = name.trim().toLowerCase(Locale.ROOT);
+            if (trimmed.equals("2.0")) {
+                chosen.add(SyntheticNitf.Version.NITF20);
+            } else if (trimmed.equals("2.1")) {
+                chosen.add(SyntheticNitf.Version.NITF21);
+            } else if (trimmed.equals("nsif")) {
+                chosen.add(SyntheticNitf.Version.NSIF10);
+            } else {
+                throw new IllegalArgumentException("Unknown version " + name + ", expected 2.0, 2.1 or nsif");
+            }
+        }
+        versions = chosen;
+    }
+
+    /**
+     * Write the corpus, replacing any files of the same names.
+     *
+     * @param directory where to write it, created if need be
+     * @param fileCount how many files to write
+     * @return the files written (not counting the output alongside them)
+     * @throws IOException if a file could not be written
+     * @throws ParseException if a file we wrote could not be parsed back
+     */
+    List<Path> generate(Path directory, int fileCount) throws IOException, ParseException {
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<Path>(fileCount);
+        for (int i = 1; i <= fileCount; ++i) {
+            Path file = directory.resolve(String.format("synthetic-%06d.ntf", i));
+            OutputStream out = new BufferedOutputStream(Files.newOutputStream(file));
+            try {
+                createFile(i).writeTo(out);
+            } finally {
+                out.close();
+            }
+            writeExpectedOutput(file);
+            files.add(file);
+        }
+        return files;
+    }
+
+    private SyntheticNitf createFile(int index) {
+        SyntheticNitf nitf = new SyntheticNitf(treCount, groupRepetitions, commentCount);
+        nitf.setVersion(versions.get(index % versions.size()));
+        // So each file has its own content, and its own cache entry
+        nitf.setTitle("Synthetic corpus file " + index);
+        nitf.setImageSegmentCount(imageSegmentCount);
+        nitf.setDataExtensionSegmentCount(dataExtensionSegmentCount);
+        nitf.setIchipb(ichipb);
+        nitf.setFileSize(fileSize);
+        return nitf;
+    }
+
+    // Parsed back from the file, the way a comparison sees it
+    private void writeExpectedOutput(Path file) throws IOException, ParseException {
+        NitfFile nitf;
+        InputStream input = new BufferedInputStream(Files.newInputStream(file));
+        try {
+            nitf = NitfFileFactory.parseHeadersOnly(input);
+        } finally {
+            input.close();
+        }
+        TreIndex.FileTreIndex treIndex = TreIndex.forFile(nitf);
+        // The synthetic image identifiers never name an RPF product, so the placeholder's lack of a .ntf extension
+        // changes nothing
+        writeLines(Paths.get(file + OUTPUT_SUFFIX), MetadataRenderer.render(FILE_PLACEHOLDER, nitf, treIndex, 0, System.err));
+        if (nitf.getNumberOfImageSegments() > 1) {
+            for (int i = 1; i <= nitf.getNumberOfImageSegments(); ++i) {
+                writeLines(Paths.get(file + ".NITF_IM_" + (i - 1) + OUTPUT_SUFFIX),
+                           MetadataRenderer.render(FILE_PLACEHOLDER, nitf, treIndex, i, System.err));
+            }
+        }
+    }
+
+    private void writeLines(Path path, List<String> lines) throws IOException {
+        Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        try {
+            for (String line : normalizer.apply(lines)) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package org.codice.nitf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codice.imaging.nitf.core.NitfFile;
+import org.codice.imaging.nitf.core.NitfFileFactory;
+
+/**
+ * Builds NITF headers, for the benchmarks and the synthetic corpus.
+ *
+ * By default the file is NITF 2.1, with a single image segment (with no pixel data) carrying the requested number
+ * of image comments and TREs. The first TRE is an RPC00B, so the RPC stage has something to do, and the rest are
+ * ACCPOB, whose two nested loops each repeat the requested number of times. The setters change the version, add
+ * image segments (each carrying the same TREs and comments), an ICHIPB, data extension segments, or padding to make
+ * the file a given size.
+ */
+class SyntheticNitf
+{
+    /**
+     * The header versions that can be generated.
+     */
+    enum Version
+    {
+        NITF20("NITF", "02.00"),
+        NITF21("NITF", "02.10"),
+        NSIF10("NSIF", "01.00");
+
+        final String header;
+        final String version;
+
+        Version(String header, String version) {
+            this.header = header;
+            this.version = version;
+        }
+    }
+
+    private static final int MAX_EXTENDED_HEADER_LENGTH = 99999;
+    private static final int MAX_COMMENTS = 9;
+    private static final int MAX_SEGMENTS = 999;
+    private static final int PADDING_BUFFER_SIZE = 64 * 1024;
+
+    private final int treCount;
+    private final int groupRepetitions;
+    private final int commentCount;
+    private Version version = Version.NITF21;
+    private String title = "Synthetic benchmark file";
+    private int imageSegmentCount = 1;
+    private int dataExtensionSegmentCount = 0;
+    private boolean ichipb = false;
+    private long fileSize = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param numberOfTres the number of TREs in each image segment
+     * @param repetitions how many times each repeated group in the ACCPOB TREs repeats (1 to 99)
+     * @param numberOfComments the number of image comments (0 to 9)
+     */
+    SyntheticNitf(int numberOfTres, int repetitions, int numberOfComments) {
+        if (numberOfTres < 0) {
+            throw new IllegalArgumentException("TRE count must not be negative: " + numberOfTres);
+        }
+        if ((repetitions < 1) || (repetitions > 99)) {
+            throw new IllegalArgumentException("Group repetitions must be between 1 and 99: " + repetitions);
+        }
+        if ((numberOfComments < 0) || (numberOfComments > MAX_COMMENTS)) {
+            throw new IllegalArgumentException("Comment count must be between 0 and " + MAX_COMMENTS + ": " + numberOfComments);
+        }
+        treCount = numberOfTres;
+        groupRepetitions = repetitions;
+        commentCount = numberOfComments;
+    }
+
+    void setVersion(Version headerVersion) {
+        version = headerVersion;
+    }
+
+    /**
+     * @param fileTitle the file title, which is a handy way to make otherwise identical files differ
+     */
+    void setTitle(String fileTitle) {
+        if (fileTitle.length() > 80) {
+            throw new IllegalArgumentException("Title must be at most 80 characters: " + fileTitle);
+        }
+        title = fileTitle;
+    }
+
+    void setImageSegmentCount(int count) {
+        if ((count < 1) || (count > MAX_SEGMENTS)) {
+            throw new IllegalArgumentException("Image segment count must be between 1 and " + MAX_SEGMENTS + ": " + count);
+        }
+        imageSegmentCount = count;
+    }
+
+    void setDataExtensionSegmentCount(int count) {
+        if ((count < 0) || (count > MAX_SEGMENTS)) {
+            throw new IllegalArgumentException("Data extension segment count must be between 0 and " + MAX_SEGMENTS + ": " + count);
+        }
+        dataExtensionSegmentCount = count;
+    }
+
+    /**
+     * @param includeIchipb true to put an ICHIPB TRE in each image segment, after the RPC00B
+     */
+    void setIchipb(boolean includeIchipb) {
+        ichipb = includeIchipb;
+    }
+
+    /**
+     * @param size the size of the whole file, reached by padding the last image segment with zero bytes of image
+     * data; the file is not padded if its headers are already that big
+     */
+    void setFileSize(long size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("File size must not be negative: " + size);
+        }
+        fileSize = size;
+    }
+
+    /**
+     * Parse the headers, the same way a comparison does.
+     *
+     * @return the parsed file
+     * @throws ParseException if the headers could not be parsed
+     */
+    NitfFile parse() throws ParseException {
+        return NitfFileFactory.parseHeadersOnly(new ByteArrayInputStream(toBytes()));
+    }
+
+    byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeTo(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write the whole file, padding included.
+     *
+     * @param out where to write it
+     * @throws IOException if the file could not be written
+     */
+    void writeTo(OutputStream out) throws IOException {
+        String imageSubheader = imageSubheader();
+        List<String> dataExtensionSubheaders = new ArrayList<String>();
+        List<String> dataExtensionData = new ArrayList<String>();
+        long segmentsLength = (long) imageSegmentCount * imageSubheader.length();
+        for (int i = 1; i <= dataExtensionSegmentCount; ++i) {
+            dataExtensionSubheaders.add(dataExtensionSubheader());
+            dataExtensionData.add(String.format("Synthetic data extension segment %d", i));
+            segmentsLength += dataExtensionSubheaders.get(i - 1).length() + dataExtensionData.get(i - 1).length();
+        }
+
+        StringBuilder beforeLengths = new StringBuilder();
+        text(beforeLengths, version.header, 4);
+        text(beforeLengths, version.version, 5);
+        text(beforeLengths, "03", 2);
+        text(beforeLengths, "BF01", 4);
+        text(beforeLengths, "SYNTHETIC", 10);
+        text(beforeLengths, dateTime(), 14);
+        text(beforeLengths, title, 80);
+        security(beforeLengths);
+        number(beforeLengths, 0, 5);
+        number(beforeLengths, 0, 5);
+        text(beforeLengths, "0", 1);
+        if (version == Version.NITF20) {
+            text(beforeLengths, "Benchmark", 27);
+        } else {
+            beforeLengths.append("\0\0\0");
+            text(beforeLengths, "Benchmark", 24);
+        }
+        text(beforeLengths, "", 18);
+
+        // The image data lengths are only known once the header length is, so they go in afterwards
+        StringBuilder afterImageLengths = new StringBuilder();
+        // No graphics (or labels), reserved or text segments
+        for (int i = 0; i < 3; ++i) {
+            number(afterImageLengths, 0, 3);
+        }
+        number(afterImageLengths, dataExtensionSegmentCount, 3);
+        for (int i = 0; i < dataExtensionSegmentCount; ++i) {
+            number(afterImageLengths, dataExtensionSubheaders.get(i).length(), 4);
+            number(afterImageLengths, dataExtensionData.get(i).length(), 9);
+        }
+        // No reserved extension segments
+        number(afterImageLengths, 0, 3);
+        number(afterImageLengths, 0, 5);
+        number(afterImageLengths, 0, 5);
+
+        int headerLength = beforeLengths.length() + 12 + 6 + 3 + imageSegmentCount * (6 + 10) + afterImageLengths.length();
+        long padding = Math.max(0, fileSize - headerLength - segmentsLength);
+        StringBuilder header = new StringBuilder(beforeLengths);
+        number(header, headerLength + segmentsLength + padding, 12);
+        number(header, headerLength, 6);
+        number(header, imageSegmentCount, 3);
+        for (int i = 1; i <= imageSegmentCount; ++i) {
+            number(header, imageSubheader.length(), 6);
+            number(header, (i == imageSegmentCount) ? padding : 0, 10);
+        }
+        header.append(afterImageLengths);
+
+        write(out, header);
+        for (int i = 1; i <= imageSegmentCount; ++i) {
+            write(out, imageSubheader);
+        }
+        byte[] zeros = new byte[(int) Math.min(padding, PADDING_BUFFER_SIZE)];
+        for (long remaining = padding; remaining > 0; remaining -= zeros.length) {
+            out.write(zeros, 0, (int) Math.min(remaining, zeros.length));
+        }
+        for (int i = 0; i < dataExtensionSegmentCount; ++i) {
+            write(out, dataExtensionSubheaders.get(i));
+            write(out, dataExtensionData.get(i));
+        }
+    }
+
+    private String imageSubheader() {
+        StringBuilder header = new StringBuilder();
+        text(header, "IM", 2);
+        text(header, "SYNTH0001", 10);
+        text(header, dateTime(), 14);
+        text(header, "", 17);
+        text(header, "Synthetic benchmark image", 80);
+        security(header);
+        text(header, "0", 1);
+        text(header, "Synthetic", 42);
+        number(header, 1024, 8);
+        number(header, 1024, 8);
+        text(header, "INT", 3);
+        text(header, "MONO", 8);
+        text(header, "VIS", 8);
+        number(header, 8, 2);
+        text(header, "R", 1);
+        text(header, "G", 1);
+        text(header, "320000N0440000E320000N0443000E313000N0443000E313000N0440000E", 60);
+        number(header, commentCount, 1);
+        for (int i = 0; i < commentCount; ++i) {
+            text(header, "Synthetic image comment " + i, 80);
+        }
+        text(header, "NC", 2);
+        number(header, 1, 1);
+        text(header, "", 2);
+        text(header, "", 6);
+        text(header, "N", 1);
+        text(header, "", 3);
+        number(header, 0, 1);
+        number(header, 0, 1);
+        text(header, "B", 1);
+        number(header, 1, 4);
+        number(header, 1, 4);
+        number(header, 1024, 4);
+        number(header, 1024, 4);
+        number(header, 8, 2);
+        number(header, 1, 3);
+        number(header, 0, 3);
+        number(header, 0, 10);
+        text(header, "1.0", 4);
+        number(header, 0, 5);
+
+        StringBuilder tres = new StringBuilder();
+        for (int i = 0; i < treCount; ++i) {
+            if (i == 0) {
+                tre(tres, "RPC00B", rpc00b());
+                if (ichipb) {
+                    tre(tres, "ICHIPB", ichipb());
+                }
+            } else {
+                tre(tres, "ACCPOB", accpob(i));
+            }
+        }
+        if (ichipb && (treCount == 0)) {
+            tre(tres, "ICHIPB", ichipb());
+        }
+        if (tres.length() == 0) {
+            number(header, 0, 5);
+        } else {
+            if (tres.length() + 3 > MAX_EXTENDED_HEADER_LENGTH) {
+                throw new IllegalArgumentException("TREs do not fit in the image subheader (" + tres.length()
+                                                   + " bytes), use fewer TREs or repetitions");
+            }
+            number(header, tres.length() + 3, 5);
+            number(header, 0, 3);
+            header.append(tres);
+        }
+        return header.toString();
+    }
+
+    private String dataExtensionSubheader() {
+        StringBuilder header = new StringBuilder();
+        text(header, "DE", 2);
+        text(header, "SYNTHETIC", 25);
+        number(header, 1, 2);
+        security(header);
+        number(header, 0, 4);
+        return header.toString();
+    }
+
+    private String dateTime() {
+        // NITF 2.0 has its own date format, DDHHMMSSZMONYY
+        return (version == Version.NITF20) ? "17120000ZOCT14" : "20141017120000";
+    }
+
+    private static String rpc00b() {
+        StringBuilder rpc = new StringBuilder();
+        text(rpc, "1", 1);
+        text(rpc, "0000.50", 7);
+        text(rpc, "0000.25", 7);
+        text(rpc, "000512", 6);
+        text(rpc, "00512", 5);
+        text(rpc, "+31.7500", 8);
+        text(rpc, "+044.2500", 9);
+        text(rpc, "+0100", 5);
+        text(rpc, "000512", 6);
+        text(rpc, "00512", 5);
+        text(rpc, "+00.2500", 8);
+        text(rpc, "+000.2500", 9);
+        text(rpc, "+0500", 5);
+        for (int i = 0; i < 80; ++i) {
+            // Four sets of 20 coefficients, in the +d.dddddde+d form RPC00B uses
+            text(rpc, String.format("%s%d.%06dE%s%d", (i % 3 == 0) ? "-" : "+", i % 10, (i * 7919) % 1000000,
+                                    (i % 2 == 0) ? "-" : "+", i % 9), 12);
+        }
+        return rpc.toString();
+    }
+
+    private static String ichipb() {
+        StringBuilder ichip = new StringBuilder();
+        text(ichip, "00", 2);
+        text(ichip, "0001.00000", 10);
+        text(ichip, "00", 2);
+        text(ichip, "00", 2);
+        // The output product corners, then the same corners in the full image, which the chip is the middle of
+        double[] outputCorners = {0.5, 0.5, 0.5, 1023.5, 1023.5, 0.5, 1023.5, 1023.5};
+        for (double corner : outputCorners) {
+            text(ichip, String.format("%012.3f", corner), 12);
+        }
+        for (double corner : outputCorners) {
+            text(ichip, String.format("%012.3f", corner + 2048.0), 12);
+        }
+        number(ichip, 5120, 8);
+        number(ichip, 5120, 8);
+        return ichip.toString();
+    }
+
+    private String accpob(int index) {
+        StringBuilder accpob = new StringBuilder();
+        number(accpob, groupRepetitions, 2);
+        for (int i = 0; i < groupRepetitions; ++i) {
+            text(accpob, "M", 3);
+            number(accpob, index + i, 5);
+            text(accpob, "M", 3);
+            number(accpob, index * i, 5);
+            number(accpob, groupRepetitions, 3);
+            for (int j = 0; j < groupRepetitions; ++j) {
+                text(accpob, String.format("%+015.10f", 44.0 + (index + j) / 1000.0), 15);
+                text(accpob, String.format("%+015.10f", 31.0 + (i + j) / 1000.0), 15);
+            }
+        }
+        return accpob.toString();
+    }
+
+    private void security(StringBuilder builder) {
+        text(builder, "U", 1);
+        if (version == Version.NITF20) {
+            // Codewords, control and handling, releasing instructions, authority, control number and downgrade
+            text(builder, "", 40);
+            text(builder, "", 40);
+            text(builder, "", 40);
+            text(builder, "", 20);
+            text(builder, "", 20);
+            text(builder, "", 6);
+            return;
+        }
+        text(builder, "", 2);
+        text(builder, "", 11);
+        text(builder, "", 2);
+        text(builder, "", 20);
+        text(builder, "", 2);
+        text(builder, "", 8);
+        text(builder, "", 4);
+        text(builder, "", 1);
+        text(builder, "", 8);
+        text(builder, "", 43);
+        text(builder, "", 1);
+        text(builder, "", 40);
+        text(builder, "", 1);
+        text(builder, "", 8);
+        text(builder, "", 15);
+    }
+
+    private static void tre(StringBuilder builder, String tag, String data) {
+        text(builder, tag, 6);
+        number(builder, data.length(), 5);
+        builder.append(data);
+    }
+
+    private static void text(StringBuilder builder, String value, int width) {
+        if (value.length() > width) {
+            throw new IllegalArgumentException("Value [" + value + "] is wider than " + width);
+        }
+        builder.append(value);
+        for (int i = value.length(); i < width; ++i) {
+            builder.append(' ');
+        }
+    }
+
+    private static void number(StringBuilder builder, long value, int width) {
+        text(builder, String.format("%0" + width + "d", value), width);
+    }
+
+    private static void write(OutputStream out, CharSequence text) throws IOException {
+        try {
+            out.write(text.toString().getBytes("ISO-8859-1"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,480 @@
+package org.codice.nitf;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads NITF files straight out of zip and tar archives, without extracting them.
+ *
+ * Archive members are named by the GDAL virtual path that reaches them, such as /vsizip/bundle.zip/dir/file.ntf or
+ * /vsitar/bundle.tar/file.ntf, so that name can be handed to gdalinfo as it is, and shows up in both outputs.
+ *
+ * Header input for a tar member reads the member's bytes in place, skipping segment data just as for a plain file.
+ * Zip members are read through the entry's stream, which for a compressed entry means decompressing, but only up to
+ * the last header the parser asks for.
+ *
+ * A few recently used archives are kept open, since the members of an archive are usually compared together.
+ */
+class ArchiveReader
+{
+    /**
+     * The kinds of archive we can read.
+     */
+    enum Format
+    {
+        ZIP("/vsizip/", ".zip"),
+        TAR("/vsitar/", ".tar");
+
+        private final String prefix;
+        private final String extension;
+
+        Format(String virtualPathPrefix, String fileExtension) {
+            prefix = virtualPathPrefix;
+            extension = fileExtension;
+        }
+    }
+
+    private static final int MAX_OPEN_ARCHIVES = 8;
+    private static final int TAR_BLOCK_SIZE = 512;
+    private static final int MAX_EXTENDED_HEADER_LENGTH = 1024 * 1024;
+
+    private final Map<Path, OpenArchive> openArchives = new LinkedHashMap<Path, OpenArchive>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, OpenArchive> eldest) {
+            if (size() <= MAX_OPEN_ARCHIVES) {
+                return false;
+            }
+            eldest.getValue().evict();
+            return true;
+        }
+    };
+
+    /**
+     * A member of an archive.
+     */
+    static class Member
+    {
+        private final Format format;
+        private final Path archive;
+        private final String name;
+
+        Member(Format format, Path archive, String name) {
+            this.format = format;
+            this.archive = archive;
+            this.name = name;
+        }
+
+        /**
+         * Work out which archive member a file name refers to.
+         *
+         * @param datasetName a file name, as handed out by the corpus walker
+         * @return the member, or null if the name is not the virtual path of an archive member
+         */
+        static Member parse(String datasetName) {
+            for (Format format : Format.values()) {
+                if (!datasetName.startsWith(format.prefix)) {
+                    continue;
+                }
+                // Like GDAL, take the archive to end at the first path component with the archive extension
+                String path = datasetName.substring(format.prefix.length());
+                int end = path.toLowerCase(Locale.ROOT).indexOf(format.extension + "/");
+                if (end < 0) {
+                    return null;
+                }
+                end += format.extension.length();
+                return new Member(format, Paths.get(path.substring(0, end)), path.substring(end + 1));
+            }
+            return null;
+        }
+
+        Path getArchive() {
+            return archive;
+        }
+
+        /**
+         * @return the name of the member within the archive
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return the GDAL virtual path of the member
+         */
+        String getDatasetName() {
+            return getDatasetName(archive.toString());
+        }
+
+        /**
+         * @param archiveName what to call the archive, in place of its path
+         * @return the GDAL virtual path of the member, with the archive given that name
+         */
+        String getDatasetName(String archiveName) {
+            return format.prefix + archiveName + "/" + name;
+        }
+    }
+
+    /**
+     * Find out whether a file is an archive we can read, going by its extension.
+     *
+     * @param file the file
+     * @return the archive format, or null if it is not an archive
+     */
+    static Format formatOf(Path file) {
+        Path fileName = file.getFileName();
+        if (fileName == null) {
+            return null;
+        }
+        String name = fileName.toString().toLowerCase(Locale.ROOT);
+        for (Format format : Format.values()) {
+            if (name.endsWith(format.extension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * List the regular files in an archive.
+     *
+     * @param archive the archive
+     * @param format its format
+     * @return the members, in the order they appear in the archive
+     * @throws IOException if the archive could not be read
+     */
+    static List<Member> listMembers(Path archive, Format format) throws IOException {
+        List<Member> members = new ArrayList<Member>();
+        if (format == Format.ZIP) {
+            ZipFile zip = new ZipFile(archive.toFile());
+            try {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (!entry.isDirectory()) {
+                        members.add(new Member(format, archive, entry.getName()));
+                    }
+                }
+            } finally {
+                zip.close();
+            }
+        } else {
+            for (String name : readTarIndex(archive).keySet()) {
+                members.add(new Member(format, archive, name));
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Open a member for header-only parsing.
+     *
+     * @param member the member
+     * @return the member's bytes
+     * @throws IOException if the archive could not be read, or does not have the member
+     */
+    HeaderInputStream openHeaderInput(Member member) throws IOException {
+        final OpenArchive archive = acquire(member);
+        boolean opened = false;
+        try {
+            HeaderInputStream input;
+            if (archive.zip != null) {
+                ZipEntry entry = findZipEntry(archive, member);
+                InputStream entryStream = new FilterInputStream(archive.zip.getInputStream(entry)) {
+                    private boolean closed = false;
+
+                    @Override
+                    public void close() throws IOException {
+                        if (closed) {
+                            return;
+                        }
+                        closed = true;
+                        try {
+                            super.close();
+                        } finally {
+                            release(archive);
+                        }
+                    }
+                };
+                input = new HeaderInputStream(entryStream, entry.getSize());
+            } else {
+                long[] location = findTarMember(archive, member);
+                // The channel is only ours, so the archive can be let go straight away
+                input = new HeaderInputStream(FileChannel.open(member.getArchive(), StandardOpenOption.READ), location[0], location[1]);
+                release(archive);
+            }
+            opened = true;
+            return input;
+        } finally {
+            if (!opened) {
+                release(archive);
+            }
+        }
+    }
+
+    /**
+     * Sniff a member, as {@link NitfSniffer#sniff(Path)} does a file.
+     *
+     * @param member the member
+     * @return whether it looks like a NITF file, and why not if it does not
+     * @throws IOException if the archive could not be read, or does not have the member
+     */
+    NitfSniffer.Result sniff(Member member) throws IOException {
+        HeaderInputStream input = openHeaderInput(member);
+        try {
+            return NitfSniffer.sniff(input, input.getRemainingLength());
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Close any archives still open.
+     */
+    synchronized void close() {
+        for (OpenArchive archive : openArchives.values()) {
+            archive.evict();
+        }
+        openArchives.clear();
+    }
+
+    private synchronized OpenArchive acquire(Member member) throws IOException {
+        OpenArchive archive = openArchives.get(member.getArchive());
+        if (archive == null) {
+            if (member.format == Format.ZIP) {
+                archive = new OpenArchive(new ZipFile(member.getArchive().toFile()), null);
+            } else {
+                archive = new OpenArchive(null, readTarIndex(member.getArchive()));
+            }
+            openArchives.put(member.getArchive(), archive);
+        }
+        archive.users++;
+        return archive;
+    }
+
+    private synchronized void release(OpenArchive archive) {
+        archive.users--;
+        if (archive.evicted && (archive.users == 0)) {
+            archive.closeZip();
+        }
+    }
+
+    private static ZipEntry findZipEntry(OpenArchive archive, Member member) throws IOException {
+        ZipEntry entry = archive.zip.getEntry(member.getName());
+        if ((entry == null) || entry.isDirectory()) {
+            throw new IOException(member.getArchive() + " has no member " + member.getName());
+        }
+        if (entry.getSize() < 0) {
+            throw new IOException("The size of " + member.getName() + " in " + member.getArchive() + " is not recorded");
+        }
+        return entry;
+    }
+
+    private static long[] findTarMember(OpenArchive archive, Member member) throws IOException {
+        long[] location = archive.tarMembers.get(member.getName());
+        if (location == null) {
+            throw new IOException(member.getArchive() + " has no member " + member.getName());
+        }
+        return location;
+    }
+
+    /**
+     * Read the headers of a tar archive, skipping over the member data.
+     *
+     * Handles ustar and old-style headers, GNU long names, and the names and sizes in pax extended headers.
+     *
+     * @return the offset and length of each regular file, by name
+     */
+    private static Map<String, long[]> readTarIndex(Path archive) throws IOException {
+        Map<String, long[]> members = new LinkedHashMap<String, long[]>();
+        FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            long position = 0;
+            String longName = null;
+            long longSize = -1;
+            while (position + TAR_BLOCK_SIZE <= size) {
+                byte[] header = readBlock(channel, position, TAR_BLOCK_SIZE);
+                if (isZeroBlock(header)) {
+                    break;
+                }
+                if (!hasValidChecksum(header)) {
+                    throw new IOException(archive + " is not a tar archive, or is corrupt at offset " + position);
+                }
+                char type = (char) header[156];
+                boolean isFileEntry = (type != 'L') && (type != 'x') && (type != 'g');
+                long dataLength = (isFileEntry && (longSize >= 0)) ? longSize : parseTarNumber(header, 124, 12);
+                long dataOffset = position + TAR_BLOCK_SIZE;
+                if ((dataLength < 0) || (dataOffset + dataLength > size)) {
+                    throw new IOException(archive + " is truncated");
+                }
+                if (type == 'L') {
+                    longName = trimNul(readText(channel, dataOffset, dataLength));
+                } else if (type == 'x') {
+                    Map<String, String> records = parsePaxRecords(readText(channel, dataOffset, dataLength));
+                    if (records.containsKey("path")) {
+                        longName = records.get("path");
+                    }
+                    if (records.containsKey("size")) {
+                        longSize = parseLong(records.get("size"));
+                    }
+                } else if (isFileEntry) {
+                    String name = (longName != null) ? longName : headerName(header);
+                    longName = null;
+                    longSize = -1;
+                    if ((type == '0') || (type == '\0') || (type == '7')) {
+                        members.put(name, new long[] {dataOffset, dataLength});
+                    }
+                }
+                position = dataOffset + (dataLength + TAR_BLOCK_SIZE - 1) / TAR_BLOCK_SIZE * TAR_BLOCK_SIZE;
+            }
+        } finally {
+            channel.close();
+        }
+        return members;
+    }
+
+    private static byte[] readBlock(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of archive");
+            }
+        }
+        return buffer.array();
+    }
+
+    private static String readText(FileChannel channel, long position, long length) throws IOException {
+        if (length > MAX_EXTENDED_HEADER_LENGTH) {
+            throw new IOException("Tar extended header of " + length + " bytes is too long");
+        }
+        return new String(readBlock(channel, position, (int) length), StandardCharsets.UTF_8);
+    }
+
+    private static long parseLong(String text) throws IOException {
+        try {
+            return Long.parseLong(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad size in tar extended header: " + text);
+        }
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasValidChecksum(byte[] header) {
+        long expected = parseTarNumber(header, 148, 8);
+        long sum = 0;
+        for (int i = 0; i < TAR_BLOCK_SIZE; ++i) {
+            // The checksum field itself counts as spaces
+            sum += ((i >= 148) && (i < 156)) ? ' ' : (header[i] & 0xFF);
+        }
+        return sum == expected;
+    }
+
+    // Octal, padded with spaces or NULs; or for large values, base-256 flagged by the top bit of the first byte
+    private static long parseTarNumber(byte[] header, int offset, int length) {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7F;
+            for (int i = offset + 1; i < offset + length; ++i) {
+                value = (value << 8) | (header[i] & 0xFF);
+            }
+            return value;
+        }
+        long value = 0;
+        boolean sawDigit = false;
+        for (int i = offset; i < offset + length; ++i) {
+            int c = header[i];
+            if ((c >= '0') && (c <= '7')) {
+                value = value * 8 + (c - '0');
+                sawDigit = true;
+            } else if (sawDigit || ((c != ' ') && (c != 0))) {
+                break;
+            }
+        }
+        return sawDigit ? value : -1;
+    }
+
+    private static String headerName(byte[] header) {
+        String name = trimNul(new String(header, 0, 100, StandardCharsets.UTF_8));
+        boolean ustar = new String(header, 257, 5, StandardCharsets.US_ASCII).equals("ustar");
+        if (ustar) {
+            String prefix = trimNul(new String(header, 345, 155, StandardCharsets.UTF_8));
+            if (!prefix.isEmpty()) {
+                return prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String trimNul(String text) {
+        int end = text.indexOf('\0');
+        return (end < 0) ? text : text.substring(0, end);
+    }
+
+    // Pax records are "LENGTH KEY=VALUE\n"
+    private static Map<String, String> parsePaxRecords(String text) {
+        Map<String, String> records = new HashMap<String, String>();
+        for (String record : text.split("\n")) {
+            int space = record.indexOf(' ');
+            int equals = record.indexOf('=');
+            if ((space >= 0) && (equals > space)) {
+                records.put(record.substring(space + 1, equals), record.substring(equals + 1));
+            }
+        }
+        return records;
+    }
+
+    private static class OpenArchive
+    {
+        final ZipFile zip;
+        final Map<String, long[]> tarMembers;
+        int users = 0;
+        boolean evicted = false;
+
+        OpenArchive(ZipFile zip, Map<String, long[]> tarMembers) {
+            this.zip = zip;
+            this.tarMembers = tarMembers;
+        }
+
+        // Called with the reader locked
+        void evict() {
+            evicted = true;
+            if (users == 0) {
+                closeZip();
+            }
+        }
+
+        void closeZip() {
+            if (zip == null) {
+                return;
+            }
+            try {
+                zip.close();
+            } catch (IOException e) {
+                System.err.println("Could not close " + zip.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package org.codice.nitf;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Sends files to a small pool of long-lived helper processes, instead of starting gdalinfo for every file.
+ *
+ * The protocol is line based, so the helper is easy to write in any scripting language (see src/main/scripts):
+ * <ul>
+ * <li>For each file, we write its path on a line of the helper's standard input.</li>
+ * <li>The helper writes the gdalinfo output for that file to standard output, followed by a line starting with
+ * {@value #END_MARKER}, optionally followed by a space and an exit status. A non-zero status means the file could
+ * not be described.</li>
+ * <li>A request of "--version" should be answered with the gdalinfo version line, then the end marker.</li>
+ * </ul>
+ * Anything the helper writes to standard error is discarded.
+ *
+ * A helper that dies, or is killed because a request timed out, is started again on its next use.
+ */
+class BatchGdalOracle implements MetadataOracle
+{
+    static final String END_MARKER = "@@END";
+    private static final String VERSION_REQUEST = "--version";
+
+    private final List<String> command;
+    private final BlockingQueue<Helper> idleHelpers;
+    private final ExecutorService requestRunners = Executors.newCachedThreadPool(new DaemonThreadFactory("gdalinfo-batch"));
+    private final LineRules.Normalizer normalizer;
+    private final RunMetrics metrics;
+
+    /**
+     * Constructor.
+     *
+     * @param helperCommand the command line that starts a helper
+     * @param poolSize the maximum number of helpers to run at once
+     * @param outputNormalizer the rules applied to each line of output
+     * @param runMetrics where helper start and response times are recorded
+     */
+    BatchGdalOracle(List<String> helperCommand, int poolSize, LineRules.Normalizer outputNormalizer, RunMetrics runMetrics) {
+        command = new ArrayList<String>(helperCommand);
+        normalizer = outputNormalizer;
+        metrics = runMetrics;
+        idleHelpers = new ArrayBlockingQueue<Helper>(poolSize);
+        for (int i = 0; i < poolSize; ++i) {
+            idleHelpers.add(new Helper());
+        }
+    }
+
+    @Override
+    public Future<List<String>> describe(String filename) {
+        final Request request = new Request(filename);
+        FutureTask<List<String>> task = new FutureTask<List<String>>(request) {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                request.abort();
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        requestRunners.execute(task);
+        return task;
+    }
+
+    @Override
+    public String getVersion() throws IOException {
+        try {
+            List<String> lines = new Request(VERSION_REQUEST).call();
+            if (lines.isEmpty()) {
+                throw new IOException("Helper did not report a version");
+            }
+            return lines.get(0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a helper", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        requestRunners.shutdownNow();
+        for (Helper helper : idleHelpers) {
+            helper.stop();
+        }
+    }
+
+    private class Request implements Callable<List<String>>
+    {
+        private final String filename;
+        private volatile Helper helper = null;
+
+        Request(String fileName) {
+            filename = fileName;
+        }
+
+        @Override
+        public List<String> call() throws IOException, InterruptedException {
+            Helper assigned = idleHelpers.take();
+            assigned.setOwner(this);
+            helper = assigned;
+            try {
+                return assigned.describe(filename);
+            } finally {
+                helper = null;
+                assigned.setOwner(null);
+                // Not put(), which throws if cancelling interrupted us and would lose the helper; there is always room
+                idleHelpers.add(assigned);
+            }
+        }
+
+        void abort() {
+            Helper assigned = helper;
+            if (assigned != null) {
+                // Only kill the helper if it is still working on this request
+                assigned.stopIfOwnedBy(this);
+            }
+        }
+    }
+
+    private class Helper
+    {
+        private Process process = null;
+        private BufferedWriter requests = null;
+        private BufferedReader responses = null;
+        private Object owner = null;
+        // False while a response is partly read, at which point the helper cannot be reused
+        private boolean inSync = true;
+
+        List<String> describe(String filename) throws IOException {
+            if ((filename.indexOf('\n') >= 0) || (filename.indexOf('\r') >= 0)) {
+                throw new IOException("Cannot send a file name containing a line break to the helper: " + filename);
+            }
+            BufferedWriter writer;
+            BufferedReader reader;
+            synchronized (this) {
+                if (!inSync) {
+                    stopProcess();
+                }
+                if (process == null) {
+                    start();
+                }
+                writer = requests;
+                reader = responses;
+                inSync = false;
+            }
+            long readStart = metrics.start();
+            try {
+                writer.write(filename);
+                writer.write("\n");
+                writer.flush();
+                return readResponse(reader, filename);
+            } catch (HelperFailureException e) {
+                throw e;
+            } catch (IOException e) {
+                stop();
+                throw e;
+            } finally {
+                metrics.record(RunMetrics.Phase.GDAL_READ, readStart);
+            }
+        }
+
+        private List<String> readResponse(BufferedReader reader, String filename) throws IOException {
+            boolean filterOutput = !filename.equals(VERSION_REQUEST);
+            List<String> lines = new ArrayList<String>();
+            boolean stopped = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(END_MARKER)) {
+                    synchronized (this) {
+                        inSync = true;
+                    }
+                    String status = line.substring(END_MARKER.length()).trim();
+                    if ((status.length() > 0) && !status.equals("0")) {
+                        throw new HelperFailureException("Helper could not describe " + filename + ", status " + status);
+                    }
+                    return lines;
+                }
+                if (stopped) {
+                    // Keep reading up to the end marker, but ignore the rest
+                    continue;
+                }
+                if (!filterOutput) {
+                    lines.add(line);
+                } else if (!normalizer.apply(line, lines)) {
+                    stopped = true;
+                }
+            }
+            throw new IOException("Helper exited while describing " + filename);
+        }
+
+        private void start() throws IOException {
+            long spawnStart = metrics.start();
+            ProcessBuilder processBuilder = new ProcessBuilder(command);
+            processBuilder.environment().put("NITF_OPEN_UNDERLYING_DS", "NO");
+            process = processBuilder.start();
+            metrics.record(RunMetrics.Phase.GDAL_SPAWN, spawnStart);
+            GdalInfoOracle.drainStream(requestRunners, process.getErrorStream());
+            requests = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), "UTF-8"));
+            responses = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+            inSync = true;
+        }
+
+        synchronized void setOwner(Object request) {
+            owner = request;
+        }
+
+        synchronized void stopIfOwnedBy(Object request) {
+            if (owner == request) {
+                stopProcess();
+            }
+        }
+
+        synchronized void stop() {
+            stopProcess();
+        }
+
+        private void stopProcess() {
+            if (process != null) {
+                // Besides shutdown, this is how a timed out request ends, so the helper may be hung and deaf to SIGTERM
+                process.destroyForcibly();
+                process = null;
+            }
+        }
+    }
+
+    /**
+     * The helper ran, but reported that it could not describe the file. The helper itself is still usable.
+     */
+    static class HelperFailureException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        HelperFailureException(String message) {
+            super(message);
+        }
+    }
+}
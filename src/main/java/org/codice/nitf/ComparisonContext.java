@@ -0,0 +1,195 @@
+package org.codice.nitf;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Everything shared by the comparisons in a run: the options, plus services such as the metadata oracle and the
+ * verdict cache.
+ */
+class ComparisonContext
+{
+    private final ComparisonOptions options;
+    private final RunMetrics metrics;
+    private final LineRules lineRules;
+    private final CorpusRoots corpusRoots = new CorpusRoots();
+    // The rules the gdalinfo side is normalized with: this run's, unless it replays output normalized earlier
+    private String theirLineRulesText;
+    private final MetadataOracle metadataOracle;
+    private final DiffEngine diffEngine;
+    private final ArchiveReader archiveReader = new ArchiveReader();
+    private VerdictCache verdictCache = null;
+    private RunJournal journal = null;
+    private ExecutorService segmentExecutor = null;
+
+    ComparisonContext(ComparisonOptions comparisonOptions) throws IOException {
+        this(comparisonOptions, null);
+    }
+
+    /**
+     * Constructor for a given metadata oracle, such as one a test controls.
+     *
+     * @param comparisonOptions the comparison options
+     * @param oracle the metadata oracle, or null to create the one the options ask for
+     * @throws IOException if the shared services could not be set up
+     */
+    ComparisonContext(ComparisonOptions comparisonOptions, MetadataOracle oracle) throws IOException {
+        options = comparisonOptions;
+        if (options.reportTiming() || (options.getTimingOutput() != null)) {
+            metrics = new RunMetrics(true);
+        } else {
+            metrics = RunMetrics.DISABLED;
+        }
+        if (options.getRulesFile() == null) {
+            lineRules = LineRules.loadDefaults();
+        } else {
+            lineRules = LineRules.load(options.getRulesFile());
+        }
+        theirLineRulesText = lineRules.getText();
+        for (Path root : options.getCorpusRoots()) {
+            corpusRoots.add(root);
+        }
+        metadataOracle = (oracle == null) ? createMetadataOracle() : oracle;
+        diffEngine = createDiffEngine(options.getDiffMode(), options.getMaxDiffEdits());
+        if (options.getCacheDirectory() != null) {
+            String configuration = "gdalinfo=" + metadataOracle.getVersion()
+                + "\ntool=" + getToolVersion()
+                + "\ndiff=" + options.getDiffMode()
+                + "\nrules=" + lineRules.getText()
+                + "\ntheir-rules=" + theirLineRulesText;
+            verdictCache = new VerdictCache(options.getCacheDirectory(), options.getCacheMaxBytes(), configuration);
+        }
+        if (options.getJournalFile() != null) {
+            journal = new RunJournal(options.getJournalFile(), options.resume());
+        }
+        if (options.compareAllImageSegments()) {
+            segmentExecutor = Executors.newFixedThreadPool(options.getSegmentJobs(), new DaemonThreadFactory("segment-comparison"));
+        }
+    }
+
+    private MetadataOracle createMetadataOracle() throws IOException {
+        MetadataOracle oracle = createUnderlyingOracle();
+        if (options.getOracleRecordFile() != null) {
+            try {
+                return new RecordingOracle(oracle, options.getOracleRecordFile(), theirLineRulesText, corpusRoots);
+            } catch (IOException e) {
+                oracle.close();
+                throw e;
+            }
+        }
+        return oracle;
+    }
+
+    private MetadataOracle createUnderlyingOracle() throws IOException {
+        switch (options.getOracleType()) {
+            case REPLAY:
+                if (options.getOracleArchive() == null) {
+                    throw new IOException("The replay oracle needs an archive (--oracle-archive)");
+                }
+                ReplayOracle replay = new ReplayOracle(options.getOracleArchive(), lineRules, corpusRoots);
+                theirLineRulesText = replay.getRecordedLineRules();
+                return replay;
+            case BATCH:
+                if (options.getOracleCommand().isEmpty()) {
+                    throw new IOException("The batch oracle needs a helper command (--oracle-command)");
+                }
+                return new BatchGdalOracle(options.getOracleCommand(), options.getOraclePoolSize(), lineRules.forTheirs(), metrics);
+            case PROCESS:
+            default:
+                return new GdalInfoOracle(lineRules.forTheirs(), metrics);
+        }
+    }
+
+    static DiffEngine createDiffEngine(ComparisonOptions.DiffMode diffMode, int maxDiffEdits) {
+        switch (diffMode) {
+            case LINES:
+                return new LineDiffEngine();
+            case LINEAR:
+                return new LinearDiffEngine(maxDiffEdits);
+            case SECTIONS:
+            default:
+                return new SectionDiffEngine(new LinearDiffEngine(maxDiffEdits));
+        }
+    }
+
+    ComparisonOptions getOptions() {
+        return options;
+    }
+
+    MetadataOracle getMetadataOracle() {
+        return metadataOracle;
+    }
+
+    /**
+     * @return the run's timing metrics, which do nothing unless timing was asked for
+     */
+    RunMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the rules that normalize both outputs before they are compared
+     */
+    LineRules getLineRules() {
+        return lineRules;
+    }
+
+    DiffEngine getDiffEngine() {
+        return diffEngine;
+    }
+
+    /**
+     * @return the reader for files inside zip and tar archives
+     */
+    ArchiveReader getArchiveReader() {
+        return archiveReader;
+    }
+
+    /**
+     * @return the verdict cache, or null if caching is not enabled
+     */
+    VerdictCache getVerdictCache() {
+        return verdictCache;
+    }
+
+    /**
+     * @return the progress journal, or null if progress is not being journaled
+     */
+    RunJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @return the executor that image segment comparisons run on, or null if only whole files are compared
+     */
+    ExecutorService getSegmentExecutor() {
+        return segmentExecutor;
+    }
+
+    /**
+     * Tidy up at the end of a run.
+     */
+    void close() {
+        if (segmentExecutor != null) {
+            segmentExecutor.shutdown();
+        }
+        if (verdictCache != null) {
+            verdictCache.evict();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        metadataOracle.close();
+        archiveReader.close();
+    }
+
+    static String getToolVersion() {
+        String version = FileComparison.class.getPackage().getImplementationVersion();
+        if (version == null) {
+            return "development";
+        }
+        return version;
+    }
+}
@@ -0,0 +1,329 @@
+package org.codice.nitf;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compares files named by a client, one path per line, so a long-running tool can reuse one warm JVM.
+ *
+ * For each path, the daemon writes the same report a comparison run prints for the file, followed by a line
+ * "@@END &lt;verdict&gt;". Responses come back in the order the paths were sent, but up to --jobs comparisons run at
+ * once, so a client can send a whole batch without waiting for each answer. Clients talk to the daemon either over
+ * its standard input and output, or by connecting to a port on the loopback interface and sending the daemon's
+ * token; each connection is served separately, and all of them share the comparison jobs.
+ */
+class ComparisonDaemon
+{
+    static final String END_MARKER = "@@END ";
+    static final String DENIED_MARKER = "@@DENIED";
+    private static final int TOKEN_BYTES = 32;
+    // How long a client has to send the token once it connects
+    private static final int TOKEN_TIMEOUT_MILLIS = 10000;
+
+    private final ComparisonContext context;
+    private final ComparisonService service;
+    private final ExecutorService executor;
+    private final int jobs;
+    private final RunSummary summary = new RunSummary();
+    private volatile ServerSocket serverSocket = null;
+    private volatile boolean stopped = false;
+
+    /**
+     * Constructor.
+     *
+     * @param comparisonContext the run's context
+     */
+    ComparisonDaemon(ComparisonContext comparisonContext) {
+        context = comparisonContext;
+        service = new ComparisonService(context);
+        jobs = context.getOptions().getJobs();
+        executor = Executors.newFixedThreadPool(jobs, new DaemonThreadFactory("daemon-comparison"));
+    }
+
+    /**
+     * Answer requests from one client until it has no more.
+     *
+     * @param requests where the paths come from
+     * @param responses where the reports go
+     * @throws IOException if the requests could not be read or the responses written
+     */
+    void serve(InputStream requests, OutputStream responses) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(requests, StandardCharsets.UTF_8));
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(responses, StandardCharsets.UTF_8));
+        final OrderedResults<ComparisonResult> results = new OrderedResults<ComparisonResult>(jobs);
+        final AtomicReference<IOException> writeFailure = new AtomicReference<IOException>();
+        // Answers go out as soon as they are ready, while we wait for the next request
+        Thread responder = new Thread("daemon-responder") {
+            @Override
+            public void run() {
+                try {
+                    writeFailure.set(writeResponses(results, writer));
+                } catch (Throwable e) {
+                    // The reader stops at the failure, but may already be waiting for room in the queue
+                    writeFailure.set(new IOException("Could not answer requests: " + e, e));
+                    discardResults(results);
+                }
+            }
+        };
+        responder.setDaemon(true);
+        responder.start();
+        try {
+            String path;
+            while ((writeFailure.get() == null) && ((path = reader.readLine()) != null)) {
+                if (path.isEmpty()) {
+                    continue;
+                }
+                final String filename = path;
+                results.put(executor.submit(new Callable<ComparisonResult>() {
+                    @Override
+                    public ComparisonResult call() {
+                        return service.compare(filename);
+                    }
+                }));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            results.close();
+        }
+        try {
+            responder.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writeFailure.get() != null) {
+            throw writeFailure.get();
+        }
+    }
+
+    /**
+     * Write each result in turn, until the end of the requests.
+     *
+     * Every request is still waited for (and counted) after a write fails, so the reader never blocks on a full
+     * queue. A comparison that throws, rather than giving a verdict, leaves nothing to answer its path with, so it
+     * fails the connection in the same way.
+     *
+     * @return the first failure, or null if every response was written
+     */
+    private IOException writeResponses(OrderedResults<ComparisonResult> results, Writer writer) {
+        IOException failure = null;
+        while (true) {
+            ComparisonResult result;
+            try {
+                result = results.take();
+            } catch (IllegalStateException e) {
+                if (failure == null) {
+                    failure = new IOException(e.getMessage() + ": " + e.getCause(), e);
+                    try {
+                        // The answers before it are still good
+                        writer.flush();
+                    } catch (IOException flushFailure) {
+                        // The connection is failing anyway
+                    }
+                }
+                continue;
+            }
+            if (result == null) {
+                break;
+            }
+            summary.record(result.getFilename(), result.getVerdict());
+            if (context.getJournal() != null) {
+                context.getJournal().record(result.getFilename(), result.getVerdict());
+            }
+            if (failure != null) {
+                continue;
+            }
+            try {
+                writer.write(result.getReport());
+                writer.write(END_MARKER + result.getVerdict() + "\n");
+                if (!results.isNextReady()) {
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure == null) {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        return failure;
+    }
+
+    // Wait out the remaining requests without answering them
+    private static void discardResults(OrderedResults<ComparisonResult> results) {
+        while (true) {
+            try {
+                if (results.take() == null) {
+                    return;
+                }
+            } catch (IllegalStateException e) {
+                // Already failed
+            }
+        }
+    }
+
+    /**
+     * Accept clients on a loopback port, until {@link #stop()} is called.
+     *
+     * Any local user can connect to a loopback port, so a client must first send a line holding the token the
+     * daemon writes to the token file, which only the daemon's owner can read. Connections that send anything else
+     * get a single "@@DENIED" line and are closed. The token file is removed when the daemon stops listening.
+     *
+     * @param port the port
+     * @param tokenFile where to write the token; replaced if it exists
+     * @throws IOException if the token could not be written or the port listened on
+     */
+    void listen(int port, Path tokenFile) throws IOException {
+        final byte[] token = createToken(tokenFile);
+        try {
+            serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+            System.out.println("Listening for files to compare on " + serverSocket.getLocalSocketAddress() + ", token in " + tokenFile);
+            while (!stopped) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketException e) {
+                    if (stopped) {
+                        break;
+                    }
+                    throw e;
+                }
+                Thread connection = new Thread("daemon-connection-" + socket.getPort()) {
+                    @Override
+                    public void run() {
+                        try {
+                            if (authenticate(socket, token)) {
+                                serve(socket.getInputStream(), socket.getOutputStream());
+                            } else {
+                                System.out.println("Refused connection from port " + socket.getPort() + ": wrong token");
+                                socket.getOutputStream().write((DENIED_MARKER + "\n").getBytes(StandardCharsets.US_ASCII));
+                            }
+                        } catch (IOException e) {
+                            System.out.println("Lost connection from port " + socket.getPort() + ": " + e.getMessage());
+                        } finally {
+                            closeSocket(socket);
+                        }
+                    }
+                };
+                connection.setDaemon(true);
+                connection.start();
+            }
+        } finally {
+            Files.deleteIfExists(tokenFile);
+        }
+    }
+
+    /**
+     * Make a new random token, and write it to a file only the owner can read.
+     *
+     * @return the token, as the hex digits a client sends
+     */
+    private static byte[] createToken(Path tokenFile) throws IOException {
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        StringBuilder token = new StringBuilder();
+        for (byte b : random) {
+            token.append(String.format("%02x", b & 0xFF));
+        }
+        // A token file left by an earlier daemon may have been read already, so start a new one rather than reuse it
+        Files.deleteIfExists(tokenFile);
+        if (tokenFile.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            // Owner-only from the start, so there is no moment at which another user could open it
+            Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(tokenFile);
+        }
+        Files.write(tokenFile, (token + "\n").getBytes(StandardCharsets.US_ASCII));
+        return token.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Read the first line a client sends, and check that it is the token.
+     *
+     * The line is read a byte at a time, without buffering, so the requests that follow it are left for serve().
+     */
+    private static boolean authenticate(Socket socket, byte[] token) throws IOException {
+        socket.setSoTimeout(TOKEN_TIMEOUT_MILLIS);
+        InputStream input = socket.getInputStream();
+        // Long enough for the token and a line ending, and no more, whatever the client sends
+        byte[] line = new byte[token.length + 2];
+        int length = 0;
+        int next;
+        while (((next = input.read()) != -1) && (next != '\n')) {
+            if (length == line.length) {
+                return false;
+            }
+            line[length++] = (byte) next;
+        }
+        if ((length > 0) && (line[length - 1] == '\r')) {
+            length--;
+        }
+        socket.setSoTimeout(0);
+        // Compared in constant time, so the timing of a refusal says nothing about how much of the token was right
+        return MessageDigest.isEqual(Arrays.copyOf(line, length), token);
+    }
+
+    private static void closeSocket(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.out.println("Could not close connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop accepting clients. Comparisons already started carry on, and are answered.
+     */
+    void stop() {
+        stopped = true;
+        ServerSocket listener = serverSocket;
+        if (listener != null) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                System.out.println("Could not stop listening: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Wait for outstanding comparisons and shut down the worker threads.
+     *
+     * @return the summary of every comparison the daemon answered
+     */
+    RunSummary finish() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return summary;
+    }
+}
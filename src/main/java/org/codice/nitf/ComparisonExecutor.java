@@ -0,0 +1,158 @@
+package org.codice.nitf;
+
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs file comparisons concurrently, while keeping console output in submission order.
+ *
+ * Each comparison writes its report into a private buffer. Buffers are printed in the order the files were
+ * submitted, so the output for one file is never interleaved with another, and a run with N jobs prints the
+ * same thing as a run with one job.
+ */
+class ComparisonExecutor
+{
+    // For files that were not found by watching a directory
+    private static final long NOT_WATCHED = Long.MIN_VALUE;
+
+    private final ComparisonContext context;
+    private final ComparisonService service;
+    private final ExecutorService executor;
+    private final Semaphore runningComparisons;
+    private final PrintStream console;
+    private final OrderedResults<FileOutcome> results;
+    private final RunSummary summary = new RunSummary();
+
+    ComparisonExecutor(ComparisonContext comparisonContext, PrintStream consoleStream) {
+        context = comparisonContext;
+        service = new ComparisonService(context);
+        console = consoleStream;
+        ComparisonOptions options = context.getOptions();
+        runningComparisons = new Semaphore(options.getJobs());
+        results = new OrderedResults<FileOutcome>(options.getJobs());
+        executor = createExecutor(options);
+    }
+
+    private ExecutorService createExecutor(ComparisonOptions options) {
+        if (options.useVirtualThreads()) {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual threads are not available on this JVM, using platform threads");
+            }
+        }
+        return Executors.newFixedThreadPool(options.getJobs());
+    }
+
+    /**
+     * Queue a file for comparison.
+     *
+     * This blocks if too many results are waiting to be printed, so that walking a huge directory does not get
+     * arbitrarily far ahead of the comparisons. Files that a resumed journal says are already done are counted in
+     * the summary with their earlier verdict, and not compared again.
+     *
+     * @param filename the file to compare
+     */
+    void submit(String filename) {
+        submit(filename, NOT_WATCHED);
+    }
+
+    /**
+     * Queue a file that watching a directory found, so that its verdict is printed with the time since it appeared.
+     *
+     * @param filename the file to compare
+     * @param seenTime when the file was first seen, from System.nanoTime()
+     */
+    void submitWatched(String filename, long seenTime) {
+        submit(filename, seenTime);
+    }
+
+    /**
+     * Print the output of any comparisons that have finished, without waiting for the others.
+     */
+    void printFinishedResults() {
+        printCompletedResults(Integer.MAX_VALUE);
+    }
+
+    private void submit(final String filename, final long seenTime) {
+        RunJournal journal = context.getJournal();
+        Verdict earlierVerdict = (journal == null) ? null : journal.takeCompletedVerdict(filename);
+        if (earlierVerdict != null) {
+            summary.record(filename, earlierVerdict);
+            return;
+        }
+        results.add(executor.submit(new Callable<FileOutcome>() {
+            @Override
+            public FileOutcome call() throws InterruptedException {
+                runningComparisons.acquire();
+                try {
+                    return compareOneFile(filename, seenTime);
+                } finally {
+                    runningComparisons.release();
+                }
+            }
+        }));
+        printCompletedResults(results.getMaxPending());
+    }
+
+    /**
+     * Wait for all outstanding comparisons, print their output and shut down the worker threads.
+     *
+     * @return the summary of every comparison submitted to this executor
+     */
+    RunSummary finish() {
+        printCompletedResults(0);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return summary;
+    }
+
+    private void printCompletedResults(int allowedPending) {
+        FileOutcome outcome;
+        while ((outcome = results.poll(allowedPending)) != null) {
+            console.print(outcome.report);
+            if (outcome.seenTime != NOT_WATCHED) {
+                long latency = System.nanoTime() - outcome.seenTime;
+                console.println(String.format(Locale.ROOT, "Verdict for %s: %s, %.1f ms after it appeared", outcome.filename,
+                                              outcome.verdict, latency / 1000000.0));
+                context.getMetrics().record(RunMetrics.Phase.INGEST, outcome.seenTime);
+            }
+            console.flush();
+            summary.record(outcome.filename, outcome.verdict);
+            if (context.getJournal() != null) {
+                context.getJournal().record(outcome.filename, outcome.verdict);
+            }
+        }
+    }
+
+    private FileOutcome compareOneFile(String filename, long seenTime) {
+        ComparisonResult result = service.compare(filename);
+        return new FileOutcome(filename, result.getVerdict(), result.getReport(), seenTime);
+    }
+
+    private static class FileOutcome
+    {
+        final String filename;
+        final Verdict verdict;
+        final String report;
+        final long seenTime;
+
+        FileOutcome(String filename, Verdict verdict, String report, long seenTime) {
+            this.filename = filename;
+            this.verdict = verdict;
+            this.report = report;
+            this.seenTime = seenTime;
+        }
+    }
+}
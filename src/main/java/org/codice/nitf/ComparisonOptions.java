@@ -0,0 +1,443 @@
+package org.codice.nitf;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings for a comparison run, as parsed from the command line.
+ */
+public class ComparisonOptions
+{
+    /**
+     * Where the reference (gdalinfo) metadata comes from.
+     */
+    public enum OracleType
+    {
+        /** Run gdalinfo once per file. */
+        PROCESS,
+        /** Send files to a pool of long-lived helper processes. */
+        BATCH,
+        /** Read output recorded earlier from an oracle archive, without running gdalinfo. */
+        REPLAY
+    }
+
+    /**
+     * How the two outputs are compared.
+     */
+    public enum DiffMode
+    {
+        /** Compare section by section, and key by key within sections. */
+        SECTIONS,
+        /** Compare the whole outputs as text. */
+        LINES,
+        /** Compare the whole outputs as text, in linear memory, giving up past the edit cap. */
+        LINEAR
+    }
+
+    private int jobs = 1;
+    private boolean virtualThreads = false;
+    private int gdalTimeoutSeconds = 300;
+    private boolean recursive = false;
+    private boolean ioStatistics = false;
+    private Path cacheDirectory = null;
+    private long cacheMaxBytes = 1024L * 1024 * 1024;
+    private DiffMode diffMode = DiffMode.SECTIONS;
+    private int maxDiffEdits = 1000;
+    private OracleType oracleType = OracleType.PROCESS;
+    private final List<String> oracleCommand = new ArrayList<String>();
+    private int oraclePoolSize = 0;
+    private Path oracleArchive = null;
+    private Path oracleRecordFile = null;
+    private boolean timing = false;
+    private Path timingOutput = null;
+    private Path journalFile = null;
+    private boolean resume = false;
+    private Path rulesFile = null;
+    private boolean mergeJournals = false;
+    private int shardIndex = 0;
+    private int shardCount = 1;
+    private boolean allImageSegments = false;
+    private boolean watch = false;
+    private long watchSettleMillis = 1000;
+    private boolean daemon = false;
+    private int daemonPort = 0;
+    private Path daemonTokenFile = null;
+    private int segmentJobs = 0;
+    private final List<String> includePatterns = new ArrayList<String>();
+    private final List<String> excludePatterns = new ArrayList<String>();
+    private final List<Path> corpusRoots = new ArrayList<Path>();
+
+    /**
+     * @return true to keep watching the directories for new files, rather than comparing what is there now
+     */
+    public boolean watch() {
+        return watch;
+    }
+
+    public void setWatch(boolean watchDirectories) {
+        watch = watchDirectories;
+    }
+
+    /**
+     * @return how long a watched file must go unchanged before it is taken to be complete
+     */
+    public long getWatchSettleMillis() {
+        return watchSettleMillis;
+    }
+
+    public void setWatchSettleMillis(long settleMillis) {
+        if (settleMillis < 0) {
+            throw new IllegalArgumentException("Settle time cannot be negative, got " + settleMillis);
+        }
+        watchSettleMillis = settleMillis;
+    }
+
+    /**
+     * @return true to take files to compare from standard input or a socket, rather than from the command line
+     */
+    public boolean daemon() {
+        return daemon;
+    }
+
+    public void setDaemon(boolean runAsDaemon) {
+        daemon = runAsDaemon;
+    }
+
+    /**
+     * @return the loopback port a daemon listens on, or 0 to read standard input instead
+     */
+    public int getDaemonPort() {
+        return daemonPort;
+    }
+
+    public void setDaemonPort(int port) {
+        if ((port < 1) || (port > 65535)) {
+            throw new IllegalArgumentException("Port must be between 1 and 65535, got " + port);
+        }
+        daemonPort = port;
+    }
+
+    /**
+     * @return where a daemon listening on a port writes the token clients must send, by default
+     * .nitf-comparison-daemon-PORT.token in the user's home directory
+     */
+    public Path getDaemonTokenFile() {
+        if (daemonTokenFile == null) {
+            return Paths.get(System.getProperty("user.home"), ".nitf-comparison-daemon-" + daemonPort + ".token");
+        }
+        return daemonTokenFile;
+    }
+
+    public void setDaemonTokenFile(Path tokenFile) {
+        daemonTokenFile = tokenFile;
+    }
+
+    public int getJobs() {
+        return jobs;
+    }
+
+    public void setJobs(int numberOfJobs) {
+        if (numberOfJobs < 1) {
+            throw new IllegalArgumentException("Number of jobs must be at least 1, got " + numberOfJobs);
+        }
+        jobs = numberOfJobs;
+    }
+
+    public boolean useVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean useVirtualThreads) {
+        virtualThreads = useVirtualThreads;
+    }
+
+    public int getGdalTimeoutSeconds() {
+        return gdalTimeoutSeconds;
+    }
+
+    /**
+     * Set how long to wait for gdalinfo on a single file.
+     *
+     * @param timeoutSeconds the timeout in seconds, or zero to wait forever
+     */
+    public void setGdalTimeoutSeconds(int timeoutSeconds) {
+        if (timeoutSeconds < 0) {
+            throw new IllegalArgumentException("gdalinfo timeout cannot be negative, got " + timeoutSeconds);
+        }
+        gdalTimeoutSeconds = timeoutSeconds;
+    }
+
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    public void setRecursive(boolean walkRecursively) {
+        recursive = walkRecursively;
+    }
+
+    public List<String> getIncludePatterns() {
+        return includePatterns;
+    }
+
+    public void addIncludePattern(String glob) {
+        includePatterns.add(glob);
+    }
+
+    public List<String> getExcludePatterns() {
+        return excludePatterns;
+    }
+
+    public void addExcludePattern(String glob) {
+        excludePatterns.add(glob);
+    }
+
+    public boolean reportIoStatistics() {
+        return ioStatistics;
+    }
+
+    public void setReportIoStatistics(boolean reportStatistics) {
+        ioStatistics = reportStatistics;
+    }
+
+    /**
+     * @return the directory to cache comparison results in, or null if results are not cached
+     */
+    public Path getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public void setCacheDirectory(Path directory) {
+        cacheDirectory = directory;
+    }
+
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    public void setCacheMaxBytes(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size cannot be negative, got " + maxBytes);
+        }
+        cacheMaxBytes = maxBytes;
+    }
+
+    public OracleType getOracleType() {
+        return oracleType;
+    }
+
+    public void setOracleType(OracleType type) {
+        oracleType = type;
+    }
+
+    /**
+     * @return the command line for batch oracle helpers
+     */
+    public List<String> getOracleCommand() {
+        return oracleCommand;
+    }
+
+    /**
+     * Set the command line for batch oracle helpers.
+     *
+     * @param commandLine the command and its arguments, separated by spaces
+     */
+    public void setOracleCommand(String commandLine) {
+        oracleCommand.clear();
+        for (String part : commandLine.trim().split("\\s+")) {
+            if (part.length() > 0) {
+                oracleCommand.add(part);
+            }
+        }
+    }
+
+    /**
+     * @return how many batch oracle helpers to run; defaults to the number of jobs
+     */
+    public int getOraclePoolSize() {
+        if (oraclePoolSize == 0) {
+            return jobs;
+        }
+        return oraclePoolSize;
+    }
+
+    public void setOraclePoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Oracle pool size must be at least 1, got " + poolSize);
+        }
+        oraclePoolSize = poolSize;
+    }
+
+    /**
+     * @return the archive the replay oracle reads, or null if none was given
+     */
+    public Path getOracleArchive() {
+        return oracleArchive;
+    }
+
+    public void setOracleArchive(Path archive) {
+        oracleArchive = archive;
+    }
+
+    /**
+     * @return where to record the oracle's output for later replay, or null to not record it
+     */
+    public Path getOracleRecordFile() {
+        return oracleRecordFile;
+    }
+
+    public void setOracleRecordFile(Path recordFile) {
+        oracleRecordFile = recordFile;
+    }
+
+    public DiffMode getDiffMode() {
+        return diffMode;
+    }
+
+    public void setDiffMode(DiffMode mode) {
+        diffMode = mode;
+    }
+
+    /**
+     * @return the most lines added and removed that the linear diff will look for before calling outputs too different
+     */
+    public int getMaxDiffEdits() {
+        return maxDiffEdits;
+    }
+
+    public void setMaxDiffEdits(int maxEdits) {
+        if (maxEdits < 1) {
+            throw new IllegalArgumentException("Edit cap must be at least 1, got " + maxEdits);
+        }
+        maxDiffEdits = maxEdits;
+    }
+
+    /**
+     * @return true if each image segment of a multi-image file is also compared against its gdalinfo subdataset
+     */
+    public boolean compareAllImageSegments() {
+        return allImageSegments;
+    }
+
+    public void setCompareAllImageSegments(boolean compareAll) {
+        allImageSegments = compareAll;
+    }
+
+    /**
+     * @return how many image segment comparisons to run at once, across all files; defaults to the number of
+     * processors
+     */
+    public int getSegmentJobs() {
+        if (segmentJobs == 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return segmentJobs;
+    }
+
+    public void setSegmentJobs(int numberOfJobs) {
+        if (numberOfJobs < 1) {
+            throw new IllegalArgumentException("Number of segment jobs must be at least 1, got " + numberOfJobs);
+        }
+        segmentJobs = numberOfJobs;
+    }
+
+    public boolean reportTiming() {
+        return timing;
+    }
+
+    public void setReportTiming(boolean printTiming) {
+        timing = printTiming;
+    }
+
+    /**
+     * @return the file to write machine-readable timing metrics to, or null for none
+     */
+    public Path getTimingOutput() {
+        return timingOutput;
+    }
+
+    public void setTimingOutput(Path path) {
+        timingOutput = path;
+    }
+
+    /**
+     * @return the file that progress is journaled to, or null for none
+     */
+    public Path getJournalFile() {
+        return journalFile;
+    }
+
+    public void setJournalFile(Path path) {
+        journalFile = path;
+    }
+
+    /**
+     * @return true if files already in the journal should be skipped
+     */
+    public boolean resume() {
+        return resume;
+    }
+
+    public void setResume(boolean resumeFromJournal) {
+        resume = resumeFromJournal;
+    }
+
+    /**
+     * @return which shard of the files this run compares, from 0 to one less than the shard count
+     */
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    /**
+     * @return how many shards the files are split into, 1 if the run compares all of them
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public void setShard(int index, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Number of shards must be at least 1, got " + count);
+        }
+        if ((index < 0) || (index >= count)) {
+            throw new IllegalArgumentException("Shard must be from 0 to " + (count - 1) + ", got " + index);
+        }
+        shardIndex = index;
+        shardCount = count;
+    }
+
+    /**
+     * @return true if the run merges the journals named on the command line, rather than comparing files
+     */
+    public boolean mergeJournals() {
+        return mergeJournals;
+    }
+
+    public void setMergeJournals(boolean merge) {
+        mergeJournals = merge;
+    }
+
+    /**
+     * @return the line rule file to use instead of the built-in rules, or null for the built-in rules
+     */
+    public Path getRulesFile() {
+        return rulesFile;
+    }
+
+    public void setRulesFile(Path path) {
+        rulesFile = path;
+    }
+
+    /**
+     * @return the directories the run walks, which recorded gdalinfo output is named relative to
+     */
+    public List<Path> getCorpusRoots() {
+        return corpusRoots;
+    }
+
+    public void addCorpusRoot(Path root) {
+        corpusRoots.add(root);
+    }
+}
@@ -0,0 +1,48 @@
+package org.codice.nitf;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of comparing one file, as returned by {@link ComparisonService#compare}.
+ */
+public class ComparisonResult
+{
+    private final String filename;
+    private final Verdict verdict;
+    private final List<String> differences;
+    private final String report;
+
+    ComparisonResult(String filename, Verdict verdict, List<String> differences, String report) {
+        this.filename = filename;
+        this.verdict = verdict;
+        this.differences = Collections.unmodifiableList(differences);
+        this.report = report;
+    }
+
+    /**
+     * @return the file compared, as it was given
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    public Verdict getVerdict() {
+        return verdict;
+    }
+
+    /**
+     * @return the differences between gdalinfo's output and ours, in the same form as the report gives them; empty
+     * unless the verdict is {@link Verdict#MISMATCH}
+     */
+    public List<String> getDifferences() {
+        return differences;
+    }
+
+    /**
+     * @return everything a comparison run would print for the file, including the differences and any errors
+     */
+    public String getReport() {
+        return report;
+    }
+}
@@ -0,0 +1,149 @@
+package org.codice.nitf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares files on demand, one call per file, for tools that keep a JVM running rather than start FileComparison
+ * for each batch.
+ *
+ * A service sets up what comparisons share (the metadata oracle, line rules, diff engine, and the verdict cache if
+ * there is one) once, from the options. After that, {@link #compare(Path)} holds no state between calls and may be
+ * called from many threads at once; it returns its result instead of printing it. How many comparisons run at once
+ * is up to the callers, and the run-level options (jobs, journal, shard, watching) are not used.
+ */
+public class ComparisonService implements Closeable
+{
+    private final ComparisonContext context;
+    private final boolean ownsContext;
+
+    /**
+     * Constructor.
+     *
+     * @param options the comparison options
+     * @throws IOException if the shared services (such as the oracle or the cache) could not be set up
+     */
+    public ComparisonService(ComparisonOptions options) throws IOException {
+        this(new ComparisonContext(options), true);
+    }
+
+    /**
+     * Constructor for comparisons that are part of a run, which owns the context.
+     *
+     * @param comparisonContext the run's context
+     */
+    ComparisonService(ComparisonContext comparisonContext) {
+        this(comparisonContext, false);
+    }
+
+    private ComparisonService(ComparisonContext comparisonContext, boolean closeContext) {
+        context = comparisonContext;
+        ownsContext = closeContext;
+    }
+
+    /**
+     * Compare a file.
+     *
+     * @param file the file
+     * @return the result
+     */
+    public ComparisonResult compare(Path file) {
+        return compare(file.toString());
+    }
+
+    /**
+     * Compare a file, or a member of a zip or tar archive.
+     *
+     * Anything that goes wrong with the file, including errors such as a stack overflow in the parser, gives a
+     * result of {@link Verdict#ERROR} with the stack trace in its report. Only a {@link VirtualMachineError} other than
+     * a stack overflow, such as running out of memory, is thrown.
+     *
+     * @param filename the file, or an archive member as /vsizip/archive/member or /vsitar/archive/member
+     * @return the result
+     */
+    public ComparisonResult compare(String filename) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream report = new PrintStream(buffer);
+        Verdict verdict;
+        List<String> differences = Collections.emptyList();
+        report.println("Dumping output of " + filename);
+        long startTime = context.getMetrics().start();
+        long bytesRead = 0;
+        try {
+            Verdict rejection = sniff(filename, report);
+            if (rejection != null) {
+                report.flush();
+                return new ComparisonResult(filename, rejection, differences, buffer.toString());
+            }
+            FileComparer comparer = new FileComparer(filename, context, report);
+            verdict = comparer.compareFile();
+            differences = comparer.getDifferences();
+            bytesRead = comparer.getHeaderBytesRead();
+        } catch (RuntimeException e) {
+            e.printStackTrace(report);
+            verdict = Verdict.ERROR;
+        } catch (StackOverflowError e) {
+            // A VirtualMachineError, but one a file can cause by sending the parser into deep recursion, and the
+            // stack has unwound by now
+            e.printStackTrace(report);
+            verdict = Verdict.ERROR;
+        } catch (VirtualMachineError e) {
+            // Out of memory and the like say nothing about the file, and leave the JVM in no state to carry on
+            throw e;
+        } catch (Error e) {
+            // A file that trips an assertion or a missing class, say, fails on its own without ending the run
+            e.printStackTrace(report);
+            verdict = Verdict.ERROR;
+        }
+        context.getMetrics().recordFile(filename, startTime, bytesRead);
+        report.flush();
+        return new ComparisonResult(filename, verdict, differences, buffer.toString());
+    }
+
+    /**
+     * Shut down the shared services, if this service set them up.
+     */
+    @Override
+    public void close() {
+        if (ownsContext) {
+            context.close();
+        }
+    }
+
+    /**
+     * Check that a file looks like NITF before paying for gdalinfo and a header parse.
+     *
+     * @return the verdict for a rejected file, or null if it should be compared
+     */
+    private Verdict sniff(String filename, PrintStream report) {
+        NitfSniffer.Result result;
+        try {
+            ArchiveReader.Member member = ArchiveReader.Member.parse(filename);
+            if (member != null) {
+                result = context.getArchiveReader().sniff(member);
+            } else {
+                result = NitfSniffer.sniff(Paths.get(filename));
+            }
+        } catch (IOException e) {
+            e.printStackTrace(report);
+            return Verdict.ERROR;
+        }
+        switch (result.kind) {
+            case NOT_NITF:
+                report.println("Not a NITF file (" + result.reason + "), skipping");
+                return Verdict.NOT_NITF;
+            case TRUNCATED:
+                report.println("Truncated NITF file (" + result.reason + "), skipping");
+                return Verdict.TRUNCATED;
+            case NITF:
+            default:
+                return null;
+        }
+    }
+}
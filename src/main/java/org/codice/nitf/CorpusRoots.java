@@ -0,0 +1,79 @@
+package org.codice.nitf;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The directories a run walks, for naming datasets independently of where the corpus happens to be.
+ *
+ * A dataset is named by its path relative to the walk root it was found under, as {@link CorpusWalker} does for
+ * patterns and shards, with "/" as the separator. Archive members and image subdatasets keep their /vsizip/,
+ * /vsitar/ and NITF_IM: names, built around the relative path of the file. So a corpus recorded in one place can
+ * be replayed from another, or from a different working directory.
+ */
+class CorpusRoots
+{
+    private static final String SUBDATASET_PREFIX = "NITF_IM:";
+
+    private final List<Path> roots = new ArrayList<Path>();
+
+    /**
+     * Add a walk root.
+     *
+     * @param root a directory the run walks, or for a file named on its own, the directory it is in
+     */
+    void add(Path root) {
+        roots.add(root.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Name a dataset relative to its walk root.
+     *
+     * @param datasetName a file, archive member or image subdataset name, as given to the metadata oracle
+     * @return the name relative to the first root the file is under, or the name unchanged if it is under none of
+     * them
+     */
+    String relativeName(String datasetName) {
+        String fileName = fileName(datasetName);
+        String subdataset = datasetName.substring(0, datasetName.length() - fileName.length());
+        try {
+            ArchiveReader.Member member = ArchiveReader.Member.parse(fileName);
+            if (member != null) {
+                String archiveName = relativePath(member.getArchive());
+                return (archiveName == null) ? datasetName : subdataset + member.getDatasetName(archiveName);
+            }
+            String relativeName = relativePath(Paths.get(fileName));
+            return (relativeName == null) ? datasetName : subdataset + relativeName;
+        } catch (InvalidPathException e) {
+            return datasetName;
+        }
+    }
+
+    /**
+     * @param datasetName a file, archive member or image subdataset name
+     * @return the file (or archive member) the dataset is in
+     */
+    static String fileName(String datasetName) {
+        if (datasetName.startsWith(SUBDATASET_PREFIX)) {
+            int colon = datasetName.indexOf(':', SUBDATASET_PREFIX.length());
+            if (colon >= 0) {
+                return datasetName.substring(colon + 1);
+            }
+        }
+        return datasetName;
+    }
+
+    // Returns null if the file is not under any of the roots
+    private String relativePath(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        for (Path root : roots) {
+            if (absolute.startsWith(root)) {
+                return CorpusWalker.portablePath(root.relativize(absolute));
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,222 @@
+package org.codice.nitf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the files to compare under a directory.
+ *
+ * Directories are read through NIO directory streams, so entries are handed to the {@link FileHandler} one at a
+ * time as they are read, rather than listing a whole (possibly huge) directory into memory first.
+ *
+ * Include and exclude patterns are globs. A pattern containing a "/" is matched against the path relative to the
+ * directory being walked, otherwise it is matched against the file name.
+ *
+ * When the run is one shard of several, a file is only accepted by the shard its path hashes to. The hash is of the
+ * path relative to the directory being walked, so every shard partitions the files the same way, even on machines
+ * that mount the corpus in different places.
+ *
+ * Symbolic links to files are followed, whether or not the walk is recursive, and the file is named by the link.
+ * Symbolic links to directories are never followed, so a link cannot make the walk loop or visit a tree twice.
+ *
+ * Zip and tar archives are not compared themselves. Instead each member is handed out, named by its GDAL virtual
+ * path, and the patterns and the shard apply to the member as if the archive were a directory.
+ */
+class CorpusWalker
+{
+    /**
+     * Receives each file found by the walker.
+     */
+    interface FileHandler
+    {
+        /**
+         * @param filename the file, or for an archive member, its GDAL virtual path
+         */
+        void handleFile(String filename);
+    }
+
+    // What we skip when no --exclude patterns are given
+    private static final String DEFAULT_EXCLUDE = "*.txt";
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final boolean recursive;
+    private final int shardIndex;
+    private final int shardCount;
+    private final List<FilePattern> includes = new ArrayList<FilePattern>();
+    private final List<FilePattern> excludes = new ArrayList<FilePattern>();
+
+    CorpusWalker(ComparisonOptions options) {
+        recursive = options.isRecursive();
+        shardIndex = options.getShardIndex();
+        shardCount = options.getShardCount();
+        for (String glob : options.getIncludePatterns()) {
+            includes.add(new FilePattern(glob));
+        }
+        for (String glob : options.getExcludePatterns()) {
+            excludes.add(new FilePattern(glob));
+        }
+        if (excludes.isEmpty()) {
+            excludes.add(new FilePattern(DEFAULT_EXCLUDE));
+        }
+        // Never compare our own comparison artifacts
+        excludes.add(new FilePattern("*" + FileComparer.OUR_OUTPUT_EXTENSION));
+        excludes.add(new FilePattern("*" + FileComparer.THEIR_OUTPUT_EXTENSION));
+    }
+
+    /**
+     * Walk a directory, passing each accepted regular file to the handler.
+     *
+     * @param root the directory to walk
+     * @param handler the handler to pass files to
+     * @throws IOException if the top level directory could not be read
+     */
+    void walk(final Path root, final FileHandler handler) throws IOException {
+        if (recursive) {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    // The attributes are the link's own, so check the target as the non-recursive walk does
+                    if (attrs.isRegularFile() || (attrs.isSymbolicLink() && Files.isRegularFile(file))) {
+                        walkFile(root.relativize(file), file, handler);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    System.out.println("Could not read " + file + ": " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } else {
+            DirectoryStream<Path> entries = Files.newDirectoryStream(root);
+            try {
+                for (Path file : entries) {
+                    if (Files.isRegularFile(file)) {
+                        walkFile(root.relativize(file), file, handler);
+                    }
+                }
+            } finally {
+                entries.close();
+            }
+        }
+    }
+
+    /**
+     * Pass a single file to the handler if it is accepted, or if it is an archive, each accepted member.
+     *
+     * @param relativePath the path of the file, relative to the directory being walked
+     * @param file the file
+     * @param handler the handler to pass files to
+     */
+    void walkFile(Path relativePath, Path file, FileHandler handler) {
+        ArchiveReader.Format format = ArchiveReader.formatOf(file);
+        if (format == null) {
+            if (accepts(relativePath)) {
+                handler.handleFile(file.toString());
+            }
+            return;
+        }
+        List<ArchiveReader.Member> members;
+        try {
+            members = ArchiveReader.listMembers(file, format);
+        } catch (IOException e) {
+            System.out.println("Could not read archive " + file + ": " + e.getMessage());
+            return;
+        }
+        for (ArchiveReader.Member member : members) {
+            if (accepts(relativePath.resolve(member.getName()))) {
+                handler.handleFile(member.getDatasetName());
+            }
+        }
+    }
+
+    /**
+     * Check a file against the include and exclude patterns, and the shard.
+     *
+     * @param relativePath the path of the file, relative to the directory being walked
+     * @return true if the file should be compared
+     */
+    boolean accepts(Path relativePath) {
+        return matchesPatterns(relativePath) && inShard(relativePath);
+    }
+
+    private boolean matchesPatterns(Path relativePath) {
+        for (FilePattern exclude : excludes) {
+            if (exclude.matches(relativePath)) {
+                return false;
+            }
+        }
+        if (includes.isEmpty()) {
+            return true;
+        }
+        for (FilePattern include : includes) {
+            if (include.matches(relativePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean inShard(Path relativePath) {
+        if (shardCount == 1) {
+            return true;
+        }
+        return Long.remainderUnsigned(pathHash(relativePath), shardCount) == shardIndex;
+    }
+
+    /**
+     * Hash a path in a way that does not depend on the JVM or the platform: 64 bit FNV-1a over the UTF-8 bytes of
+     * the path, with "/" as the separator.
+     *
+     * @param path the path to hash
+     * @return the hash
+     */
+    static long pathHash(Path path) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : portablePath(path).getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xFF);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * @param path a path
+     * @return the path as text, with "/" as the separator whatever the platform
+     */
+    static String portablePath(Path path) {
+        String separator = path.getFileSystem().getSeparator();
+        return separator.equals("/") ? path.toString() : path.toString().replace(separator, "/");
+    }
+
+    private static class FilePattern
+    {
+        private final PathMatcher matcher;
+        private final boolean matchWholePath;
+
+        FilePattern(String glob) {
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            matchWholePath = glob.contains("/");
+        }
+
+        boolean matches(Path relativePath) {
+            if (matchWholePath) {
+                return matcher.matches(relativePath);
+            }
+            Path fileName = relativePath.getFileName();
+            return (fileName != null) && matcher.matches(fileName);
+        }
+    }
+}
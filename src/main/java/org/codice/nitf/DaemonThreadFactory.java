@@ -0,0 +1,22 @@
+package org.codice.nitf;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates daemon threads, so helper threads never keep the JVM alive once the run is over.
+ */
+class DaemonThreadFactory implements ThreadFactory
+{
+    private final String name;
+
+    DaemonThreadFactory(String threadName) {
+        name = threadName;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,20 @@
+package org.codice.nitf;
+
+import java.util.List;
+
+/**
+ * Compares our rendered output with the reference output.
+ *
+ * Implementations must be safe to share between threads.
+ */
+interface DiffEngine
+{
+    /**
+     * Compare two outputs.
+     *
+     * @param theirs the reference (gdalinfo) output lines
+     * @param ours our output lines
+     * @return a description of each difference, or an empty list if the outputs match
+     */
+    List<String> compare(List<String> theirs, List<String> ours);
+}
@@ -0,0 +1,276 @@
+package org.codice.nitf;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches directories for new files, and compares each one as soon as it has been completely written.
+ *
+ * Java cannot tell when a writer has closed a file, so a new file is taken to be complete when either its size
+ * reaches the file length (FL) in its NITF header, or its size and modification time have not changed for the
+ * settle time. The first catches ordinary NITF writers without any wait; the second covers files whose header does
+ * not give a length, and archives. A file that is still shorter than its header says gets ten times the settle time,
+ * since a writer that stalls part way is more likely than a truncated file.
+ *
+ * Files already in the directories when watching starts are not compared. A file that is written again after it
+ * was compared is compared again.
+ */
+class DirectoryWatcher
+{
+    // How often files still being written are checked
+    private static final long CHECK_INTERVAL_MILLIS = 50;
+    // How long we remember a compared file, to ignore the events its writer sends after it is complete
+    private static final long COMPARED_MEMORY_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final int TRUNCATED_SETTLE_FACTOR = 10;
+
+    private final WatchService watchService;
+    private final CorpusWalker walker;
+    private final ComparisonExecutor executor;
+    private final boolean recursive;
+    private final long settleNanos;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<WatchKey, Path>();
+    private final Map<WatchKey, Path> roots = new HashMap<WatchKey, Path>();
+    private final Map<Path, PendingFile> pendingFiles = new LinkedHashMap<Path, PendingFile>();
+    // Oldest first
+    private final Map<Path, PendingFile> comparedFiles = new LinkedHashMap<Path, PendingFile>();
+    private volatile boolean stopped = false;
+
+    /**
+     * Constructor.
+     *
+     * @param options the run's options
+     * @param corpusWalker the walker that decides which files to compare
+     * @param comparisonExecutor where to send files to compare
+     * @throws IOException if the file system cannot be watched
+     */
+    DirectoryWatcher(ComparisonOptions options, CorpusWalker corpusWalker, ComparisonExecutor comparisonExecutor) throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        walker = corpusWalker;
+        executor = comparisonExecutor;
+        recursive = options.isRecursive();
+        settleNanos = TimeUnit.MILLISECONDS.toNanos(options.getWatchSettleMillis());
+    }
+
+    /**
+     * Start watching a directory (and, for a recursive run, the directories below it).
+     *
+     * @param root the directory
+     * @throws IOException if the directory could not be watched
+     */
+    void addDirectory(Path root) throws IOException {
+        register(root, root, false);
+    }
+
+    /**
+     * Compare new files as they arrive, until {@link #stop()} is called.
+     */
+    void watch() {
+        try {
+            while (!stopped) {
+                WatchKey key = watchService.poll(CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handleEvents(key);
+                    key = watchService.poll();
+                }
+                checkPendingFiles();
+                executor.printFinishedResults();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    /**
+     * Stop watching. Files still being written are not compared; comparisons already started carry on.
+     */
+    void stop() {
+        stopped = true;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.out.println("Could not stop watching: " + e.getMessage());
+        }
+    }
+
+    private void register(Path directory, final Path root, final boolean queueExistingFiles) throws IOException {
+        if (!recursive) {
+            watchDirectory(directory, root, queueExistingFiles);
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path subdirectory, BasicFileAttributes attrs) throws IOException {
+                watchDirectory(subdirectory, root, queueExistingFiles);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                System.out.println("Could not watch " + file + ": " + e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watchDirectory(Path directory, Path root, boolean queueExistingFiles) throws IOException {
+        WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchedDirectories.put(key, directory);
+        roots.put(key, root);
+        if (queueExistingFiles) {
+            // Files can land in a new directory before we start watching it
+            DirectoryStream<Path> entries = Files.newDirectoryStream(directory);
+            try {
+                for (Path file : entries) {
+                    if (Files.isRegularFile(file)) {
+                        fileChanged(file, root);
+                    }
+                }
+            } finally {
+                entries.close();
+            }
+        }
+    }
+
+    private void handleEvents(WatchKey key) {
+        Path directory = watchedDirectories.get(key);
+        Path root = roots.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                System.out.println("Too many file events in " + directory + ", some new files may not be compared");
+                continue;
+            }
+            Path file = directory.resolve((Path) event.context());
+            if (Files.isDirectory(file)) {
+                if (recursive && (event.kind() == StandardWatchEventKinds.ENTRY_CREATE)) {
+                    try {
+                        register(file, root, true);
+                    } catch (IOException e) {
+                        System.out.println("Could not watch " + file + ": " + e.getMessage());
+                    }
+                }
+            } else {
+                fileChanged(file, root);
+            }
+        }
+        if (!key.reset()) {
+            // The directory has gone
+            watchedDirectories.remove(key);
+            roots.remove(key);
+        }
+    }
+
+    private void fileChanged(Path file, Path root) {
+        PendingFile pending = pendingFiles.get(file);
+        if (pending == null) {
+            pendingFiles.put(file, new PendingFile(root, System.nanoTime()));
+        } else {
+            pending.changed = true;
+        }
+    }
+
+    private void checkPendingFiles() {
+        long now = System.nanoTime();
+        forgetOldComparedFiles(now);
+        Iterator<Map.Entry<Path, PendingFile>> entries = pendingFiles.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Path, PendingFile> entry = entries.next();
+            Path file = entry.getKey();
+            PendingFile pending = entry.getValue();
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // Gone again (a temporary file, say)
+                entries.remove();
+                continue;
+            }
+            long modified = attrs.lastModifiedTime().toMillis();
+            PendingFile compared = comparedFiles.get(file);
+            if ((compared != null) && (attrs.size() == compared.size) && (modified == compared.modified)) {
+                // Nothing new since we compared it
+                entries.remove();
+                continue;
+            }
+            if (pending.changed || (attrs.size() != pending.size) || (modified != pending.modified)) {
+                pending.changed = false;
+                pending.size = attrs.size();
+                pending.modified = modified;
+                pending.lastChangeTime = now;
+                NitfSniffer.Result sniffed = sniff(file);
+                pending.truncated = (sniffed.kind == NitfSniffer.Kind.TRUNCATED);
+                // A NITF file exactly as long as its header says is complete, nothing more is coming
+                if ((sniffed.kind != NitfSniffer.Kind.NITF) || (sniffed.fileLength != attrs.size())) {
+                    continue;
+                }
+            } else if (now - pending.lastChangeTime < (pending.truncated ? settleNanos * TRUNCATED_SETTLE_FACTOR : settleNanos)) {
+                continue;
+            }
+            entries.remove();
+            comparedFiles.remove(file);
+            // From here on, the time it was compared
+            pending.lastChangeTime = now;
+            comparedFiles.put(file, pending);
+            submit(file, pending);
+        }
+    }
+
+    private void forgetOldComparedFiles(long now) {
+        Iterator<PendingFile> compared = comparedFiles.values().iterator();
+        while (compared.hasNext() && (now - compared.next().lastChangeTime > COMPARED_MEMORY_NANOS)) {
+            compared.remove();
+        }
+    }
+
+    private static NitfSniffer.Result sniff(Path file) {
+        try {
+            return NitfSniffer.sniff(file);
+        } catch (IOException e) {
+            // Wait for the settle time, and let the comparison report the problem if there still is one
+            return new NitfSniffer.Result(NitfSniffer.Kind.NOT_NITF, e.getMessage());
+        }
+    }
+
+    private void submit(Path file, final PendingFile pending) {
+        walker.walkFile(pending.root.relativize(file), file, new CorpusWalker.FileHandler() {
+            @Override
+            public void handleFile(String filename) {
+                executor.submitWatched(filename, pending.seenTime);
+            }
+        });
+    }
+
+    private static class PendingFile
+    {
+        final Path root;
+        final long seenTime;
+        long size = -1;
+        long modified = -1;
+        long lastChangeTime;
+        boolean changed = true;
+        boolean truncated = false;
+
+        PendingFile(Path root, long seenTime) {
+            this.root = root;
+            this.seenTime = seenTime;
+            lastChangeTime = seenTime;
+        }
+    }
+}
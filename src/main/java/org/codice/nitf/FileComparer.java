@@ -1,45 +1,29 @@
 package org.codice.nitf;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.ByteArrayOutputStream;
 import java.io.FileWriter;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.math.BigDecimal;
+import java.io.PrintStream;
+import java.nio.file.Paths;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import difflib.Delta;
-import difflib.DiffUtils;
-import difflib.Patch;
-
-import org.codice.imaging.nitf.core.AbstractNitfSegment;
-import org.codice.imaging.nitf.core.FileType;
-import org.codice.imaging.nitf.core.ImageCompression;
-import org.codice.imaging.nitf.core.ImageCoordinatePair;
-import org.codice.imaging.nitf.core.ImageCoordinatesRepresentation;
-import org.codice.imaging.nitf.core.NitfDataExtensionSegment;
 import org.codice.imaging.nitf.core.NitfFile;
 import org.codice.imaging.nitf.core.NitfFileFactory;
-import org.codice.imaging.nitf.core.NitfImageSegment;
-import org.codice.imaging.nitf.core.NitfSecurityClassification;
-import org.codice.imaging.nitf.core.RasterProductFormatUtilities;
-import org.codice.imaging.nitf.core.Tre;
-import org.codice.imaging.nitf.core.TreCollection;
-import org.codice.imaging.nitf.core.TreEntry;
-import org.codice.imaging.nitf.core.TreGroup;
 
+/**
+ * Compares one file (or one of its image segments) against gdalinfo, reporting as it goes.
+ *
+ * A comparer holds the state of a single comparison, so it is used once, on one thread. {@link ComparisonService}
+ * is the entry point for comparing many files.
+ */
 public class FileComparer
 {
     static final String OUR_OUTPUT_EXTENSION = ".OURS.txt";
@@ -47,725 +31,378 @@ public class FileComparer
 
     private String filename = null;
     private NitfFile nitf = null;
-    private NitfImageSegment segment1 = null;
-    private NitfDataExtensionSegment des1 = null;
-    private BufferedWriter out = null;
-
-    FileComparer(String fileName) {
+    private TreIndex.FileTreIndex treIndex = null;
+    // 0 when comparing the whole file, otherwise the image segment compared as a NITF_IM subdataset
+    private int imageSegmentNumber = 0;
+    private String datasetName = null;
+    // Null unless the file is a member of a zip or tar archive
+    private ArchiveReader.Member archiveMember = null;
+    private ComparisonContext context = null;
+    private String cacheKey = null;
+    private List<String> ourLines = new ArrayList<String>();
+    private List<String> theirLines = new ArrayList<String>();
+    private List<String> differences = new ArrayList<String>();
+    private PrintStream report = null;
+    private Verdict verdict = Verdict.ERROR;
+    private int gdalTimeoutSeconds = 0;
+    private MetadataOracle oracle = null;
+    private DiffEngine diffEngine = null;
+    private RunMetrics metrics = null;
+    private long gdalStartTime = 0;
+    private boolean gdalTimedOut = false;
+    private boolean gdalFailed = false;
+    private boolean reportIoStatistics = false;
+    private long headerBytesRead = 0;
+    private int headerReadCalls = 0;
+
+    FileComparer(String fileName, ComparisonContext comparisonContext, PrintStream reportStream) {
+        this(fileName, comparisonContext, reportStream, null, null, 0, null);
+    }
+
+    private FileComparer(String fileName, ComparisonContext comparisonContext, PrintStream reportStream,
+                         NitfFile parsedFile, TreIndex.FileTreIndex parsedFileTres, int segmentNumber, String fileCacheKey) {
         filename = fileName;
-        generateGdalMetadata();
-        generateOurMetadata();
-        compareMetadataFiles();
-    }
-
-
-    private void generateOurMetadata() {
-        try {
-            nitf = NitfFileFactory.parseHeadersOnly(new FileInputStream(filename));
-        } catch (ParseException e) {
-            e.printStackTrace();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-
-        if (nitf.getNumberOfImageSegments() >= 1) {
-            segment1 = nitf.getImageSegment(1);
-        }
-
-        if (nitf.getNumberOfDataExtensionSegments() >= 1) {
-            des1 = nitf.getDataExtensionSegment(1);
-        }
-        outputData();
-    }
-
-    private void outputData() {
-        try {
-            FileWriter fstream = new FileWriter(filename + OUR_OUTPUT_EXTENSION);
-            out = new BufferedWriter(fstream);
-            out.write("Driver: NITF/National Imagery Transmission Format\n");
-            out.write("Files: " + filename + "\n");
-            if (segment1 == null) {
-                out.write(String.format("Size is 1, 1\n"));
-            } else {
-                out.write(String.format("Size is %d, %d\n", segment1.getNumberOfColumns(), segment1.getNumberOfRows()));
-            }
-            outputCoordinateSystem();
-
-            outputBaseMetadata();
-
-            outputTRExml();
-
-            outputImageStructure();
-
-            outputSubdatasets();
-
-            outputRPCs();
-
-            out.close();
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
-        catch (ParseException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void outputCoordinateSystem() throws IOException {
-        boolean haveRPC = false;
-        if (segment1 != null) {
-            TreCollection treCollection = segment1.getTREsRawStructure();
-            for (Tre tre : treCollection.getTREs()) {
-                if (tre.getName().equals("RPC00B")) {
-                    haveRPC = true;
-                }
-            }
-        }
-        if (segment1 == null) {
-            out.write("Coordinate System is `'\n");
-        } else if (segment1.getImageCoordinatesRepresentation() == ImageCoordinatesRepresentation.UTMUPSNORTH) {
-            out.write("Coordinate System is:\n");
-            out.write("PROJCS[\"unnamed\",\n");
-            out.write("    GEOGCS[\"WGS 84\",\n");
-            out.write("        DATUM[\"WGS_1984\",\n");
-            out.write("            SPHEROID[\"WGS 84\",6378137,298.257223563,\n");
-            out.write("                AUTHORITY[\"EPSG\",\"7030\"]],\n");
-            out.write("            TOWGS84[0,0,0,0,0,0,0],\n");
-            out.write("            AUTHORITY[\"EPSG\",\"6326\"]],\n");
-            out.write("        PRIMEM[\"Greenwich\",0,\n");
-            out.write("            AUTHORITY[\"EPSG\",\"8901\"]],\n");
-            out.write("        UNIT[\"degree\",0.0174532925199433,\n");
-            out.write("            AUTHORITY[\"EPSG\",\"9108\"]],\n");
-            out.write("        AUTHORITY[\"EPSG\",\"4326\"]],\n");
-            out.write("    PROJECTION[\"Transverse_Mercator\"],\n");
-            out.write("    PARAMETER[\"latitude_of_origin\",-0],\n");
-            out.write("    PARAMETER[\"central_meridian\",33],\n");
-            out.write("    PARAMETER[\"scale_factor\",0.9996],\n");
-            out.write("    PARAMETER[\"false_easting\",500000],\n");
-            out.write("    PARAMETER[\"false_northing\",0]]\n");
-        } else if (haveRPC || (segment1.getImageCoordinatesRepresentation() == ImageCoordinatesRepresentation.NONE)) {
-            out.write("Coordinate System is `'\n");
+        context = comparisonContext;
+        report = reportStream;
+        nitf = parsedFile;
+        treIndex = parsedFileTres;
+        imageSegmentNumber = segmentNumber;
+        if (imageSegmentNumber == 0) {
+            datasetName = filename;
         } else {
-            out.write("Coordinate System is:\n");
-            out.write("GEOGCS[\"WGS 84\",\n");
-            out.write("    DATUM[\"WGS_1984\",\n");
-            out.write("        SPHEROID[\"WGS 84\",6378137,298.257223563,\n");
-            out.write("            AUTHORITY[\"EPSG\",\"7030\"]],\n");
-            out.write("        TOWGS84[0,0,0,0,0,0,0],\n");
-            out.write("        AUTHORITY[\"EPSG\",\"6326\"]],\n");
-            out.write("    PRIMEM[\"Greenwich\",0,\n");
-            out.write("        AUTHORITY[\"EPSG\",\"8901\"]],\n");
-            out.write("    UNIT[\"degree\",0.0174532925199433,\n");
-            out.write("        AUTHORITY[\"EPSG\",\"9108\"]],\n");
-            out.write("    AUTHORITY[\"EPSG\",\"4326\"]]\n");
+            datasetName = MetadataRenderer.imageSubdatasetName(filename, imageSegmentNumber);
         }
+        archiveMember = ArchiveReader.Member.parse(filename);
+        cacheKey = fileCacheKey;
+        gdalTimeoutSeconds = context.getOptions().getGdalTimeoutSeconds();
+        reportIoStatistics = context.getOptions().reportIoStatistics();
+        oracle = context.getMetadataOracle();
+        diffEngine = context.getDiffEngine();
+        metrics = context.getMetrics();
     }
 
-    private void outputBaseMetadata() throws IOException, ParseException {
-        TreeMap <String, String> metadata = new TreeMap<String, String>();
-
-        addCommonFileLevelMetadata(metadata);
-
-        switch (nitf.getFileType()) {
-            case NSIF_ONE_ZERO:
-                metadata.put("NITF_FHDR", "NSIF01.00");
-                break;
-            case NITF_TWO_ZERO:
-                metadata.put("NITF_FHDR", "NITF02.00");
-                break;
-            case NITF_TWO_ONE:
-                metadata.put("NITF_FHDR", "NITF02.10");
-                break;
-        }
-        if (nitf.getFileType() == FileType.NITF_TWO_ZERO) {
-            addNITF20FileLevelMetadata(metadata);
-        } else {
-            addNITF21FileLevelMetadata(metadata);
-        }
-
-        TreCollection treCollection = nitf.getTREsRawStructure();
-        addOldStyleMetadata(metadata, treCollection);
-        if (segment1 != null) {
-            addFirstImageSegmentMetadata(metadata);
-        }
-        out.write("Metadata:\n");
-        for (String key : metadata.keySet()) {
-            out.write(String.format("  %s=%s\n", key, metadata.get(key)));
+    /**
+     * Compare the file, and its image segments if the options ask for that.
+     *
+     * @return the verdict
+     */
+    Verdict compareFile() {
+        compare();
+        if (context.getOptions().compareAllImageSegments()) {
+            compareImageSegments();
         }
+        return verdict;
     }
 
-    private void addCommonFileLevelMetadata(TreeMap <String, String> metadata) throws IOException {
-        metadata.put("NITF_CLEVEL", String.format("%02d", nitf.getComplexityLevel()));
-        metadata.put("NITF_ENCRYP", "0");
-        metadata.put("NITF_FDT", nitf.getFileDateTime().getSourceString());
-        metadata.put("NITF_FSCAUT", nitf.getFileSecurityMetadata().getClassificationAuthority());
-        metadata.put("NITF_FSCLAS", nitf.getFileSecurityMetadata().getSecurityClassification().getTextEquivalent());
-        metadata.put("NITF_FSCODE", nitf.getFileSecurityMetadata().getCodewords());
-        metadata.put("NITF_FSCTLH", nitf.getFileSecurityMetadata().getControlAndHandling());
-        metadata.put("NITF_FSCTLN", nitf.getFileSecurityMetadata().getSecurityControlNumber());
-        metadata.put("NITF_FSREL", nitf.getFileSecurityMetadata().getReleaseInstructions());
-        metadata.put("NITF_FSCOP", nitf.getFileSecurityMetadata().getFileCopyNumber());
-        metadata.put("NITF_FSCPYS", nitf.getFileSecurityMetadata().getFileNumberOfCopies());
-        metadata.put("NITF_FTITLE", nitf.getFileTitle());
-        metadata.put("NITF_ONAME", nitf.getOriginatorsName());
-        metadata.put("NITF_OPHONE", nitf.getOriginatorsPhoneNumber());
-        metadata.put("NITF_OSTAID", nitf.getOriginatingStationId());
-        metadata.put("NITF_STYPE", nitf.getStandardType());
+    Verdict getVerdict() {
+        return verdict;
     }
 
-    private void addNITF20FileLevelMetadata(TreeMap <String, String> metadata) throws IOException {
-        metadata.put("NITF_FSDWNG", nitf.getFileSecurityMetadata().getDowngradeDateOrSpecialCase().trim());
-        if (nitf.getFileSecurityMetadata().getDowngradeEvent() != null) {
-            metadata.put("NITF_FSDEVT", nitf.getFileSecurityMetadata().getDowngradeEvent());
-        }
+    /**
+     * @return the differences found, with those of each image segment after the file's own, or none if the outputs
+     * matched or could not be compared
+     */
+    List<String> getDifferences() {
+        return differences;
     }
 
-    private void addNITF21FileLevelMetadata(TreeMap <String, String> metadata) throws IOException {
-        metadata.put("NITF_FBKGC", (String.format("%3d,%3d,%3d",
-                    (int)(nitf.getFileBackgroundColour().getRed() & 0xFF),
-                    (int)(nitf.getFileBackgroundColour().getGreen() & 0xFF),
-                    (int)(nitf.getFileBackgroundColour().getBlue() & 0xFF))));
-        metadata.put("NITF_FSCATP", nitf.getFileSecurityMetadata().getClassificationAuthorityType());
-        metadata.put("NITF_FSCLSY", nitf.getFileSecurityMetadata().getSecurityClassificationSystem());
-        metadata.put("NITF_FSCLTX", nitf.getFileSecurityMetadata().getClassificationText());
-        metadata.put("NITF_FSCRSN", nitf.getFileSecurityMetadata().getClassificationReason());
-        metadata.put("NITF_FSDCDT", nitf.getFileSecurityMetadata().getDeclassificationDate());
-        metadata.put("NITF_FSDCTP", nitf.getFileSecurityMetadata().getDeclassificationType());
-        if (nitf.getFileSecurityMetadata().getDeclassificationExemption().length() > 0) {
-            metadata.put("NITF_FSDCXM", String.format("%4s", nitf.getFileSecurityMetadata().getDeclassificationExemption()));
-        } else {
-            metadata.put("NITF_FSDCXM", "");
-        }
-        metadata.put("NITF_FSDG", nitf.getFileSecurityMetadata().getDowngrade());
-        metadata.put("NITF_FSDGDT", nitf.getFileSecurityMetadata().getDowngradeDate());
-        metadata.put("NITF_FSSRDT", nitf.getFileSecurityMetadata().getSecuritySourceDate());
+    long getHeaderBytesRead() {
+        return headerBytesRead;
     }
 
-    private void addFirstImageSegmentMetadata(TreeMap <String, String> metadata) throws IOException, ParseException {
-
-        addCommonImageSegmentMetadata(metadata);
-
-        if (nitf.getFileType() == FileType.NITF_TWO_ZERO) {
-            addNITF20ImageSegmentMetadata(metadata);
-        } else {
-            addNITF21ImageSegmentMetadata(metadata);
-        }
-        addRpfNamesMetadata(metadata);
-
-        addOldStyleMetadata(metadata, segment1.getTREsRawStructure());
+    int getHeaderReadCalls() {
+        return headerReadCalls;
     }
 
-    private void addNITF20ImageSegmentMetadata(TreeMap <String, String> metadata) throws IOException {
-        metadata.put("NITF_ICORDS", segment1.getImageCoordinatesRepresentation().getTextEquivalent(nitf.getFileType()));
-        metadata.put("NITF_ITITLE", segment1.getImageIdentifier2());
-        metadata.put("NITF_ISDWNG", segment1.getSecurityMetadata().getDowngradeDateOrSpecialCase().trim());
-        if (segment1.getSecurityMetadata().getDowngradeEvent() != null) {
-            metadata.put("NITF_ISDEVT", segment1.getSecurityMetadata().getDowngradeEvent());
-        }
-    }
-
-    private void addNITF21ImageSegmentMetadata(TreeMap <String, String> metadata) throws IOException {
-        if (segment1.getImageCoordinatesRepresentation() == ImageCoordinatesRepresentation.NONE) {
-            metadata.put("NITF_ICORDS", "");
-        } else {
-            metadata.put("NITF_ICORDS", segment1.getImageCoordinatesRepresentation().getTextEquivalent(nitf.getFileType()));
-        }
-        metadata.put("NITF_IID2", segment1.getImageIdentifier2());
-        metadata.put("NITF_ISCATP", segment1.getSecurityMetadata().getClassificationAuthorityType());
-        metadata.put("NITF_ISCLSY", segment1.getSecurityMetadata().getSecurityClassificationSystem());
-        metadata.put("NITF_ISCLTX", segment1.getSecurityMetadata().getClassificationText());
-        metadata.put("NITF_ISDCDT", segment1.getSecurityMetadata().getDeclassificationDate());
-        metadata.put("NITF_ISDCTP", segment1.getSecurityMetadata().getDeclassificationType());
-        metadata.put("NITF_ISCRSN", segment1.getSecurityMetadata().getClassificationReason());
-        if ((segment1.getSecurityMetadata().getDeclassificationExemption() != null)
-            && (segment1.getSecurityMetadata().getDeclassificationExemption().length() > 0)) {
-            metadata.put("NITF_ISDCXM", String.format("%4s", segment1.getSecurityMetadata().getDeclassificationExemption()));
+    private void compare() {
+        if (context.getVerdictCache() == null) {
+            generateAndCompareMetadata();
         } else {
-            metadata.put("NITF_ISDCXM", "");
+            compareUsingCache(context.getVerdictCache());
         }
-        metadata.put("NITF_ISDG", segment1.getSecurityMetadata().getDowngrade());
-        metadata.put("NITF_ISDGDT", segment1.getSecurityMetadata().getDowngradeDate());
-        metadata.put("NITF_ISSRDT", segment1.getSecurityMetadata().getSecuritySourceDate());
     }
 
-    private void addCommonImageSegmentMetadata(TreeMap <String, String> metadata) throws IOException {
-        metadata.put("NITF_ABPP", String.format("%02d", segment1.getActualBitsPerPixelPerBand()));
-        metadata.put("NITF_CCS_COLUMN", String.format("%d", segment1.getImageLocationColumn()));
-        metadata.put("NITF_CCS_ROW", String.format("%d", segment1.getImageLocationRow()));
-        metadata.put("NITF_IALVL", String.format("%d", segment1.getAttachmentLevel()));
-        metadata.put("NITF_IC", segment1.getImageCompression().getTextEquivalent());
-        metadata.put("NITF_ICAT", segment1.getImageCategory().getTextEquivalent());
-        String idatim = rightTrimToLetterOrDigit(segment1.getImageDateTime().getSourceString());
-        if (idatim.length() > 0) {
-            metadata.put("NITF_IDATIM", idatim);
-        } else {
-            metadata.put("NITF_IDATIM", " ");
-        }
-        metadata.put("NITF_IDLVL", String.format("%d", segment1.getImageDisplayLevel()));
-        if (segment1.getImageCoordinatesRepresentation() != ImageCoordinatesRepresentation.NONE) {
-            metadata.put("NITF_IGEOLO", String.format("%s%s%s%s",
-                                                    segment1.getImageCoordinates().getCoordinate00().getSourceFormat(),
-                                                    segment1.getImageCoordinates().getCoordinate0MaxCol().getSourceFormat(),
-                                                    segment1.getImageCoordinates().getCoordinateMaxRowMaxCol().getSourceFormat(),
-                                                    segment1.getImageCoordinates().getCoordinateMaxRow0().getSourceFormat()));
-        }
-        metadata.put("NITF_IID1", segment1.getIdentifier());
-        metadata.put("NITF_ILOC_COLUMN", String.format("%d", segment1.getImageLocationColumn()));
-        metadata.put("NITF_ILOC_ROW", String.format("%d", segment1.getImageLocationRow()));
-        metadata.put("NITF_IMAG", segment1.getImageMagnification());
-        metadata.put("NITF_IMODE", segment1.getImageMode().getTextEquivalent());
-        metadata.put("NITF_IREP", segment1.getImageRepresentation().getTextEquivalent());
-        metadata.put("NITF_ISCAUT", segment1.getSecurityMetadata().getClassificationAuthority());
-        metadata.put("NITF_ISCLAS", segment1.getSecurityMetadata().getSecurityClassification().getTextEquivalent());
-        metadata.put("NITF_ISCODE", segment1.getSecurityMetadata().getCodewords());
-        metadata.put("NITF_ISCTLH", segment1.getSecurityMetadata().getControlAndHandling());
-        metadata.put("NITF_ISCTLN", segment1.getSecurityMetadata().getSecurityControlNumber());
-        if (segment1.getNumberOfImageComments() > 0) {
-            StringBuilder commentBuilder = new StringBuilder();
-            for (int i = 0; i < segment1.getNumberOfImageComments(); ++i) {
-                commentBuilder.append(String.format("%-80s", segment1.getImageCommentZeroBase(i)));
-            }
-            metadata.put("NITF_IMAGE_COMMENTS", commentBuilder.toString());
-        }
-        metadata.put("NITF_ISORCE", segment1.getImageSource());
-        metadata.put("NITF_ISREL", segment1.getSecurityMetadata().getReleaseInstructions());
-        metadata.put("NITF_PJUST", segment1.getPixelJustification().getTextEquivalent());
-        metadata.put("NITF_PVTYPE", segment1.getPixelValueType().getTextEquivalent());
-        if (segment1.getImageTargetId().toString().length() > 0) {
-            metadata.put("NITF_TGTID", rightTrim(segment1.getImageTargetId().toString()));
-        } else {
-            metadata.put("NITF_TGTID", "");
+    /**
+     * Compare each image segment of a multi-image file against gdalinfo's output for its subdataset.
+     *
+     * The segments share our header parse, and are compared concurrently on the context's segment executor. Their
+     * reports are printed in segment order, and the verdict is the worst of the file's and the segments' verdicts.
+     */
+    private void compareImageSegments() {
+        if ((nitf == null) && !parseHeaders()) {
+            verdict = Verdict.ERROR;
+            return;
         }
-    }
-
-    private void addRpfNamesMetadata(TreeMap <String, String> metadata) throws IOException, ParseException {
-        if (filename.toLowerCase().endsWith(".ntf")) {
-            // GDAL does this off the filename, not off the IID2, so it won't show these for "plain" NITF files
+        int numberOfSegments = nitf.getNumberOfImageSegments();
+        if (numberOfSegments < 2) {
+            // The whole file comparison already covered the only image segment
             return;
         }
-        RasterProductFormatUtilities rpfUtils = new RasterProductFormatUtilities();
-
-        String rpfAbbreviation = rpfUtils.getAbbreviationForFileName(segment1.getImageIdentifier2());
-        if (rpfAbbreviation != null) {
-            metadata.put("NITF_SERIES_ABBREVIATION", rpfAbbreviation);
+        List<Future<SegmentOutcome>> outcomes = new ArrayList<Future<SegmentOutcome>>();
+        for (int i = 1; i <= numberOfSegments; ++i) {
+            final int segmentNumber = i;
+            outcomes.add(context.getSegmentExecutor().submit(new Callable<SegmentOutcome>() {
+                @Override
+                public SegmentOutcome call() {
+                    return compareImageSegment(segmentNumber);
+                }
+            }));
         }
-        String rpfName = rpfUtils.getNameForFileName(segment1.getImageIdentifier2());
-        if (rpfName != null) {
-            if ("Joint Operations Graphic - Air".equals(rpfName)) {
-                metadata.put("NITF_SERIES_NAME", "Joint Operation Graphic - Air");
-            } else {
-                metadata.put("NITF_SERIES_NAME", rpfName);
+        // The diff engine's list may not be modifiable
+        differences = new ArrayList<String>(differences);
+        for (int i = 0; i < outcomes.size(); ++i) {
+            report.println("Image segment " + (i + 1) + " (" + MetadataRenderer.imageSubdatasetName(filename, i + 1) + "):");
+            Verdict segmentVerdict = Verdict.ERROR;
+            try {
+                SegmentOutcome outcome = outcomes.get(i).get();
+                report.print(outcome.report);
+                segmentVerdict = outcome.verdict;
+                for (String difference : outcome.differences) {
+                    differences.add("Image segment " + (i + 1) + ": " + difference);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                e.printStackTrace(report);
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace(report);
             }
+            verdict = worse(verdict, segmentVerdict);
         }
     }
 
-    private void outputImageStructure() throws IOException {
-        if (segment1 != null) {
-            switch (segment1.getImageCompression()) {
-                case JPEG:
-                case JPEGMASK:
-                    out.write("Image Structure Metadata:\n");
-                    out.write("  COMPRESSION=JPEG\n");
-                    break;
-                case BILEVEL:
-                case BILEVELMASK:
-                case DOWNSAMPLEDJPEG:
-                    out.write("Image Structure Metadata:\n");
-                    out.write("  COMPRESSION=BILEVEL\n");
-                    break;
-                case LOSSLESSJPEG:
-                    out.write("Image Structure Metadata:\n");
-                    out.write("  COMPRESSION=LOSSLESS JPEG\n");
-                    break;
-                case JPEG2000:
-                case JPEG2000MASK:
-                    out.write("Image Structure Metadata:\n");
-                    out.write("  COMPRESSION=JPEG2000\n");
-                    break;
-                case VECTORQUANTIZATION:
-                case VECTORQUANTIZATIONMASK:
-                    out.write("Image Structure Metadata:\n");
-                    out.write("  COMPRESSION=VECTOR QUANTIZATION\n");
-                    break;
-            }
+    private SegmentOutcome compareImageSegment(int segmentNumber) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream segmentReport = new PrintStream(buffer);
+        Verdict segmentVerdict = Verdict.ERROR;
+        List<String> segmentDifferences = new ArrayList<String>();
+        try {
+            FileComparer comparer = new FileComparer(filename, context, segmentReport, nitf, treIndex, segmentNumber, cacheKey);
+            comparer.compare();
+            segmentVerdict = comparer.getVerdict();
+            segmentDifferences = comparer.getDifferences();
+        } catch (RuntimeException e) {
+            e.printStackTrace(segmentReport);
         }
+        segmentReport.flush();
+        return new SegmentOutcome(segmentVerdict, buffer.toString(), segmentDifferences);
     }
 
-    private void outputSubdatasets() throws IOException {
-        if (nitf.getNumberOfImageSegments() > 1) {
-            out.write("Subdatasets:\n");
-            for (int i = 0; i < nitf.getNumberOfImageSegments(); ++i) {
-                out.write(String.format("  SUBDATASET_%d_NAME=NITF_IM:%d:%s\n", i+1, i, filename));
-                out.write(String.format("  SUBDATASET_%d_DESC=Image %d of %s\n", i+1, i+1, filename));
-            }
+    private static Verdict worse(Verdict first, Verdict second) {
+        if ((first == Verdict.ERROR) || (second == Verdict.ERROR)) {
+            return Verdict.ERROR;
         }
-    }
-
-    private void outputTRExml() throws IOException {
-        if (shouldOutputTREs()) {
-            out.write("Metadata (xml:TRE):\n");
-            out.write("<tres>\n");
-            outputTresForSegment(nitf, "file");
-            if (segment1 != null) {
-                outputTresForSegment(segment1, "image");
-            }
-            if (des1 != null) {
-                outputTresForSegment(des1, "des TRE_OVERFLOW");
-            }
-            out.write("</tres>\n\n");
+        if ((first == Verdict.MISMATCH) || (second == Verdict.MISMATCH)) {
+            return Verdict.MISMATCH;
         }
+        return Verdict.MATCH;
     }
 
-    private boolean shouldOutputTREs() {
-        if (shouldOutputFileTREs() || shouldOutputImageTREs() || shouldOutputDESTREs()) {
-            return true;
-        } else {
-            return false;
+    private void generateAndCompareMetadata() {
+        // The oracle works in the background (usually in another process), so we parse and render our side meanwhile
+        gdalStartTime = System.nanoTime();
+        Future<List<String>> gdalMetadata = oracle.describe(datasetName);
+        boolean haveOurMetadata = false;
+        try {
+            haveOurMetadata = generateOurMetadata();
+        } finally {
+            waitForGdalMetadata(gdalMetadata);
         }
-    }
-
-    private boolean shouldOutputFileTREs() {
-        return hasTREsOtherThanRPF(nitf.getTREsRawStructure());
-    }
-
-    private boolean shouldOutputImageTREs() {
-        return (segment1 != null) && (hasTREsOtherThanRPF(segment1.getTREsRawStructure()));
-    }
-
-    private boolean shouldOutputDESTREs() {
-        return (des1 != null) && (hasTREsOtherThanRPF(des1.getTREsRawStructure()));
-    }
-
-    private void outputTresForSegment(AbstractNitfSegment segment, String label) throws IOException {
-        TreCollection treCollection = segment.getTREsRawStructure();
-        for (Tre tre : treCollection.getTREs()) {
-            if (tre.getRawData() == null) {
-                // We parsed this TRE
-                outputThisTre(out, tre, label);
-            }
+        if (haveOurMetadata && !gdalTimedOut && !gdalFailed) {
+            compareMetadataFiles();
         }
     }
 
-    private boolean hasTREsOtherThanRPF(TreCollection treCollection) {
-        int treCountNonRPF = 0;
-        for (Tre tre : treCollection.getTREs()) {
-            if ((tre.getName().equals("RPFHDR")) || (tre.getName().equals("RPFIMG")) || (tre.getName().equals("RPFDES"))) {
-                continue;
-            }
-            if (tre.getRawData() != null) {
-                //  We have raw data for this TRE, so this is not a TRE we recognised
-                continue;
+    private void compareUsingCache(VerdictCache cache) {
+        VerdictCache.Entry entry;
+        try {
+            if ((imageSegmentNumber == 0) && (archiveMember != null)) {
+                cacheKey = cache.keyForArchiveMember(archiveMember, context.getArchiveReader());
+            } else if (imageSegmentNumber == 0) {
+                cacheKey = cache.keyFor(Paths.get(filename));
+            } else if (cacheKey != null) {
+                cacheKey = cache.keyForImageSegment(cacheKey, imageSegmentNumber);
+            } else {
+                // We could not work out a key for the file, so there is none for its segments either
+                generateAndCompareMetadata();
+                return;
             }
-            treCountNonRPF++;
+            entry = cache.lookupOrClaim(cacheKey, filename);
+        } catch (IOException e) {
+            e.printStackTrace(report);
+            cacheKey = null;
+            generateAndCompareMetadata();
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            e.printStackTrace(report);
+            return;
         }
-        return (treCountNonRPF != 0);
-    }
-
-    private void outputRPCs() throws IOException {
-        TreeMap <String, String> rpc = new TreeMap<String, String>();
-        if (segment1 != null) {
-            // Walk the segment1 TRE collection and add RPC entries here
-            TreCollection treCollection = segment1.getTREsRawStructure();
-            for (Tre tre : treCollection.getTREs()) {
-                if (tre.getName().equals("RPC00B")) {
-                    for (TreEntry entry : tre.getEntries()) {
-                        if (entry.getName().equals("SUCCESS")) {
-                            continue;
-                        }
-                        if (entry.getName().equals("ERR_BIAS") || entry.getName().equals("ERR_RAND")) {
-                            continue;
-                        }
-                        if (entry.getFieldValue() != null) {
-                            if (entry.getName().equals("LONG_OFF") || entry.getName().equals("LONG_SCALE") || entry.getName().equals("LAT_OFF") || entry.getName().equals("LAT_SCALE")) {
-                                // skip this, we're filtering it out for both cases
-                            } else {
-                                Integer rpcValue = Integer.parseInt(entry.getFieldValue());
-                                rpc.put(entry.getName(), rpcValue.toString());
-                            }
-                        } else if ((entry.getGroups() != null) && (entry.getGroups().size() > 0)) {
-                            StringBuilder builder = new StringBuilder();
-                            for (TreGroup group : entry.getGroups()) {
-                                for (TreEntry groupEntry : group.getEntries()) {
-                                    try {
-                                        double fieldVal = Double.parseDouble(groupEntry.getFieldValue());
-                                        builder.append(cleanupNumberString(fieldVal));
-                                        builder.append(" ");
-                                    } catch (NumberFormatException e) {
-                                        builder.append(String.format("%s ", groupEntry.getFieldValue()));
-                                    }
-                                }
-                            }
-                            // These are too sensitive to number formatting issues, and we're already checking
-                            // the value in the real TRE.
-                            // rpc.put(entry.getName(), builder.toString());
-                        }
-                    }
-                    try {
-                        double longOff = Double.parseDouble(tre.getFieldValue("LONG_OFF"));
-                        double longScale = Double.parseDouble(tre.getFieldValue("LONG_SCALE"));
-                        double longMin = longOff - (longScale / 2.0);
-                        double longMax = longOff + (longScale / 2.0);
-                        rpc.put("MAX_LONG", cleanupNumberString(longMax));
-                        rpc.put("MIN_LONG", cleanupNumberString(longMin));
-                        double latOff = Double.parseDouble(tre.getFieldValue("LAT_OFF"));
-                        double latScale = Double.parseDouble(tre.getFieldValue("LAT_SCALE"));
-                        double latMin = latOff - (latScale / 2.0);
-                        double latMax = latOff + (latScale / 2.0);
-                        rpc.put("MAX_LAT", cleanupNumberString(latMax));
-                        rpc.put("MIN_LAT", cleanupNumberString(latMin));
-                    } catch (ParseException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
+        if (entry != null) {
+            ourLines = entry.ourLines;
+            theirLines = entry.theirLines;
+            compareMetadataFiles();
+            return;
         }
-        if (rpc.keySet().size() > 0) {
-            out.write("RPC Metadata:\n");
-            for (String tagname : rpc.keySet()) {
-                out.write(String.format("  %s=%s\n", tagname, rpc.get(tagname)));
+        try {
+            generateAndCompareMetadata();
+            if (verdict != Verdict.ERROR) {
+                cache.store(cacheKey, filename, verdict, ourLines, theirLines);
             }
+        } finally {
+            cache.release(cacheKey);
         }
     }
 
-    static private String cleanupNumberString(double fieldVal) {
-        if (fieldVal == (int)fieldVal) {
-            return String.format("%d", (int)fieldVal);
-        }
-        String naiveString = String.format("%.12g", fieldVal);
-        if (naiveString.contains("e-")) {
-            return naiveString.replaceAll("\\.?0*e", "e");
-        } else if (naiveString.contains(".")) {
-            return naiveString.replaceAll("\\.?0*$", "");
+    private boolean generateOurMetadata() {
+        if ((nitf == null) && !parseHeaders()) {
+            // Already reported, and there is nothing to render
+            return false;
         }
-        return naiveString;
-    }
-
-    private void addOldStyleMetadata(TreeMap <String, String> metadata, TreCollection treCollection) {
-        for (Tre tre : treCollection.getTREs()) {
-            if (tre.getPrefix() != null) {
-                // if it has a prefix, its probably an old-style NITF metadata field
-                List<TreEntry> entries = tre.getEntries();
-                for (TreEntry entry: entries) {
-                    metadata.put(tre.getPrefix() + entry.getName(), rightTrim(entry.getFieldValue()));
-                }
-            } else if ("ICHIPB".equals(tre.getName())) {
-                outputICHIPmetadata(metadata, tre);
-            }
+        if (!outputData()) {
+            // Already reported; an empty rendering compared against gdalinfo would look like a mismatch
+            verdict = Verdict.ERROR;
+            return false;
         }
+        return true;
     }
 
-    private void outputICHIPmetadata(TreeMap <String, String> metadata, Tre tre) {
-        List<TreEntry> entries = tre.getEntries();
-        for (TreEntry entry: entries) {
-            if ("XFRM_FLAG".equals(entry.getName())) {
-                // GDAL skips this one
-                continue;
-            }
-            BigDecimal value = new BigDecimal(entry.getFieldValue().trim()).stripTrailingZeros();
-            if ("ANAMRPH_CORR".equals(entry.getName())) {
-                // Special case for GDAL
-                metadata.put("ICHIP_ANAMORPH_CORR", value.toPlainString());
+    private boolean parseHeaders() {
+        HeaderInputStream input = null;
+        long parseStart = metrics.start();
+        try {
+            if (archiveMember != null) {
+                input = context.getArchiveReader().openHeaderInput(archiveMember);
             } else {
-                metadata.put("ICHIP_" + entry.getName(), value.toPlainString());
+                input = new HeaderInputStream(Paths.get(filename));
             }
-        }
-    }
-
-    private static void outputThisTre(BufferedWriter out, Tre tre, String location) throws IOException {
-        doIndent(out, 1);
-        out.write("<tre name=\"" + tre.getName().trim() + "\" location=\"" + location + "\">\n");
-        for (TreEntry entry : tre.getEntries()) {
-            outputThisEntry(out, entry, 2);
-        }
-        doIndent(out, 1);
-        out.write("</tre>\n");
-    }
-
-    private static void outputThisEntry(BufferedWriter out, TreEntry entry, int indentLevel) throws IOException {
-        if (entry.getFieldValue() != null) {
-            doIndent(out, indentLevel);
-            out.write("<field name=\"" + entry.getName() + "\" value=\"" + rightTrim(entry.getFieldValue()) + "\" />\n");
-        }
-        if ((entry.getGroups() != null) && (entry.getGroups().size() > 0)) {
-            doIndent(out, indentLevel);
-            out.write("<repeated name=\"" + entry.getName() + "\" number=\"" + entry.getGroups().size() + "\">\n");
-            int i = 0;
-            for (TreGroup group : entry.getGroups()) {
-                doIndent(out, indentLevel + 1);
-                out.write(String.format("<group index=\"%d\">\n", i));
-                for (TreEntry groupEntry : group.getEntries()) {
-                    outputThisEntry(out, groupEntry, indentLevel + 2);
-                }
-                doIndent(out, indentLevel + 1);
-                out.write(String.format("</group>\n"));
-                i = i + 1;
+            nitf = NitfFileFactory.parseHeadersOnly(input);
+            // Sort the TREs out once, for every rendering stage and every image segment comparison
+            treIndex = TreIndex.forFile(nitf);
+        } catch (ParseException e) {
+            e.printStackTrace(report);
+        } catch (IOException e) {
+            e.printStackTrace(report);
+        } finally {
+            if (input != null) {
+                closeHeaderInput(input);
             }
-            doIndent(out, indentLevel);
-            out.write("</repeated>\n");
+            metrics.record(RunMetrics.Phase.PARSE, parseStart);
         }
+        return (nitf != null);
     }
 
-    private static String rightTrim(final String s) {
-        int i = s.length() - 1;
-        while ((i >= 0) && Character.isWhitespace(s.charAt(i))) {
-            i--;
-        }
-        return s.substring(0, i + 1);
-    }
-
-    private static String rightTrimToLetterOrDigit(final String s) {
-        int i = s.length() - 1;
-        while ((i >= 0) && !Character.isLetterOrDigit(s.charAt(i))) {
-            i--;
+    private void closeHeaderInput(HeaderInputStream input) {
+        try {
+            input.close();
+        } catch (IOException e) {
+            e.printStackTrace(report);
         }
-        return s.substring(0, i + 1);
-    }
-
-    private static void doIndent(BufferedWriter out, int indentLevel) throws IOException {
-        for (int i = 0; i < indentLevel; ++i) {
-            out.write("  ");
+        headerBytesRead = input.getBytesRead();
+        headerReadCalls = input.getReadCalls();
+        if (reportIoStatistics) {
+            report.println(String.format("Header input: %d bytes read in %d reads, %d bytes skipped",
+                                         input.getBytesRead(), input.getReadCalls(), input.getBytesSkipped()));
         }
     }
 
-    // This is ugly - feel free to fix it any time.
-    private static String makeGeoString(ImageCoordinatePair coords) {
-        double latitude = coords.getLatitude();
-        double longitude = coords.getLongitude();
-
-        String northSouth = "N";
-        if (latitude < 0.0) {
-            northSouth = "S";
-            latitude = Math.abs(latitude);
-        }
-        String eastWest = "E";
-        if (longitude < 0.0) {
-            eastWest = "W";
-            longitude = Math.abs(longitude);
-        }
-
-        int latDegrees = (int)Math.floor(latitude);
-        double minutesAndSecondsPart = (latitude -latDegrees) * 60;
-        int latMinutes = (int)Math.floor(minutesAndSecondsPart);
-        double secondsPart = (minutesAndSecondsPart - latMinutes) * 60;
-        int latSeconds = (int)Math.round(secondsPart);
-        if (latSeconds == 60) {
-            latMinutes++;
-            latSeconds = 0;
+    private boolean outputData() {
+        long renderStart = metrics.start();
+        try {
+            ourLines = context.getLineRules().forOurs().apply(MetadataRenderer.render(filename, nitf, treIndex, imageSegmentNumber, report));
+            return true;
         }
-        if (latMinutes == 60) {
-            latDegrees++;
-            latMinutes = 0;
+        catch (IOException e) {
+            e.printStackTrace(report);
         }
-        int lonDegrees = (int)Math.floor(longitude);
-        minutesAndSecondsPart = (longitude - lonDegrees) * 60;
-        int lonMinutes = (int)Math.floor(minutesAndSecondsPart);
-        secondsPart = (minutesAndSecondsPart - lonMinutes) * 60;
-        int lonSeconds = (int)Math.round(secondsPart);
-        if (lonSeconds == 60) {
-            lonMinutes++;
-            lonSeconds = 0;
+        catch (ParseException e) {
+            e.printStackTrace(report);
         }
-        if (lonMinutes == 60) {
-            lonDegrees++;
-            lonMinutes = 0;
+        finally {
+            metrics.record(RunMetrics.Phase.RENDER, renderStart);
         }
-        return String.format("%02d%02d%02d%s%03d%02d%02d%s", latDegrees, latMinutes, latSeconds, northSouth, lonDegrees, lonMinutes, lonSeconds, eastWest);
+        return false;
     }
 
-    private void generateGdalMetadata() {
+
+
+    private void waitForGdalMetadata(Future<List<String>> gdalMetadata) {
         try {
-            ProcessBuilder processBuilder = new ProcessBuilder("gdalinfo", "-nogcp", "-mdd", "xml:TRE", filename);
-            processBuilder.environment().put("NITF_OPEN_UNDERLYING_DS", "NO");
-            Process process = processBuilder.start();
-            BufferedWriter out = null;
-            try {
-                FileWriter fstream = new FileWriter(filename + THEIR_OUTPUT_EXTENSION);
-                out = new BufferedWriter(fstream);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            BufferedReader infoOutputReader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"), 1000000);
-            boolean done = false;
-            try {
-                do {
-                    do {
-                        String line = infoOutputReader.readLine();
-                        if (line == null) {
-                            done = true;
-                            break;
-                        }
-                        if (line.startsWith("Origin = (")) {
-                            // System.out.println("Filtering on Origin");
-                            continue;
-                        }
-                        if (line.startsWith("Pixel Size = (")) {
-                            // System.out.println("Filtering on Pixel Size");
-                            continue;
-                        }
-                        if (line.startsWith("  LINE_DEN_COEFF=") || line.startsWith("  LINE_NUM_COEFF=") || line.startsWith("  SAMP_DEN_COEFF=") || line.startsWith("  SAMP_NUM_COEFF=")) {
-                            // System.out.println("Filtering out RPC coefficients");
-                            continue;
-                        }
-                        if (line.startsWith("  LAT_SCALE=") || line.startsWith("  LONG_SCALE=") || line.startsWith("  LAT_OFF=") || line.startsWith("  LONG_OFF=")) {
-                            // System.out.println("Filtering out RPC coefficients");
-                            continue;
-                        }
-                        if (line.startsWith("Corner Coordinates:")) {
-                            // System.out.println("Exiting on Corner Coordinates");
-                            done = true;
-                            break;
-                        }
-                        if (line.startsWith("Band 1 Block=")) {
-                            // System.out.println("Exiting on Band 1 Block");
-                            done = true;
-                            break;
-                        }
-                        out.write(line + "\n");
-                    } while (infoOutputReader.ready() && (!done));
-                    Thread.sleep(100);
-                } while (!done);
-            } catch (IOException e) {
-                e.printStackTrace();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+            if (gdalTimeoutSeconds > 0) {
+                long remaining = TimeUnit.SECONDS.toNanos(gdalTimeoutSeconds) - (System.nanoTime() - gdalStartTime);
+                theirLines = gdalMetadata.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+            } else {
+                theirLines = gdalMetadata.get();
             }
-            out.close();
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+        } catch (TimeoutException e) {
+            gdalTimedOut = true;
+            gdalMetadata.cancel(true);
+            report.println(String.format("gdalinfo did not finish within %d seconds, not comparing", gdalTimeoutSeconds));
+        } catch (InterruptedException e) {
+            gdalFailed = true;
+            Thread.currentThread().interrupt();
+            e.printStackTrace(report);
+        } catch (ExecutionException e) {
+            gdalFailed = true;
+            e.getCause().printStackTrace(report);
         }
     }
 
     private void compareMetadataFiles() {
-        List<String> theirs = fileToLines(filename + THEIR_OUTPUT_EXTENSION);
-        List<String> ours  = fileToLines(filename + OUR_OUTPUT_EXTENSION);
-
-        Patch patch = DiffUtils.diff(theirs, ours);
+        long compareStart = metrics.start();
+        differences = diffEngine.compare(theirLines, ourLines);
+        metrics.record(RunMetrics.Phase.COMPARE, compareStart);
 
-        if (patch.getDeltas().size() > 0) {
-            for (Delta delta: patch.getDeltas()) {
-                    System.out.println(delta);
+        if (differences.size() > 0) {
+            for (String difference : differences) {
+                report.println(difference);
+            }
+            report.println("  * Done");
+            verdict = Verdict.MISMATCH;
+            // Only keep the rendered outputs around when someone needs to look at them
+            String outputBase = filename;
+            if (archiveMember != null) {
+                // Nothing can be written inside the archive, so write next to it
+                outputBase = archiveMember.getArchive() + "." + archiveMember.getName().replace('/', '_');
             }
-            System.out.println("  * Done");
+            if (imageSegmentNumber > 0) {
+                outputBase = outputBase + ".IM" + (imageSegmentNumber - 1);
+            }
+            writeLines(outputBase + THEIR_OUTPUT_EXTENSION, theirLines);
+            writeLines(outputBase + OUR_OUTPUT_EXTENSION, ourLines);
         } else {
-            new File(filename + THEIR_OUTPUT_EXTENSION).delete();
-            new File(filename + OUR_OUTPUT_EXTENSION).delete();
+            verdict = Verdict.MATCH;
         }
     }
 
-    private static List<String> fileToLines(String filename) {
-        List<String> lines = new LinkedList<String>();
-        String line = "";
+    private void writeLines(String outputFilename, List<String> lines) {
+        long writeStart = metrics.start();
         try {
-                BufferedReader in = new BufferedReader(new FileReader(filename));
-                while ((line = in.readLine()) != null) {
-                        lines.add(line);
+            BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilename));
+            try {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.write("\n");
                 }
+            } finally {
+                writer.close();
+            }
         } catch (IOException e) {
-                e.printStackTrace();
+            e.printStackTrace(report);
+        } finally {
+            metrics.record(RunMetrics.Phase.ARTIFACT_IO, writeStart);
         }
-        return lines;
     }
 
-}
\ No newline at end of file
+    private static class SegmentOutcome
+    {
+        final Verdict verdict;
+        final String report;
+        final List<String> differences;
+
+        SegmentOutcome(Verdict verdict, String report, List<String> differences) {
+            this.verdict = verdict;
+            this.report = report;
+            this.differences = differences;
+        }
+    }
+}
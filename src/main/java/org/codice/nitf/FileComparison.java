@@ -1,36 +1,367 @@
 package org.codice.nitf;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class FileComparison
 {
 
     public static void main( String[] args ) {
-        if (args.length == 0) {
+        ComparisonOptions options = new ComparisonOptions();
+        List<String> paths = new ArrayList<String>();
+        if (!parseArguments(args, options, paths)) {
+            printUsage();
+            return;
+        }
+        if (options.resume() && (options.getJournalFile() == null)) {
+            System.out.println("--resume needs a journal to resume from (--journal)");
+            return;
+        }
+        if (options.daemon()) {
+            daemon(options);
+            return;
+        }
+        if (paths.size() == 0) {
             System.out.println("No file provided, not comparing");
             return;
         }
-        for (String arg : args) {
-            if (new File(arg).isDirectory()) {
+        if (options.mergeJournals()) {
+            mergeJournals(paths, options.getJournalFile());
+            return;
+        }
+        addCorpusRoots(paths, options);
+        ComparisonContext context;
+        try {
+            context = new ComparisonContext(options);
+        } catch (IOException e) {
+            System.out.println("Could not set up comparison: " + e.getMessage());
+            return;
+        }
+        if ((context.getJournal() != null) && (context.getJournal().getResumedCount() > 0)) {
+            System.out.println("Resuming: " + context.getJournal().getResumedCount() + " files already compared in " + options.getJournalFile());
+        }
+        final ComparisonExecutor executor = new ComparisonExecutor(context, System.out);
+        CorpusWalker walker = new CorpusWalker(options);
+        CorpusWalker.FileHandler fileHandler = new CorpusWalker.FileHandler() {
+            @Override
+            public void handleFile(String filename) {
+                executor.submit(filename);
+            }
+        };
+        if (options.watch()) {
+            watch(paths, options, walker, executor);
+        } else {
+            walk(paths, walker, fileHandler);
+        }
+        RunSummary summary = executor.finish();
+        context.close();
+        summary.print(System.out);
+        reportMetrics(context.getMetrics(), options, System.out);
+    }
+
+    /**
+     * Compare the files a client names, on standard input or over an authenticated loopback socket, until it has no more (on
+     * standard input) or the JVM is told to stop (with a socket).
+     */
+    private static void daemon(ComparisonOptions options) {
+        // With standard input, standard output carries the responses, so everything else goes to standard error
+        PrintStream responses = System.out;
+        PrintStream console = (options.getDaemonPort() == 0) ? System.err : System.out;
+        System.setOut(console);
+        ComparisonContext context;
+        try {
+            context = new ComparisonContext(options);
+        } catch (IOException e) {
+            System.out.println("Could not set up comparison: " + e.getMessage());
+            return;
+        }
+        final ComparisonDaemon daemon = new ComparisonDaemon(context);
+        try {
+            if (options.getDaemonPort() == 0) {
+                daemon.serve(System.in, responses);
+            } else {
+                final Thread mainThread = Thread.currentThread();
+                Runtime.getRuntime().addShutdownHook(new Thread("daemon-shutdown") {
+                    @Override
+                    public void run() {
+                        daemon.stop();
+                        try {
+                            mainThread.join();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+                daemon.listen(options.getDaemonPort(), options.getDaemonTokenFile());
+            }
+        } catch (IOException e) {
+            System.out.println("Daemon stopped: " + e.getMessage());
+        }
+        RunSummary summary = daemon.finish();
+        context.close();
+        summary.print(console);
+        reportMetrics(context.getMetrics(), options, console);
+    }
+
+    private static void addCorpusRoots(List<String> paths, ComparisonOptions options) {
+        for (String arg : paths) {
+            Path path = Paths.get(arg);
+            if (Files.isDirectory(path)) {
+                options.addCorpusRoot(path);
+            } else {
+                // As in walk(), a file named on its own is relative to the directory it is in
+                Path parent = path.toAbsolutePath().getParent();
+                options.addCorpusRoot((parent == null) ? path.toAbsolutePath() : parent);
+            }
+        }
+    }
+
+    private static void walk(List<String> paths, CorpusWalker walker, CorpusWalker.FileHandler fileHandler) {
+        for (String arg : paths) {
+            Path path = Paths.get(arg);
+            if (Files.isDirectory(path)) {
                 System.out.println("Walking contents of " + arg);
-                File[] files = new File(arg).listFiles();
-                for (File file : files) {
-                    handleFile(arg + "/" + file.getName());
+                try {
+                    walker.walk(path, fileHandler);
+                } catch (IOException e) {
+                    System.out.println("Could not walk " + arg + ": " + e.getMessage());
                 }
-            } else {
-                handleFile(arg);
+            } else if (Files.isRegularFile(path)) {
+                // A file named on its own is its own directory, as far as patterns and shards are concerned
+                walker.walkFile(path.getFileName(), path, fileHandler);
+            }
+        }
+    }
+
+    /**
+     * Compare new files in the directories as they arrive, until the JVM is told to stop (with Ctrl-C, say).
+     *
+     * The comparisons all run in this one JVM, so only the first pays for starting it and warming it up.
+     */
+    private static void watch(List<String> paths, ComparisonOptions options, CorpusWalker walker, ComparisonExecutor executor) {
+        final DirectoryWatcher watcher;
+        try {
+            watcher = new DirectoryWatcher(options, walker, executor);
+        } catch (IOException e) {
+            System.out.println("Could not start watching: " + e.getMessage());
+            return;
+        }
+        boolean watching = false;
+        for (String arg : paths) {
+            Path path = Paths.get(arg);
+            if (!Files.isDirectory(path)) {
+                System.out.println("Not a directory, cannot watch " + arg);
+                continue;
+            }
+            try {
+                watcher.addDirectory(path);
+                System.out.println("Watching " + arg + " for new files");
+                watching = true;
+            } catch (IOException e) {
+                System.out.println("Could not watch " + arg + ": " + e.getMessage());
+            }
+        }
+        if (!watching) {
+            watcher.stop();
+            return;
+        }
+        // On shutdown, let the run finish the comparisons it has started and print its summary
+        final Thread mainThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread("watch-shutdown") {
+            @Override
+            public void run() {
+                watcher.stop();
+                try {
+                    mainThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        watcher.watch();
+    }
+
+    private static void reportMetrics(RunMetrics metrics, ComparisonOptions options, PrintStream console) {
+        if (options.reportTiming()) {
+            metrics.print(console);
+        }
+        if (options.getTimingOutput() != null) {
+            try {
+                metrics.write(options.getTimingOutput());
+            } catch (IOException e) {
+                System.out.println("Could not write timing metrics to " + options.getTimingOutput() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Combine the journals of several runs, such as the shards of one big run, into one summary.
+     *
+     * A file that appears in more than one journal keeps the verdict from the last journal given.
+     *
+     * @param journals the journal files
+     * @param mergedJournal where to write a journal of the combined results, or null for nowhere
+     */
+    private static void mergeJournals(List<String> journals, Path mergedJournal) {
+        Map<String, Verdict> verdicts = new TreeMap<String, Verdict>();
+        for (String journal : journals) {
+            try {
+                verdicts.putAll(new RunJournal.JournalReader(Paths.get(journal)).getVerdicts());
+            } catch (IOException e) {
+                System.out.println("Could not read journal " + journal + ": " + e.getMessage());
+                return;
+            }
+        }
+        System.out.println("Merged " + journals.size() + " journals");
+        RunSummary summary = new RunSummary();
+        for (Map.Entry<String, Verdict> entry : verdicts.entrySet()) {
+            summary.record(entry.getKey(), entry.getValue());
+        }
+        if (mergedJournal != null) {
+            try {
+                RunJournal journal = new RunJournal(mergedJournal, false);
+                for (Map.Entry<String, Verdict> entry : verdicts.entrySet()) {
+                    journal.record(entry.getKey(), entry.getValue());
+                }
+                journal.close();
+            } catch (IOException e) {
+                System.out.println("Could not write merged journal " + mergedJournal + ": " + e.getMessage());
+            }
+        }
+        summary.print(System.out);
+    }
+
+    private static boolean parseArguments(String[] args, ComparisonOptions options, List<String> paths) {
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                paths.add(arg);
+                continue;
+            }
+            boolean hasValue = (i + 1 < args.length);
+            try {
+                if (arg.equals("--jobs") && hasValue) {
+                    options.setJobs(Integer.parseInt(args[++i]));
+                } else if (arg.equals("--gdal-timeout") && hasValue) {
+                    options.setGdalTimeoutSeconds(Integer.parseInt(args[++i]));
+                } else if (arg.equals("--virtual-threads")) {
+                    options.setVirtualThreads(true);
+                } else if (arg.equals("--recursive")) {
+                    options.setRecursive(true);
+                } else if (arg.equals("--io-stats")) {
+                    options.setReportIoStatistics(true);
+                } else if (arg.equals("--cache-dir") && hasValue) {
+                    options.setCacheDirectory(Paths.get(args[++i]));
+                } else if (arg.equals("--cache-max-mb") && hasValue) {
+                    options.setCacheMaxBytes(Long.parseLong(args[++i]) * 1024 * 1024);
+                } else if (arg.equals("--diff") && hasValue) {
+                    options.setDiffMode(ComparisonOptions.DiffMode.valueOf(args[++i].toUpperCase(Locale.ROOT)));
+                } else if (arg.equals("--diff-max-edits") && hasValue) {
+                    options.setMaxDiffEdits(Integer.parseInt(args[++i]));
+                } else if (arg.equals("--oracle") && hasValue) {
+                    options.setOracleType(ComparisonOptions.OracleType.valueOf(args[++i].toUpperCase(Locale.ROOT)));
+                } else if (arg.equals("--oracle-command") && hasValue) {
+                    options.setOracleCommand(args[++i]);
+                } else if (arg.equals("--oracle-pool") && hasValue) {
+                    options.setOraclePoolSize(Integer.parseInt(args[++i]));
+                } else if (arg.equals("--oracle-archive") && hasValue) {
+                    options.setOracleArchive(Paths.get(args[++i]));
+                } else if (arg.equals("--oracle-record") && hasValue) {
+                    options.setOracleRecordFile(Paths.get(args[++i]));
+                } else if (arg.equals("--timing")) {
+                    options.setReportTiming(true);
+                } else if (arg.equals("--timing-out") && hasValue) {
+                    options.setTimingOutput(Paths.get(args[++i]));
+                } else if (arg.equals("--journal") && hasValue) {
+                    options.setJournalFile(Paths.get(args[++i]));
+                } else if (arg.equals("--resume")) {
+                    options.setResume(true);
+                } else if (arg.equals("--shard") && hasValue) {
+                    parseShard(args[++i], options);
+                } else if (arg.equals("--merge")) {
+                    options.setMergeJournals(true);
+                } else if (arg.equals("--rules") && hasValue) {
+                    options.setRulesFile(Paths.get(args[++i]));
+                } else if (arg.equals("--watch")) {
+                    options.setWatch(true);
+                } else if (arg.equals("--watch-settle") && hasValue) {
+                    options.setWatchSettleMillis(Long.parseLong(args[++i]));
+                } else if (arg.equals("--daemon")) {
+                    options.setDaemon(true);
+                } else if (arg.equals("--daemon-port") && hasValue) {
+                    options.setDaemonPort(Integer.parseInt(args[++i]));
+                    options.setDaemon(true);
+                } else if (arg.equals("--daemon-token") && hasValue) {
+                    options.setDaemonTokenFile(Paths.get(args[++i]));
+                } else if (arg.equals("--all-segments")) {
+                    options.setCompareAllImageSegments(true);
+                } else if (arg.equals("--segment-jobs") && hasValue) {
+                    options.setSegmentJobs(Integer.parseInt(args[++i]));
+                } else if (arg.equals("--include") && hasValue) {
+                    options.addIncludePattern(args[++i]);
+                } else if (arg.equals("--exclude") && hasValue) {
+                    options.addExcludePattern(args[++i]);
+                } else {
+                    System.out.println("Unknown or incomplete option: " + arg);
+                    return false;
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println("Bad value for " + arg + ": " + e.getMessage());
+                return false;
             }
         }
+        return true;
     }
 
-    private static void handleFile(String filename) {
-        if (new File(filename).isFile() && (! filename.endsWith(".txt"))) {
-            System.out.println("Dumping output of " + filename);
-            compareOneFile(filename);
+    private static void parseShard(String shard, ComparisonOptions options) {
+        int slash = shard.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Shard must be given as INDEX/COUNT, got " + shard);
         }
+        options.setShard(Integer.parseInt(shard.substring(0, slash)), Integer.parseInt(shard.substring(slash + 1)));
     }
 
-    private static void compareOneFile(String filename) {
-        new FileComparer(filename);
+    private static void printUsage() {
+        System.out.println("Usage: FileComparison [options] file-directory-or-archive...");
+        System.out.println("       FileComparison --merge [--journal FILE] journal...");
+        System.out.println("       FileComparison --daemon [--daemon-port N [--daemon-token FILE]] [options]");
+        System.out.println("  --jobs N            compare up to N files concurrently (default 1)");
+        System.out.println("  --virtual-threads   run comparisons on virtual threads, if the JVM supports them");
+        System.out.println("  --gdal-timeout S    give up on gdalinfo after S seconds per file, 0 to wait forever (default 300)");
+        System.out.println("  --recursive         walk directories recursively");
+        System.out.println("  --include GLOB      only compare files matching GLOB (may be repeated)");
+        System.out.println("  --exclude GLOB      skip files matching GLOB (may be repeated, default *.txt)");
+        System.out.println("  --timing            print per-phase timings and the slowest files at the end of the run");
+        System.out.println("  --timing-out FILE   write timing metrics to FILE, as CSV if it ends in .csv, otherwise JSON");
+        System.out.println("  --journal FILE      record each finished file and its verdict in FILE");
+        System.out.println("  --resume            skip files already recorded in the journal, counting their earlier verdicts");
+        System.out.println("  --shard I/N         only compare the files in shard I (from 0) of N, split by path hash");
+        System.out.println("  --merge             combine the journals given (from shards, say) into one summary");
+        System.out.println("  --rules FILE        normalize both outputs with the line rules in FILE instead of the built-in ones");
+        System.out.println("  --watch             keep watching the directories, comparing new files as they are completed");
+        System.out.println("  --watch-settle MS   with --watch, how long a file must go unchanged to count as complete (default 1000)");
+        System.out.println("  --daemon            compare the files named on standard input, one per line, answering on standard output");
+        System.out.println("  --daemon-port N     as --daemon, but take requests on port N of the loopback interface");
+        System.out.println("  --daemon-token FILE with --daemon-port, write the token clients must send to FILE");
+        System.out.println("  --all-segments      also compare each image segment against its NITF_IM subdataset");
+        System.out.println("  --segment-jobs N    compare up to N image segments at once (default: number of processors)");
+        System.out.println("  --io-stats          report how much of each file the header parse read");
+        System.out.println("  --cache-dir DIR     reuse results for unchanged files, cached in DIR");
+        System.out.println("  --cache-max-mb N    trim the cache back to N megabytes (default 1024)");
+        System.out.println("  --diff MODE         how outputs are compared: sections (default), lines or linear");
+        System.out.println("  --diff-max-edits N  report outputs more than N lines apart as too different to diff (default 1000)");
+        System.out.println("  --oracle TYPE       where gdalinfo output comes from: process (default), batch or replay");
+        System.out.println("  --oracle-command C  command line that starts a batch oracle helper");
+        System.out.println("  --oracle-pool N     number of batch oracle helpers (default: same as --jobs)");
+        System.out.println("  --oracle-record F   record the gdalinfo output in the oracle archive F, for later replay");
+        System.out.println("  --oracle-archive F  the oracle archive the replay oracle reads");
     }
 }
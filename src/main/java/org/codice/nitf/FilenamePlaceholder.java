@@ -0,0 +1,51 @@
+package org.codice.nitf;
+
+/**
+ * Swaps the file name in the lines of metadata output that name the dataset for a placeholder, and back.
+ *
+ * Stored output can then be used for the same content at another path: the verdict cache shares an entry between
+ * identical copies of a file, and a recorded oracle archive can be replayed from wherever the corpus is now.
+ */
+class FilenamePlaceholder
+{
+    private static final String PLACEHOLDER = "<<FILE>>";
+    private static final String SUBDATASET_PREFIX = "SUBDATASET_";
+
+    private FilenamePlaceholder() {
+    }
+
+    /**
+     * @param line a line of output
+     * @param filename the file the output is for
+     * @return the line, with the file name replaced by the placeholder if the line names the dataset
+     */
+    static String hide(String line, String filename) {
+        return namesDataset(line) ? line.replace(filename, PLACEHOLDER) : line;
+    }
+
+    /**
+     * @param line a line of stored output
+     * @param filename the file the output is now for
+     * @return the line, with the placeholder replaced by the file name if the line names the dataset
+     */
+    static String restore(String line, String filename) {
+        return namesDataset(line) ? line.replace(PLACEHOLDER, filename) : line;
+    }
+
+    // Only these lines name the file; a file name that also turns up in, say, a title or a TRE must stay as it is
+    private static boolean namesDataset(String line) {
+        if (line.startsWith("Files:")) {
+            return true;
+        }
+        // SUBDATASET_n_NAME and SUBDATASET_n_DESC, as a metadata item
+        String item = line.trim();
+        if (!item.startsWith(SUBDATASET_PREFIX)) {
+            return false;
+        }
+        int digitsEnd = SUBDATASET_PREFIX.length();
+        while ((digitsEnd < item.length()) && Character.isDigit(item.charAt(digitsEnd))) {
+            ++digitsEnd;
+        }
+        return (digitsEnd > SUBDATASET_PREFIX.length()) && (item.startsWith("_NAME=", digitsEnd) || item.startsWith("_DESC=", digitsEnd));
+    }
+}
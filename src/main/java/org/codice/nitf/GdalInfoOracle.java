@@ -0,0 +1,141 @@
+package org.codice.nitf;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs a separate gdalinfo process for each file.
+ */
+class GdalInfoOracle implements MetadataOracle
+{
+    private final ExecutorService outputReaders = Executors.newCachedThreadPool(new DaemonThreadFactory("gdalinfo-reader"));
+    private final LineRules.Normalizer normalizer;
+    private final RunMetrics metrics;
+
+    GdalInfoOracle(LineRules.Normalizer outputNormalizer, RunMetrics runMetrics) {
+        normalizer = outputNormalizer;
+        metrics = runMetrics;
+    }
+
+    @Override
+    public Future<List<String>> describe(String filename) {
+        final Process process;
+        long spawnStart = metrics.start();
+        try {
+            ProcessBuilder processBuilder = new ProcessBuilder("gdalinfo", "-nogcp", "-mdd", "xml:TRE", filename);
+            processBuilder.environment().put("NITF_OPEN_UNDERLYING_DS", "NO");
+            process = processBuilder.start();
+            metrics.record(RunMetrics.Phase.GDAL_SPAWN, spawnStart);
+        } catch (IOException e) {
+            FutureTask<List<String>> failed = new FutureTask<List<String>>(new FailedRequest(e));
+            failed.run();
+            return failed;
+        }
+        // gdalinfo can block writing warnings if nobody reads them
+        drainStream(outputReaders, process.getErrorStream());
+        FutureTask<List<String>> request = new FutureTask<List<String>>(new Callable<List<String>>() {
+            @Override
+            public List<String> call() throws IOException {
+                long readStart = metrics.start();
+                try {
+                    return readOutput(process);
+                } finally {
+                    metrics.record(RunMetrics.Phase.GDAL_READ, readStart);
+                    // Either we have seen everything we compare, or something went wrong. A gdalinfo stuck in a
+                    // driver may not answer SIGTERM, so do not give it the chance to outlive the comparison.
+                    process.destroyForcibly();
+                }
+            }
+        }) {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                // Timed out or abandoned, so most likely hung
+                process.destroyForcibly();
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        outputReaders.execute(request);
+        return request;
+    }
+
+    @Override
+    public String getVersion() throws IOException {
+        Process process = new ProcessBuilder("gdalinfo", "--version").redirectErrorStream(true).start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        try {
+            String version = reader.readLine();
+            if (version == null) {
+                throw new IOException("gdalinfo --version did not report a version");
+            }
+            return version;
+        } finally {
+            reader.close();
+            process.destroy();
+        }
+    }
+
+    @Override
+    public void close() {
+        outputReaders.shutdownNow();
+    }
+
+    /**
+     * Read and throw away everything from a stream, on a background thread.
+     *
+     * @param executor the executor to run the reader on
+     * @param stream the stream to drain
+     */
+    static void drainStream(ExecutorService executor, final InputStream stream) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[4096];
+                try {
+                    while (stream.read(buffer) != -1) {
+                        // discard
+                    }
+                } catch (IOException e) {
+                    // The process has gone away, nothing more to drain
+                }
+            }
+        });
+    }
+
+    private List<String> readOutput(Process process) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader infoOutputReader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        String line;
+        while ((line = infoOutputReader.readLine()) != null) {
+            if (!normalizer.apply(line, lines)) {
+                break;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * A request that fails straight away.
+     */
+    static class FailedRequest implements Callable<List<String>>
+    {
+        private final IOException failure;
+
+        FailedRequest(IOException e) {
+            failure = e;
+        }
+
+        @Override
+        public List<String> call() throws IOException {
+            throw failure;
+        }
+    }
+}
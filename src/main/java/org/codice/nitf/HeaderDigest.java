@@ -0,0 +1,185 @@
+package org.codice.nitf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Digests the parts of a NITF file that the metadata comes from, for the verdict cache.
+ *
+ * That is the file header, every segment subheader (along with the TREs they carry) and the data of the text, data
+ * extension, reserved extension and graphic segments, which are small and may hold metadata of their own, such as
+ * TRE overflow. Image data is skipped, just as the header parse skips it, so a multi-gigabyte image is keyed by a
+ * few kilobytes of reading. Neither gdalinfo (which we run without opening the underlying image) nor our parser
+ * reports anything from the pixels, so two files that differ only in image data compare the same way.
+ *
+ * Anything that does not parse as a NITF segment layout is digested in full, so a malformed file is never confused
+ * with another.
+ */
+class HeaderDigest
+{
+    private static final int SKIP_BUFFER_SIZE = 8192;
+    // After FL and HL, counts and lengths of each kind of segment: count digits, subheader length digits, data length
+    // digits, and whether the data is digested
+    private static final int[][] NITF20_SEGMENT_FIELDS = {{3, 6, 10, 0}, {3, 4, 6, 1}, {3, 4, 3, 1}, {3, 4, 5, 1}, {3, 4, 9, 1}, {3, 4, 7, 1}};
+    // NITF 2.1 and NSIF 1.0 have graphics instead of symbols and labels, and a reserved NUMX field of its own
+    private static final int[][] NITF21_SEGMENT_FIELDS = {{3, 6, 10, 0}, {3, 4, 6, 1}, {3, 0, 0, 1}, {3, 4, 5, 1}, {3, 4, 9, 1}, {3, 4, 7, 1}};
+    private static final int FL_HL_LENGTH = 12 + 6;
+
+    private HeaderDigest() {
+    }
+
+    /**
+     * Feed the header region of a file into a digest.
+     *
+     * @param input the file, positioned at its start; it is read up to the end of the last segment subheader (or
+     * the last digested segment data), and not closed
+     * @param digest the digest to update
+     * @throws IOException if the file could not be read
+     */
+    static void update(InputStream input, MessageDigest digest) throws IOException {
+        DigestInputStream digestInput = new DigestInputStream(input, digest);
+        byte[] header = readHeader(digestInput);
+        List<long[]> segments = (header == null) ? null : parseSegments(header);
+        if (segments == null) {
+            readFully(digestInput, Long.MAX_VALUE);
+            return;
+        }
+        for (long[] segment : segments) {
+            if (readFully(digestInput, segment[0]) < segment[0]) {
+                return;
+            }
+            long skipped;
+            if (segment[2] != 0) {
+                skipped = readFully(digestInput, segment[1]);
+            } else {
+                skipped = skipFully(digestInput, segment[1]);
+            }
+            if (skipped < segment[1]) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read the file header, as far as the header length says it goes.
+     *
+     * @return the header, or null if the file does not start like a NITF file; what was read has been digested
+     */
+    private static byte[] readHeader(InputStream input) throws IOException {
+        // Enough to find FL in any version, but less than the shortest possible header, so we never read past it
+        byte[] start = new byte[NitfSniffer.FSDWNG_OFFSET + NitfSniffer.FSDWNG_LENGTH];
+        int length = read(input, start, 0, start.length);
+        int flOffset = NitfSniffer.fileLengthOffset(start, length);
+        if (flOffset < 0) {
+            return null;
+        }
+        byte[] lengths = new byte[flOffset + FL_HL_LENGTH];
+        System.arraycopy(start, 0, lengths, 0, length);
+        if (read(input, lengths, length, lengths.length - length) < lengths.length - length) {
+            return null;
+        }
+        long headerLength = parseNumber(lengths, flOffset + 12, 6);
+        if (headerLength < lengths.length) {
+            return null;
+        }
+        byte[] header = new byte[(int) headerLength];
+        System.arraycopy(lengths, 0, header, 0, lengths.length);
+        if (read(input, header, lengths.length, header.length - lengths.length) < header.length - lengths.length) {
+            return null;
+        }
+        return header;
+    }
+
+    /**
+     * Work out the segments from the counts and lengths in the file header.
+     *
+     * @return for each segment, in file order, its subheader length, its data length and whether the data is
+     * digested (non-zero), or null if the fields are not numbers or run past the header
+     */
+    private static List<long[]> parseSegments(byte[] header) {
+        int offset = NitfSniffer.fileLengthOffset(header, header.length) + FL_HL_LENGTH;
+        boolean nitf20 = new String(header, 0, 9, StandardCharsets.US_ASCII).equals("NITF02.00");
+        List<long[]> segments = new ArrayList<long[]>();
+        for (int[] fields : nitf20 ? NITF20_SEGMENT_FIELDS : NITF21_SEGMENT_FIELDS) {
+            long count = parseNumber(header, offset, fields[0]);
+            offset += fields[0];
+            if ((count < 0) || (offset + count * (fields[1] + fields[2]) > header.length)) {
+                return null;
+            }
+            for (int i = 0; i < count; ++i) {
+                long subheaderLength = parseNumber(header, offset, fields[1]);
+                long dataLength = parseNumber(header, offset + fields[1], fields[2]);
+                if ((subheaderLength < 0) || (dataLength < 0)) {
+                    return null;
+                }
+                segments.add(new long[] {subheaderLength, dataLength, fields[3]});
+                offset += fields[1] + fields[2];
+            }
+        }
+        return segments;
+    }
+
+    // Returns -1 unless the field is all digits (and fits in the array)
+    private static long parseNumber(byte[] header, int offset, int length) {
+        if (offset + length > header.length) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            int digit = header[i] - '0';
+            if ((digit < 0) || (digit > 9)) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int read(InputStream input, byte[] destination, int offset, int length) throws IOException {
+        int total = 0;
+        int count;
+        while ((total < length) && ((count = input.read(destination, offset + total, length - total)) != -1)) {
+            total += count;
+        }
+        return total;
+    }
+
+    // Returns how many bytes were read, which is less than asked for at the end of the file
+    private static long readFully(InputStream input, long length) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(length, SKIP_BUFFER_SIZE)];
+        long total = 0;
+        while (total < length) {
+            int count = input.read(buffer, 0, (int) Math.min(length - total, buffer.length));
+            if (count == -1) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    // Skips without digesting; returns how many bytes were skipped, which is less than asked for at the end of the file
+    private static long skipFully(DigestInputStream input, long length) throws IOException {
+        long total = 0;
+        while (total < length) {
+            long count = input.skip(length - total);
+            if (count <= 0) {
+                // skip() may stop short without being at the end, so check by reading (without digesting) a byte
+                input.on(false);
+                int next = input.read();
+                input.on(true);
+                if (next == -1) {
+                    break;
+                }
+                count = 1;
+            }
+            total += count;
+        }
+        return total;
+    }
+}
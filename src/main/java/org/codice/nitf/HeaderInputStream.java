@@ -0,0 +1,282 @@
+package org.codice.nitf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Buffered input for header-only parsing, backed by a FileChannel (or, for compressed archive members, a
+ * decompressing stream).
+ *
+ * Reads are served from a small buffer, so the many small reads the header parser makes turn into a few channel
+ * reads. Skips that go past the buffer just move the channel position, so skipping over image or other segment
+ * data never reads it from disk. A compressed stream cannot seek, so skips within it decompress the data skipped
+ * over; but a skip that reaches the end of the data (over the last segment, usually) never decompresses anything.
+ *
+ * The stream counts the bytes it actually reads, the number of channel reads (roughly, the number of read system
+ * calls) and the bytes it skips, so we can check that large files are not read in full.
+ */
+class HeaderInputStream extends InputStream
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Source source;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long bytesRead = 0;
+    private long bytesSkipped = 0;
+    private int readCalls = 0;
+    private boolean endOfFile = false;
+
+    HeaderInputStream(Path path) throws IOException {
+        this(FileChannel.open(path, StandardOpenOption.READ), 0, -1);
+    }
+
+    /**
+     * Read part of a file, such as a member of an uncompressed archive.
+     *
+     * @param channel the file, which is closed along with this stream
+     * @param offset where the data starts in the file
+     * @param length the length of the data, or -1 for the rest of the file
+     * @throws IOException if the size of the file could not be found
+     */
+    HeaderInputStream(FileChannel channel, long offset, long length) throws IOException {
+        this(new ChannelSource(channel, offset, (length < 0) ? channel.size() - offset : length));
+    }
+
+    /**
+     * Read from a stream, such as a compressed archive member.
+     *
+     * @param stream the data, which is closed along with this stream
+     * @param length the length of the data
+     */
+    HeaderInputStream(InputStream stream, long length) {
+        this(new StreamSource(stream, length));
+    }
+
+    private HeaderInputStream(Source dataSource) {
+        source = dataSource;
+        buffer.flip();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillBuffer()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] destination, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fillBuffer()) {
+            return -1;
+        }
+        int count = Math.min(length, buffer.remaining());
+        buffer.get(destination, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        if (count <= 0) {
+            return 0;
+        }
+        if (count <= buffer.remaining()) {
+            buffer.position(buffer.position() + (int) count);
+            return count;
+        }
+        long skipped = source.skip(count - buffer.remaining());
+        bytesSkipped += skipped;
+        long total = buffer.remaining() + skipped;
+        buffer.position(buffer.limit());
+        return total;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(getRemainingLength(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the number of bytes from the current position to the end of the data
+     */
+    long getRemainingLength() {
+        return buffer.remaining() + source.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    private boolean fillBuffer() throws IOException {
+        if (buffer.hasRemaining()) {
+            return true;
+        }
+        if (endOfFile) {
+            return false;
+        }
+        buffer.clear();
+        int count = source.read(buffer);
+        readCalls++;
+        buffer.flip();
+        if (count <= 0) {
+            endOfFile = true;
+            return false;
+        }
+        bytesRead += count;
+        return true;
+    }
+
+    /**
+     * @return the number of bytes read from the file
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return the number of bytes skipped over without being read
+     */
+    long getBytesSkipped() {
+        return bytesSkipped;
+    }
+
+    /**
+     * @return the number of reads made on the underlying channel
+     */
+    int getReadCalls() {
+        return readCalls;
+    }
+
+    /**
+     * Where the bytes come from.
+     */
+    private interface Source
+    {
+        /**
+         * @return the number of bytes put in the buffer, or -1 at the end of the data
+         */
+        int read(ByteBuffer destination) throws IOException;
+
+        /**
+         * @return the number of bytes skipped, which is less than asked for only at the end of the data
+         */
+        long skip(long count) throws IOException;
+
+        long remaining();
+
+        void close() throws IOException;
+    }
+
+    private static class ChannelSource implements Source
+    {
+        private final FileChannel channel;
+        private final long offset;
+        private final long length;
+        private long position = 0;
+
+        ChannelSource(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            if (position >= length) {
+                return -1;
+            }
+            if (destination.remaining() > length - position) {
+                destination.limit(destination.position() + (int) (length - position));
+            }
+            int count = channel.read(destination, offset + position);
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long count) {
+            long skipped = Math.min(count, remaining());
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public long remaining() {
+            return Math.max(length - position, 0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class StreamSource implements Source
+    {
+        private final InputStream stream;
+        private final long length;
+        private long position = 0;
+
+        StreamSource(InputStream stream, long length) {
+            this.stream = stream;
+            this.length = length;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            if (position >= length) {
+                return -1;
+            }
+            int wanted = (int) Math.min(destination.remaining(), length - position);
+            int count = stream.read(destination.array(), destination.arrayOffset() + destination.position(), wanted);
+            if (count > 0) {
+                destination.position(destination.position() + count);
+                position += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long wanted = Math.min(count, remaining());
+            if (wanted == remaining()) {
+                // Nothing after this is ever read, so there is no need to decompress it
+                position = length;
+                return wanted;
+            }
+            long skipped = 0;
+            while (skipped < wanted) {
+                long step = stream.skip(wanted - skipped);
+                if (step <= 0) {
+                    if (stream.read() < 0) {
+                        break;
+                    }
+                    step = 1;
+                }
+                skipped += step;
+            }
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public long remaining() {
+            return Math.max(length - position, 0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+}
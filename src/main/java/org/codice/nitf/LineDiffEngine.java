@@ -0,0 +1,24 @@
+package org.codice.nitf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import difflib.Delta;
+import difflib.DiffUtils;
+import difflib.Patch;
+
+/**
+ * Compares the outputs as plain text, using a Myers diff over the whole of both outputs.
+ */
+class LineDiffEngine implements DiffEngine
+{
+    @Override
+    public List<String> compare(List<String> theirs, List<String> ours) {
+        Patch patch = DiffUtils.diff(theirs, ours);
+        List<String> differences = new ArrayList<String>();
+        for (Delta delta: patch.getDeltas()) {
+            differences.add(delta.toString());
+        }
+        return differences;
+    }
+}
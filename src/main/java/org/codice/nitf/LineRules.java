@@ -0,0 +1,363 @@
+package org.codice.nitf;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rules for normalizing the lines of both outputs before they are compared: which lines to drop, where to stop,
+ * and what to rewrite.
+ *
+ * Rules are read from a text file with one rule per line:
+ *
+ * <pre>
+ * ACTION SIDE MATCH TEXT [REPLACEMENT]
+ * </pre>
+ *
+ * where ACTION is drop, stop (drop this line and everything after it) or rewrite; SIDE is both, ours or theirs;
+ * MATCH is prefix (TEXT starts the line) or key (the line is the metadata entry "  TEXT=..."); and REPLACEMENT,
+ * for rewrite only, replaces the matched prefix or key. A key rule whose TEXT is KEY=VALUE only matches an entry
+ * with exactly that value, and its REPLACEMENT is a whole KEY=VALUE entry too. Text with spaces goes in double
+ * quotes, with \" and \\ for a quote or backslash. Blank lines and lines starting with # are ignored.
+ *
+ * The rules for each side are compiled into a character trie, so classifying a line is a single walk along it
+ * however many rules there are. When more than one rule matches a line, the one with the longest text wins (an
+ * exact entry match beats a prefix or key rule with the same text); a later rule with the same text as an earlier
+ * one replaces it.
+ */
+class LineRules
+{
+    /**
+     * What a rule does to the lines it matches.
+     */
+    enum Action
+    {
+        DROP,
+        STOP,
+        REWRITE
+    }
+
+    /**
+     * Which output a rule applies to.
+     */
+    enum Side
+    {
+        BOTH,
+        OURS,
+        THEIRS
+    }
+
+    private static final String DEFAULT_RULES_RESOURCE = "line-rules.txt";
+
+    private final String text;
+    private final Normalizer ours = new Normalizer();
+    private final Normalizer theirs = new Normalizer();
+
+    private LineRules(String rulesText, String sourceName) throws IOException {
+        text = rulesText;
+        parse(new StringReader(rulesText), sourceName);
+    }
+
+    /**
+     * Load the built-in rules.
+     *
+     * @return the rules
+     * @throws IOException if the rules could not be read, or are not valid
+     */
+    static LineRules loadDefaults() throws IOException {
+        InputStream input = LineRules.class.getResourceAsStream(DEFAULT_RULES_RESOURCE);
+        if (input == null) {
+            throw new IOException("Built-in line rules " + DEFAULT_RULES_RESOURCE + " are missing");
+        }
+        try {
+            return new LineRules(readAll(new InputStreamReader(input, StandardCharsets.UTF_8)), DEFAULT_RULES_RESOURCE);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Load rules from a file.
+     *
+     * @param path the rule file
+     * @return the rules
+     * @throws IOException if the file could not be read, or the rules are not valid
+     */
+    static LineRules load(Path path) throws IOException {
+        return new LineRules(new String(Files.readAllBytes(path), StandardCharsets.UTF_8), path.toString());
+    }
+
+    /**
+     * @return the rules for our output
+     */
+    Normalizer forOurs() {
+        return ours;
+    }
+
+    /**
+     * @return the rules for the gdalinfo output
+     */
+    Normalizer forTheirs() {
+        return theirs;
+    }
+
+    /**
+     * @return the text the rules were compiled from
+     */
+    String getText() {
+        return text;
+    }
+
+    private static String readAll(Reader reader) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[4096];
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            builder.append(buffer, 0, count);
+        }
+        return builder.toString();
+    }
+
+    private void parse(Reader reader, String sourceName) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            try {
+                parseRule(line);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(sourceName + ":" + lineNumber + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void parseRule(String line) {
+        List<String> fields = split(line);
+        if (fields.isEmpty() || fields.get(0).startsWith("#")) {
+            return;
+        }
+        if (fields.size() < 4) {
+            throw new IllegalArgumentException("expected ACTION SIDE MATCH TEXT [REPLACEMENT]");
+        }
+        Action action = parseEnum(Action.class, fields.get(0), "action");
+        Side side = parseEnum(Side.class, fields.get(1), "side");
+        boolean isKey;
+        if (fields.get(2).equals("prefix")) {
+            isKey = false;
+        } else if (fields.get(2).equals("key")) {
+            isKey = true;
+        } else {
+            throw new IllegalArgumentException("match must be prefix or key, got " + fields.get(2));
+        }
+        int expectedFields = (action == Action.REWRITE) ? 5 : 4;
+        if (fields.size() != expectedFields) {
+            throw new IllegalArgumentException(fields.get(0) + " takes " + (expectedFields - 3) + " text argument(s)");
+        }
+        // A key rule with a value matches that entry exactly
+        boolean isEntry = isKey && (fields.get(3).indexOf('=') > 0);
+        String prefix = isKey ? keyPrefix(fields.get(3), isEntry) : fields.get(3);
+        if (prefix.isEmpty()) {
+            throw new IllegalArgumentException("empty match text");
+        }
+        String replacement = null;
+        if (action == Action.REWRITE) {
+            if (isEntry && (fields.get(4).indexOf('=') <= 0)) {
+                throw new IllegalArgumentException("the replacement for a KEY=VALUE entry must be a KEY=VALUE entry");
+            }
+            replacement = isKey ? keyPrefix(fields.get(4), isEntry) : fields.get(4);
+        }
+        Rule rule = new Rule(action, replacement, isEntry);
+        if (side != Side.THEIRS) {
+            ours.add(prefix, rule);
+        }
+        if (side != Side.OURS) {
+            theirs.add(prefix, rule);
+        }
+    }
+
+    // Metadata entries are written as "  KEY=VALUE" by both gdalinfo and us
+    private static String keyPrefix(String key, boolean isEntry) {
+        return isEntry ? "  " + key : "  " + key + "=";
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String name, String description) {
+        for (E value : type.getEnumConstants()) {
+            if (value.name().equalsIgnoreCase(name)) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("unknown " + description + " " + name);
+    }
+
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<String>();
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                StringBuilder field = new StringBuilder();
+                i++;
+                while (true) {
+                    if (i >= line.length()) {
+                        throw new IllegalArgumentException("unterminated quote");
+                    }
+                    c = line.charAt(i++);
+                    if (c == '"') {
+                        break;
+                    }
+                    if ((c == '\\') && (i < line.length())) {
+                        c = line.charAt(i++);
+                    }
+                    field.append(c);
+                }
+                fields.add(field.toString());
+            } else {
+                int start = i;
+                while ((i < line.length()) && !Character.isWhitespace(line.charAt(i))) {
+                    i++;
+                }
+                fields.add(line.substring(start, i));
+            }
+        }
+        return fields;
+    }
+
+    private static class Rule
+    {
+        final Action action;
+        final String replacement;
+        // Only matches a line that ends where the rule's text does
+        final boolean exact;
+
+        Rule(Action action, String replacement, boolean exact) {
+            this.action = action;
+            this.replacement = replacement;
+            this.exact = exact;
+        }
+    }
+
+    private static class Node
+    {
+        // Sorted, so children can be found by binary search
+        char[] labels = new char[0];
+        Node[] children = new Node[0];
+        Rule rule = null;
+        Rule exactRule = null;
+        int depth = 0;
+
+        Node child(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            return (index >= 0) ? children[index] : null;
+        }
+
+        Node addChild(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insertAt = -index - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, insertAt);
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            newLabels[insertAt] = label;
+            newChildren[insertAt] = new Node();
+            newChildren[insertAt].depth = depth + 1;
+            System.arraycopy(labels, insertAt, newLabels, insertAt + 1, labels.length - insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[insertAt];
+        }
+    }
+
+    /**
+     * The compiled rules for one side of the comparison.
+     *
+     * Once loaded, a normalizer is only read, so it can be shared between threads.
+     */
+    static class Normalizer
+    {
+        private final Node root = new Node();
+
+        private void add(String prefix, Rule rule) {
+            Node node = root;
+            for (int i = 0; i < prefix.length(); ++i) {
+                node = node.addChild(prefix.charAt(i));
+            }
+            if (rule.exact) {
+                node.exactRule = rule;
+            } else {
+                node.rule = rule;
+            }
+        }
+
+        /**
+         * Apply the rules to one line.
+         *
+         * @param line the line
+         * @param output where the line goes, unless it is dropped, after any rewriting
+         * @return false if the rules say to stop here, so the caller should ignore the rest of the output
+         */
+        boolean apply(String line, List<String> output) {
+            Node node = root;
+            Node matched = null;
+            Rule matchedRule = null;
+            for (int i = 0; i < line.length(); ++i) {
+                node = node.child(line.charAt(i));
+                if (node == null) {
+                    break;
+                }
+                if ((node.exactRule != null) && (i == line.length() - 1)) {
+                    matched = node;
+                    matchedRule = node.exactRule;
+                } else if (node.rule != null) {
+                    matched = node;
+                    matchedRule = node.rule;
+                }
+            }
+            if (matched == null) {
+                output.add(line);
+                return true;
+            }
+            switch (matchedRule.action) {
+                case STOP:
+                    return false;
+                case REWRITE:
+                    output.add(matchedRule.replacement + line.substring(matched.depth));
+                    return true;
+                case DROP:
+                default:
+                    return true;
+            }
+        }
+
+        /**
+         * Apply the rules to a whole output.
+         *
+         * @param lines the output lines
+         * @return the normalized lines
+         */
+        List<String> apply(List<String> lines) {
+            List<String> output = new ArrayList<String>(lines.size());
+            for (String line : lines) {
+                if (!apply(line, output)) {
+                    break;
+                }
+            }
+            return output;
+        }
+    }
+}
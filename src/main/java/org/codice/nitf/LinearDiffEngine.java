@@ -0,0 +1,263 @@
+package org.codice.nitf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the outputs as plain text, like {@link LineDiffEngine}, but in memory linear in the size of the outputs
+ * and with a cap on the number of edits it will look for.
+ *
+ * Lines are first interned to integer IDs, so the diff compares ints in primitive arrays rather than strings in
+ * lists, and the common start and end of the outputs are trimmed off. What is left goes through Myers' linear space
+ * refinement: find the middle snake of the shortest edit script with forward and backward searches, then recurse on
+ * either side of it. Finding an edit script of D edits over N lines takes O(N D) time, and the search vectors only
+ * need room for D diagonals.
+ *
+ * If the outputs are more than the cap apart, the search stops once it has proved that, and a single difference
+ * says where the outputs start to differ, instead of a diff that would take too long to find and to read.
+ *
+ * Differences are reported in the same form as {@link LineDiffEngine}'s.
+ */
+class LinearDiffEngine implements DiffEngine
+{
+    private final int maxEdits;
+
+    /**
+     * Constructor.
+     *
+     * @param maximumEdits the most lines added and removed (in total) that will be diffed
+     */
+    LinearDiffEngine(int maximumEdits) {
+        maxEdits = maximumEdits;
+    }
+
+    @Override
+    public List<String> compare(List<String> theirs, List<String> ours) {
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        int[] theirIds = intern(theirs, ids);
+        int[] ourIds = intern(ours, ids);
+        int prefix = 0;
+        while ((prefix < theirIds.length) && (prefix < ourIds.length) && (theirIds[prefix] == ourIds[prefix])) {
+            prefix++;
+        }
+        if ((prefix == theirIds.length) && (prefix == ourIds.length)) {
+            return Collections.emptyList();
+        }
+        int suffix = 0;
+        while ((suffix < theirIds.length - prefix) && (suffix < ourIds.length - prefix)
+               && (theirIds[theirIds.length - 1 - suffix] == ourIds[ourIds.length - 1 - suffix])) {
+            suffix++;
+        }
+        Differ differ = new Differ(theirIds, ourIds, maxEdits);
+        if (!differ.diff(prefix, theirIds.length - suffix, prefix, ourIds.length - suffix)) {
+            return Collections.singletonList(tooDifferent(theirs, ours, prefix, suffix));
+        }
+        return describe(theirs, ours, differ.removed, differ.added);
+    }
+
+    private static int[] intern(List<String> lines, Map<String, Integer> ids) {
+        int[] interned = new int[lines.size()];
+        int i = 0;
+        for (String line : lines) {
+            Integer id = ids.get(line);
+            if (id == null) {
+                id = ids.size();
+                ids.put(line, id);
+            }
+            interned[i++] = id;
+        }
+        return interned;
+    }
+
+    private String tooDifferent(List<String> theirs, List<String> ours, int prefix, int suffix) {
+        String theirLine = (prefix < theirs.size()) ? "[" + theirs.get(prefix) + "]" : "end of output";
+        String ourLine = (prefix < ours.size()) ? "[" + ours.get(prefix) + "]" : "end of output";
+        return String.format("[TooDifferent, position: %d, more than %d lines differ between %d lines of gdalinfo output and %d of ours,"
+                             + " first difference: %s to %s]", prefix, maxEdits, theirs.size() - prefix - suffix,
+                             ours.size() - prefix - suffix, theirLine, ourLine);
+    }
+
+    // Group the removed and added lines into deltas, as difflib prints them
+    private static List<String> describe(List<String> theirs, List<String> ours, boolean[] removed, boolean[] added) {
+        List<String> differences = new ArrayList<String>();
+        int theirIndex = 0;
+        int ourIndex = 0;
+        while ((theirIndex < theirs.size()) || (ourIndex < ours.size())) {
+            if ((theirIndex < theirs.size()) && (ourIndex < ours.size()) && !removed[theirIndex] && !added[ourIndex]) {
+                theirIndex++;
+                ourIndex++;
+                continue;
+            }
+            int position = theirIndex;
+            int ourStart = ourIndex;
+            while ((theirIndex < theirs.size()) && removed[theirIndex]) {
+                theirIndex++;
+            }
+            while ((ourIndex < ours.size()) && added[ourIndex]) {
+                ourIndex++;
+            }
+            List<String> theirLines = theirs.subList(position, theirIndex);
+            List<String> ourLines = ours.subList(ourStart, ourIndex);
+            if (theirLines.isEmpty()) {
+                differences.add("[InsertDelta, position: " + position + ", lines: " + ourLines + "]");
+            } else if (ourLines.isEmpty()) {
+                differences.add("[DeleteDelta, position: " + position + ", lines: " + theirLines + "]");
+            } else {
+                differences.add("[ChangeDelta, position: " + position + ", lines: " + theirLines + " to " + ourLines + "]");
+            }
+        }
+        return differences;
+    }
+
+    /**
+     * The state of one comparison: the interned lines, the search vectors and the lines marked as removed or added.
+     */
+    private static class Differ
+    {
+        private final int[] a;
+        private final int[] b;
+        final boolean[] removed;
+        final boolean[] added;
+        private final int maxEdits;
+        private final int offset;
+        private final int[] forward;
+        private final int[] backward;
+        // Lines marked so far; every mark is made where one side of a range is empty
+        private int edits = 0;
+        // The middle snake found by the last search: where it starts and ends in a and b
+        private int snakeStartA;
+        private int snakeStartB;
+        private int snakeEndA;
+        private int snakeEndB;
+
+        Differ(int[] theirIds, int[] ourIds, int maxEdits) {
+            a = theirIds;
+            b = ourIds;
+            removed = new boolean[a.length];
+            added = new boolean[b.length];
+            this.maxEdits = maxEdits;
+            // An edit script of D edits has its middle snake at most (D + 1) / 2 edits along
+            int maxD = (int) Math.min((a.length + b.length + 1) / 2, ((long) maxEdits + 1) / 2);
+            offset = maxD + 1;
+            forward = new int[2 * maxD + 3];
+            backward = new int[2 * maxD + 3];
+        }
+
+        /**
+         * Mark the lines to remove from a[aLow, aHigh) and add from b[bLow, bHigh) to turn one into the other.
+         *
+         * @return false if the ranges are further apart than the cap allows
+         */
+        boolean diff(int aLow, int aHigh, int bLow, int bHigh) {
+            while ((aLow < aHigh) && (bLow < bHigh) && (a[aLow] == b[bLow])) {
+                aLow++;
+                bLow++;
+            }
+            while ((aLow < aHigh) && (bLow < bHigh) && (a[aHigh - 1] == b[bHigh - 1])) {
+                aHigh--;
+                bHigh--;
+            }
+            if (aLow == aHigh) {
+                for (int j = bLow; j < bHigh; ++j) {
+                    added[j] = true;
+                }
+                edits += bHigh - bLow;
+                return edits <= maxEdits;
+            }
+            if (bLow == bHigh) {
+                for (int i = aLow; i < aHigh; ++i) {
+                    removed[i] = true;
+                }
+                edits += aHigh - aLow;
+                return edits <= maxEdits;
+            }
+            if (!findMiddleSnake(aLow, aHigh, bLow, bHigh)) {
+                return false;
+            }
+            int startA = snakeStartA;
+            int startB = snakeStartB;
+            int endA = snakeEndA;
+            int endB = snakeEndB;
+            return diff(aLow, startA, bLow, startB) && diff(endA, aHigh, endB, bHigh);
+        }
+
+        /**
+         * Search forwards from the start and backwards from the end until the paths overlap, which finds a snake
+         * in the middle of a shortest edit script.
+         *
+         * Diagonal k holds the points where x - y = k, with x and y counted from aLow and bLow (forwards) or from
+         * aHigh and bHigh (backwards). Forward diagonal k is backward diagonal delta - k.
+         *
+         * @return false if the shortest edit script is longer than the cap
+         */
+        private boolean findMiddleSnake(int aLow, int aHigh, int bLow, int bHigh) {
+            int n = aHigh - aLow;
+            int m = bHigh - bLow;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            forward[offset + 1] = 0;
+            backward[offset + 1] = 0;
+            for (int d = 0; d <= (n + m + 1) / 2; ++d) {
+                // No overlap yet means at least 2d - 1 edits
+                if (2L * d - 1 > maxEdits) {
+                    return false;
+                }
+                for (int k = -d; k <= d; k += 2) {
+                    int x;
+                    if ((k == -d) || ((k != d) && (forward[offset + k - 1] < forward[offset + k + 1]))) {
+                        x = forward[offset + k + 1];
+                    } else {
+                        x = forward[offset + k - 1] + 1;
+                    }
+                    int y = x - k;
+                    int startX = x;
+                    int startY = y;
+                    while ((x < n) && (y < m) && (a[aLow + x] == b[bLow + y])) {
+                        x++;
+                        y++;
+                    }
+                    forward[offset + k] = x;
+                    if (odd && (k >= delta - (d - 1)) && (k <= delta + (d - 1)) && (x + backward[offset + delta - k] >= n)) {
+                        setSnake(aLow + startX, bLow + startY, aLow + x, bLow + y);
+                        return true;
+                    }
+                }
+                if (2L * d > maxEdits) {
+                    return false;
+                }
+                for (int k = -d; k <= d; k += 2) {
+                    int x;
+                    if ((k == -d) || ((k != d) && (backward[offset + k - 1] < backward[offset + k + 1]))) {
+                        x = backward[offset + k + 1];
+                    } else {
+                        x = backward[offset + k - 1] + 1;
+                    }
+                    int y = x - k;
+                    int startX = x;
+                    int startY = y;
+                    while ((x < n) && (y < m) && (a[aHigh - 1 - x] == b[bHigh - 1 - y])) {
+                        x++;
+                        y++;
+                    }
+                    backward[offset + k] = x;
+                    if (!odd && (k >= delta - d) && (k <= delta + d) && (x + forward[offset + delta - k] >= n)) {
+                        setSnake(aHigh - x, bHigh - y, aHigh - startX, bHigh - startY);
+                        return true;
+                    }
+                }
+            }
+            // Unreachable: the paths always meet by then
+            return false;
+        }
+
+        private void setSnake(int startA, int startB, int endA, int endB) {
+            snakeStartA = startA;
+            snakeStartB = startB;
+            snakeEndA = endA;
+            snakeEndB = endB;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.codice.nitf;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Source of the reference ("their") metadata that our output is compared against.
+ *
+ * Implementations produce gdalinfo-style output, already normalized with the gdalinfo side of the {@link LineRules}. Requests are
+ * asynchronous so the caller can parse the file itself while the oracle works. Cancelling a request must release
+ * whatever is working on it (for example by killing a hung process).
+ */
+interface MetadataOracle
+{
+    /**
+     * Start describing a file.
+     *
+     * @param filename the file to describe
+     * @return the filtered output lines, when available
+     */
+    Future<List<String>> describe(String filename);
+
+    /**
+     * Get the version of the underlying tool, so results from different versions are not mixed up.
+     *
+     * @return a description of the version, such as the output of gdalinfo --version
+     * @throws IOException if the version could not be determined
+     */
+    String getVersion() throws IOException;
+
+    /**
+     * Release any processes or threads held by the oracle.
+     */
+    void close();
+}
@@ -0,0 +1,639 @@
+package org.codice.nitf;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.codice.imaging.nitf.core.FileType;
+import org.codice.imaging.nitf.core.ImageCoordinatePair;
+import org.codice.imaging.nitf.core.ImageCoordinatesRepresentation;
+import org.codice.imaging.nitf.core.NitfFile;
+import org.codice.imaging.nitf.core.NitfImageSegment;
+import org.codice.imaging.nitf.core.RasterProductFormatUtilities;
+import org.codice.imaging.nitf.core.Tre;
+import org.codice.imaging.nitf.core.TreEntry;
+
+/**
+ * Renders our side of the comparison: the parsed NITF headers, laid out the way gdalinfo prints them.
+ *
+ * Each stage (coordinate system, base metadata, xml:TRE, image structure, subdatasets, RPCs) writes its own part of
+ * the output, and is package-private so it can be driven on its own, for example by the benchmarks.
+ */
+class MetadataRenderer
+{
+    private final String filename;
+    private final NitfFile nitf;
+    private final Writer out;
+    private final PrintStream report;
+    private final boolean subdataset;
+    private final TreIndex.FileTreIndex treIndex;
+    private NitfImageSegment imageSegment = null;
+    private TreIndex imageSegmentTres = null;
+    private final NumberFormatter numberFormatter = new NumberFormatter();
+
+    // Whole outputs are rendered into a buffer kept by each thread, and split into lines straight from it
+    private static final int MAX_RETAINED_RENDER_BUFFER = 1024 * 1024;
+    private static final ThreadLocal<StringBuilder> RENDER_BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(16 * 1024);
+        }
+    };
+
+    /**
+     * Constructor, for rendering what gdalinfo shows for the whole file.
+     *
+     * @param fileName the name of the file, as gdalinfo would print it
+     * @param nitfFile the parsed headers
+     * @param output where the rendered text is written
+     * @param reportStream where problems are reported
+     */
+    MetadataRenderer(String fileName, NitfFile nitfFile, Writer output, PrintStream reportStream) {
+        this(fileName, nitfFile, TreIndex.forFile(nitfFile), 0, output, reportStream);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fileName the name of the file
+     * @param nitfFile the parsed headers
+     * @param fileTreIndex the TREs of the parsed headers, from {@link TreIndex#forFile}
+     * @param imageSegmentNumber the image segment (starting at 1) to render as its NITF_IM subdataset, or 0 for the
+     * whole file
+     * @param output where the rendered text is written
+     * @param reportStream where problems are reported
+     */
+    MetadataRenderer(String fileName, NitfFile nitfFile, TreIndex.FileTreIndex fileTreIndex, int imageSegmentNumber,
+                     Writer output, PrintStream reportStream) {
+        filename = fileName;
+        nitf = nitfFile;
+        treIndex = fileTreIndex;
+        subdataset = (imageSegmentNumber > 0);
+        out = output;
+        report = reportStream;
+        // The whole file shows the first image segment
+        int shownSegment = subdataset ? imageSegmentNumber : 1;
+        if (nitf.getNumberOfImageSegments() >= shownSegment) {
+            imageSegment = nitf.getImageSegment(shownSegment);
+            imageSegmentTres = treIndex.getImageSegment(shownSegment);
+        }
+    }
+
+    /**
+     * Render the whole output for a file.
+     *
+     * @param fileName the name of the file, as gdalinfo would print it
+     * @param nitfFile the parsed headers
+     * @param reportStream where problems are reported
+     * @return the rendered output, one entry per line
+     * @throws IOException if the output could not be written
+     * @throws ParseException if a TRE field could not be read
+     */
+    static List<String> render(String fileName, NitfFile nitfFile, PrintStream reportStream) throws IOException, ParseException {
+        return render(fileName, nitfFile, TreIndex.forFile(nitfFile), 0, reportStream);
+    }
+
+    /**
+     * Render the whole output for a file, or for one of its image segments.
+     *
+     * @param fileName the name of the file
+     * @param nitfFile the parsed headers
+     * @param fileTreIndex the TREs of the parsed headers, from {@link TreIndex#forFile}
+     * @param imageSegmentNumber the image segment (starting at 1) to render as its NITF_IM subdataset, or 0 for the
+     * whole file
+     * @param reportStream where problems are reported
+     * @return the rendered output, one entry per line
+     * @throws IOException if the output could not be written
+     * @throws ParseException if a TRE field could not be read
+     */
+    static List<String> render(String fileName, NitfFile nitfFile, TreIndex.FileTreIndex fileTreIndex, int imageSegmentNumber,
+                               PrintStream reportStream) throws IOException, ParseException {
+        StringBuilder buffer = RENDER_BUFFER.get();
+        buffer.setLength(0);
+        try {
+            new MetadataRenderer(fileName, nitfFile, fileTreIndex, imageSegmentNumber, new StringBuilderWriter(buffer), reportStream).outputAll();
+            return textToLines(buffer);
+        } finally {
+            if (buffer.capacity() > MAX_RETAINED_RENDER_BUFFER) {
+                // A file with huge TREs should not pin that much memory to the thread for good
+                RENDER_BUFFER.remove();
+            }
+        }
+    }
+
+    /**
+     * The name gdalinfo knows an image segment by.
+     *
+     * @param fileName the name of the file
+     * @param imageSegmentNumber the image segment, starting at 1
+     * @return the subdataset name
+     */
+    static String imageSubdatasetName(String fileName, int imageSegmentNumber) {
+        return "NITF_IM:" + (imageSegmentNumber - 1) + ":" + fileName;
+    }
+
+    void outputAll() throws IOException, ParseException {
+        out.write("Driver: NITF/National Imagery Transmission Format\n");
+        if (subdataset) {
+            // A subdataset name is not a file, so GDAL has no files to list
+            out.write("Files: none associated\n");
+        } else {
+            out.write("Files: " + filename + "\n");
+        }
+        if (imageSegment == null) {
+            out.write(String.format("Size is 1, 1\n"));
+        } else {
+            out.write(String.format("Size is %d, %d\n", imageSegment.getNumberOfColumns(), imageSegment.getNumberOfRows()));
+        }
+        outputCoordinateSystem();
+
+        outputBaseMetadata();
+
+        outputTRExml();
+
+        outputImageStructure();
+
+        outputSubdatasets();
+
+        outputRPCs();
+
+        out.close();
+    }
+
+    void outputCoordinateSystem() throws IOException {
+        boolean haveRPC = (imageSegmentTres != null) && imageSegmentTres.hasRpc();
+        if (imageSegment == null) {
+            out.write("Coordinate System is `'\n");
+        } else if (imageSegment.getImageCoordinatesRepresentation() == ImageCoordinatesRepresentation.UTMUPSNORTH) {
+            out.write("Coordinate System is:\n");
+            out.write("PROJCS[\"unnamed\",\n");
+            out.write("    GEOGCS[\"WGS 84\",\n");
+            out.write("        DATUM[\"WGS_1984\",\n");
+            out.write("            SPHEROID[\"WGS 84\",6378137,298.257223563,\n");
+            out.write("                AUTHORITY[\"EPSG\",\"7030\"]],\n");
+            out.write("            TOWGS84[0,0,0,0,0,0,0],\n");
+            out.write("            AUTHORITY[\"EPSG\",\"6326\"]],\n");
+            out.write("        PRIMEM[\"Greenwich\",0,\n");
+            out.write("            AUTHORITY[\"EPSG\",\"8901\"]],\n");
+            out.write("        UNIT[\"degree\",0.0174532925199433,\n");
+            out.write("            AUTHORITY[\"EPSG\",\"9108\"]],\n");
+            out.write("        AUTHORITY[\"EPSG\",\"4326\"]],\n");
+            out.write("    PROJECTION[\"Transverse_Mercator\"],\n");
+            out.write("    PARAMETER[\"latitude_of_origin\",-0],\n");
+            out.write("    PARAMETER[\"central_meridian\",33],\n");
+            out.write("    PARAMETER[\"scale_factor\",0.9996],\n");
+            out.write("    PARAMETER[\"false_easting\",500000],\n");
+            out.write("    PARAMETER[\"false_northing\",0]]\n");
+        } else if (haveRPC || (imageSegment.getImageCoordinatesRepresentation() == ImageCoordinatesRepresentation.NONE)) {
+            out.write("Coordinate System is `'\n");
+        } else {
+            out.write("Coordinate System is:\n");
+            out.write("GEOGCS[\"WGS 84\",\n");
+            out.write("    DATUM[\"WGS_1984\",\n");
+            out.write("        SPHEROID[\"WGS 84\",6378137,298.257223563,\n");
+            out.write("            AUTHORITY[\"EPSG\",\"7030\"]],\n");
+            out.write("        TOWGS84[0,0,0,0,0,0,0],\n");
+            out.write("        AUTHORITY[\"EPSG\",\"6326\"]],\n");
+            out.write("    PRIMEM[\"Greenwich\",0,\n");
+            out.write("        AUTHORITY[\"EPSG\",\"8901\"]],\n");
+            out.write("    UNIT[\"degree\",0.0174532925199433,\n");
+            out.write("        AUTHORITY[\"EPSG\",\"9108\"]],\n");
+            out.write("    AUTHORITY[\"EPSG\",\"4326\"]]\n");
+        }
+    }
+
+    void outputBaseMetadata() throws IOException, ParseException {
+        TreeMap <String, String> metadata = new TreeMap<String, String>();
+
+        addCommonFileLevelMetadata(metadata);
+
+        switch (nitf.getFileType()) {
+            case NSIF_ONE_ZERO:
+                metadata.put("NITF_FHDR", "NSIF01.00");
+                break;
+            case NITF_TWO_ZERO:
+                metadata.put("NITF_FHDR", "NITF02.00");
+                break;
+            case NITF_TWO_ONE:
+                metadata.put("NITF_FHDR", "NITF02.10");
+                break;
+        }
+        if (nitf.getFileType() == FileType.NITF_TWO_ZERO) {
+            addNITF20FileLevelMetadata(metadata);
+        } else {
+            addNITF21FileLevelMetadata(metadata);
+        }
+
+        addOldStyleMetadata(metadata, treIndex.getFileHeader());
+        if (imageSegment != null) {
+            addImageSegmentMetadata(metadata);
+        }
+        out.write("Metadata:\n");
+        for (String key : metadata.keySet()) {
+            out.write(String.format("  %s=%s\n", key, metadata.get(key)));
+        }
+    }
+
+    private void addCommonFileLevelMetadata(TreeMap <String, String> metadata) throws IOException {
+        metadata.put("NITF_CLEVEL", String.format("%02d", nitf.getComplexityLevel()));
+        metadata.put("NITF_ENCRYP", "0");
+        metadata.put("NITF_FDT", nitf.getFileDateTime().getSourceString());
+        metadata.put("NITF_FSCAUT", nitf.getFileSecurityMetadata().getClassificationAuthority());
+        metadata.put("NITF_FSCLAS", nitf.getFileSecurityMetadata().getSecurityClassification().getTextEquivalent());
+        metadata.put("NITF_FSCODE", nitf.getFileSecurityMetadata().getCodewords());
+        metadata.put("NITF_FSCTLH", nitf.getFileSecurityMetadata().getControlAndHandling());
+        metadata.put("NITF_FSCTLN", nitf.getFileSecurityMetadata().getSecurityControlNumber());
+        metadata.put("NITF_FSREL", nitf.getFileSecurityMetadata().getReleaseInstructions());
+        metadata.put("NITF_FSCOP", nitf.getFileSecurityMetadata().getFileCopyNumber());
+        metadata.put("NITF_FSCPYS", nitf.getFileSecurityMetadata().getFileNumberOfCopies());
+        metadata.put("NITF_FTITLE", nitf.getFileTitle());
+        metadata.put("NITF_ONAME", nitf.getOriginatorsName());
+        metadata.put("NITF_OPHONE", nitf.getOriginatorsPhoneNumber());
+        metadata.put("NITF_OSTAID", nitf.getOriginatingStationId());
+        metadata.put("NITF_STYPE", nitf.getStandardType());
+    }
+
+    private void addNITF20FileLevelMetadata(TreeMap <String, String> metadata) throws IOException {
+        metadata.put("NITF_FSDWNG", nitf.getFileSecurityMetadata().getDowngradeDateOrSpecialCase().trim());
+        if (nitf.getFileSecurityMetadata().getDowngradeEvent() != null) {
+            metadata.put("NITF_FSDEVT", nitf.getFileSecurityMetadata().getDowngradeEvent());
+        }
+    }
+
+    private void addNITF21FileLevelMetadata(TreeMap <String, String> metadata) throws IOException {
+        metadata.put("NITF_FBKGC", (String.format("%3d,%3d,%3d",
+                    (int)(nitf.getFileBackgroundColour().getRed() & 0xFF),
+                    (int)(nitf.getFileBackgroundColour().getGreen() & 0xFF),
+                    (int)(nitf.getFileBackgroundColour().getBlue() & 0xFF))));
+        metadata.put("NITF_FSCATP", nitf.getFileSecurityMetadata().getClassificationAuthorityType());
+        metadata.put("NITF_FSCLSY", nitf.getFileSecurityMetadata().getSecurityClassificationSystem());
+        metadata.put("NITF_FSCLTX", nitf.getFileSecurityMetadata().getClassificationText());
+        metadata.put("NITF_FSCRSN", nitf.getFileSecurityMetadata().getClassificationReason());
+        metadata.put("NITF_FSDCDT", nitf.getFileSecurityMetadata().getDeclassificationDate());
+        metadata.put("NITF_FSDCTP", nitf.getFileSecurityMetadata().getDeclassificationType());
+        if (nitf.getFileSecurityMetadata().getDeclassificationExemption().length() > 0) {
+            metadata.put("NITF_FSDCXM", String.format("%4s", nitf.getFileSecurityMetadata().getDeclassificationExemption()));
+        } else {
+            metadata.put("NITF_FSDCXM", "");
+        }
+        metadata.put("NITF_FSDG", nitf.getFileSecurityMetadata().getDowngrade());
+        metadata.put("NITF_FSDGDT", nitf.getFileSecurityMetadata().getDowngradeDate());
+        metadata.put("NITF_FSSRDT", nitf.getFileSecurityMetadata().getSecuritySourceDate());
+    }
+
+    private void addImageSegmentMetadata(TreeMap <String, String> metadata) throws IOException, ParseException {
+
+        addCommonImageSegmentMetadata(metadata);
+
+        if (nitf.getFileType() == FileType.NITF_TWO_ZERO) {
+            addNITF20ImageSegmentMetadata(metadata);
+        } else {
+            addNITF21ImageSegmentMetadata(metadata);
+        }
+        addRpfNamesMetadata(metadata);
+
+        addOldStyleMetadata(metadata, imageSegmentTres);
+    }
+
+    private void addNITF20ImageSegmentMetadata(TreeMap <String, String> metadata) throws IOException {
+        metadata.put("NITF_ICORDS", imageSegment.getImageCoordinatesRepresentation().getTextEquivalent(nitf.getFileType()));
+        metadata.put("NITF_ITITLE", imageSegment.getImageIdentifier2());
+        metadata.put("NITF_ISDWNG", imageSegment.getSecurityMetadata().getDowngradeDateOrSpecialCase().trim());
+        if (imageSegment.getSecurityMetadata().getDowngradeEvent() != null) {
+            metadata.put("NITF_ISDEVT", imageSegment.getSecurityMetadata().getDowngradeEvent());
+        }
+    }
+
+    private void addNITF21ImageSegmentMetadata(TreeMap <String, String> metadata) throws IOException {
+        if (imageSegment.getImageCoordinatesRepresentation() == ImageCoordinatesRepresentation.NONE) {
+            metadata.put("NITF_ICORDS", "");
+        } else {
+            metadata.put("NITF_ICORDS", imageSegment.getImageCoordinatesRepresentation().getTextEquivalent(nitf.getFileType()));
+        }
+        metadata.put("NITF_IID2", imageSegment.getImageIdentifier2());
+        metadata.put("NITF_ISCATP", imageSegment.getSecurityMetadata().getClassificationAuthorityType());
+        metadata.put("NITF_ISCLSY", imageSegment.getSecurityMetadata().getSecurityClassificationSystem());
+        metadata.put("NITF_ISCLTX", imageSegment.getSecurityMetadata().getClassificationText());
+        metadata.put("NITF_ISDCDT", imageSegment.getSecurityMetadata().getDeclassificationDate());
+        metadata.put("NITF_ISDCTP", imageSegment.getSecurityMetadata().getDeclassificationType());
+        metadata.put("NITF_ISCRSN", imageSegment.getSecurityMetadata().getClassificationReason());
+        if ((imageSegment.getSecurityMetadata().getDeclassificationExemption() != null)
+            && (imageSegment.getSecurityMetadata().getDeclassificationExemption().length() > 0)) {
+            metadata.put("NITF_ISDCXM", String.format("%4s", imageSegment.getSecurityMetadata().getDeclassificationExemption()));
+        } else {
+            metadata.put("NITF_ISDCXM", "");
+        }
+        metadata.put("NITF_ISDG", imageSegment.getSecurityMetadata().getDowngrade());
+        metadata.put("NITF_ISDGDT", imageSegment.getSecurityMetadata().getDowngradeDate());
+        metadata.put("NITF_ISSRDT", imageSegment.getSecurityMetadata().getSecuritySourceDate());
+    }
+
+    private void addCommonImageSegmentMetadata(TreeMap <String, String> metadata) throws IOException {
+        metadata.put("NITF_ABPP", String.format("%02d", imageSegment.getActualBitsPerPixelPerBand()));
+        metadata.put("NITF_CCS_COLUMN", String.format("%d", imageSegment.getImageLocationColumn()));
+        metadata.put("NITF_CCS_ROW", String.format("%d", imageSegment.getImageLocationRow()));
+        metadata.put("NITF_IALVL", String.format("%d", imageSegment.getAttachmentLevel()));
+        metadata.put("NITF_IC", imageSegment.getImageCompression().getTextEquivalent());
+        metadata.put("NITF_ICAT", imageSegment.getImageCategory().getTextEquivalent());
+        String idatim = rightTrimToLetterOrDigit(imageSegment.getImageDateTime().getSourceString());
+        if (idatim.length() > 0) {
+            metadata.put("NITF_IDATIM", idatim);
+        } else {
+            metadata.put("NITF_IDATIM", " ");
+        }
+        metadata.put("NITF_IDLVL", String.format("%d", imageSegment.getImageDisplayLevel()));
+        if (imageSegment.getImageCoordinatesRepresentation() != ImageCoordinatesRepresentation.NONE) {
+            metadata.put("NITF_IGEOLO", String.format("%s%s%s%s",
+                                                    imageSegment.getImageCoordinates().getCoordinate00().getSourceFormat(),
+                                                    imageSegment.getImageCoordinates().getCoordinate0MaxCol().getSourceFormat(),
+                                                    imageSegment.getImageCoordinates().getCoordinateMaxRowMaxCol().getSourceFormat(),
+                                                    imageSegment.getImageCoordinates().getCoordinateMaxRow0().getSourceFormat()));
+        }
+        metadata.put("NITF_IID1", imageSegment.getIdentifier());
+        metadata.put("NITF_ILOC_COLUMN", String.format("%d", imageSegment.getImageLocationColumn()));
+        metadata.put("NITF_ILOC_ROW", String.format("%d", imageSegment.getImageLocationRow()));
+        metadata.put("NITF_IMAG", imageSegment.getImageMagnification());
+        metadata.put("NITF_IMODE", imageSegment.getImageMode().getTextEquivalent());
+        metadata.put("NITF_IREP", imageSegment.getImageRepresentation().getTextEquivalent());
+        metadata.put("NITF_ISCAUT", imageSegment.getSecurityMetadata().getClassificationAuthority());
+        metadata.put("NITF_ISCLAS", imageSegment.getSecurityMetadata().getSecurityClassification().getTextEquivalent());
+        metadata.put("NITF_ISCODE", imageSegment.getSecurityMetadata().getCodewords());
+        metadata.put("NITF_ISCTLH", imageSegment.getSecurityMetadata().getControlAndHandling());
+        metadata.put("NITF_ISCTLN", imageSegment.getSecurityMetadata().getSecurityControlNumber());
+        if (imageSegment.getNumberOfImageComments() > 0) {
+            StringBuilder commentBuilder = new StringBuilder();
+            for (int i = 0; i < imageSegment.getNumberOfImageComments(); ++i) {
+                commentBuilder.append(String.format("%-80s", imageSegment.getImageCommentZeroBase(i)));
+            }
+            metadata.put("NITF_IMAGE_COMMENTS", commentBuilder.toString());
+        }
+        metadata.put("NITF_ISORCE", imageSegment.getImageSource());
+        metadata.put("NITF_ISREL", imageSegment.getSecurityMetadata().getReleaseInstructions());
+        metadata.put("NITF_PJUST", imageSegment.getPixelJustification().getTextEquivalent());
+        metadata.put("NITF_PVTYPE", imageSegment.getPixelValueType().getTextEquivalent());
+        if (imageSegment.getImageTargetId().toString().length() > 0) {
+            metadata.put("NITF_TGTID", rightTrim(imageSegment.getImageTargetId().toString()));
+        } else {
+            metadata.put("NITF_TGTID", "");
+        }
+    }
+
+    private void addRpfNamesMetadata(TreeMap <String, String> metadata) throws IOException, ParseException {
+        if (filename.toLowerCase().endsWith(".ntf")) {
+            // GDAL does this off the filename, not off the IID2, so it won't show these for "plain" NITF files
+            return;
+        }
+        RasterProductFormatUtilities rpfUtils = new RasterProductFormatUtilities();
+
+        String rpfAbbreviation = rpfUtils.getAbbreviationForFileName(imageSegment.getImageIdentifier2());
+        if (rpfAbbreviation != null) {
+            metadata.put("NITF_SERIES_ABBREVIATION", rpfAbbreviation);
+        }
+        String rpfName = rpfUtils.getNameForFileName(imageSegment.getImageIdentifier2());
+        if (rpfName != null) {
+            metadata.put("NITF_SERIES_NAME", rpfName);
+        }
+    }
+
+    void outputImageStructure() throws IOException {
+        if (imageSegment != null) {
+            switch (imageSegment.getImageCompression()) {
+                case JPEG:
+                case JPEGMASK:
+                    out.write("Image Structure Metadata:\n");
+                    out.write("  COMPRESSION=JPEG\n");
+                    break;
+                case BILEVEL:
+                case BILEVELMASK:
+                case DOWNSAMPLEDJPEG:
+                    out.write("Image Structure Metadata:\n");
+                    out.write("  COMPRESSION=BILEVEL\n");
+                    break;
+                case LOSSLESSJPEG:
+                    out.write("Image Structure Metadata:\n");
+                    out.write("  COMPRESSION=LOSSLESS JPEG\n");
+                    break;
+                case JPEG2000:
+                case JPEG2000MASK:
+                    out.write("Image Structure Metadata:\n");
+                    out.write("  COMPRESSION=JPEG2000\n");
+                    break;
+                case VECTORQUANTIZATION:
+                case VECTORQUANTIZATIONMASK:
+                    out.write("Image Structure Metadata:\n");
+                    out.write("  COMPRESSION=VECTOR QUANTIZATION\n");
+                    break;
+            }
+        }
+    }
+
+    void outputSubdatasets() throws IOException {
+        if (!subdataset && (nitf.getNumberOfImageSegments() > 1)) {
+            out.write("Subdatasets:\n");
+            for (int i = 0; i < nitf.getNumberOfImageSegments(); ++i) {
+                out.write(String.format("  SUBDATASET_%d_NAME=%s\n", i+1, imageSubdatasetName(filename, i + 1)));
+                out.write(String.format("  SUBDATASET_%d_DESC=Image %d of %s\n", i+1, i+1, filename));
+            }
+        }
+    }
+
+    void outputTRExml() throws IOException {
+        if (shouldOutputTREs()) {
+            out.write("Metadata (xml:TRE):\n");
+            out.write("<tres>\n");
+            TreXmlWriter xml = new TreXmlWriter(out);
+            outputTresForSegment(xml, treIndex.getFileHeader(), "file");
+            if (imageSegmentTres != null) {
+                outputTresForSegment(xml, imageSegmentTres, "image");
+            }
+            for (TreIndex des : treIndex.getDataExtensionSegments()) {
+                outputTresForSegment(xml, des, "des TRE_OVERFLOW");
+            }
+            xml.flush();
+            out.write("</tres>\n\n");
+        }
+    }
+
+    private boolean shouldOutputTREs() {
+        if (treIndex.getFileHeader().hasParsedTresOtherThanRpf()) {
+            return true;
+        }
+        if ((imageSegmentTres != null) && imageSegmentTres.hasParsedTresOtherThanRpf()) {
+            return true;
+        }
+        for (TreIndex des : treIndex.getDataExtensionSegments()) {
+            if (des.hasParsedTresOtherThanRpf()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void outputTresForSegment(TreXmlWriter xml, TreIndex segmentTres, String label) throws IOException {
+        // Only the TREs we parsed; the rest were not recognised
+        for (Tre tre : segmentTres.getParsedTres()) {
+            xml.writeTre(tre, label);
+        }
+    }
+
+    void outputRPCs() throws IOException {
+        TreeMap <String, String> rpc = new TreeMap<String, String>();
+        if (imageSegmentTres != null) {
+            for (Tre tre : imageSegmentTres.getRpcTres()) {
+                for (TreEntry entry : tre.getEntries()) {
+                    if (entry.getName().equals("SUCCESS")) {
+                        continue;
+                    }
+                    if (entry.getName().equals("ERR_BIAS") || entry.getName().equals("ERR_RAND")) {
+                        continue;
+                    }
+                    if (entry.getName().equals("LONG_OFF") || entry.getName().equals("LONG_SCALE") || entry.getName().equals("LAT_OFF") || entry.getName().equals("LAT_SCALE")) {
+                        // GDAL's formatting of these is its own, so we compare the bounds derived from them instead
+                        continue;
+                    }
+                    if (entry.getFieldValue() != null) {
+                        rpc.put(entry.getName(), formatRpcValue(entry.getFieldValue()));
+                    }
+                    // The coefficient groups are too sensitive to number formatting issues, and we're already
+                    // checking the values in the real TRE, so they are not formatted at all.
+                }
+                try {
+                    double longOff = Double.parseDouble(tre.getFieldValue("LONG_OFF"));
+                    double longScale = Double.parseDouble(tre.getFieldValue("LONG_SCALE"));
+                    double longMin = longOff - (longScale / 2.0);
+                    double longMax = longOff + (longScale / 2.0);
+                    rpc.put("MAX_LONG", numberFormatter.format(longMax));
+                    rpc.put("MIN_LONG", numberFormatter.format(longMin));
+                    double latOff = Double.parseDouble(tre.getFieldValue("LAT_OFF"));
+                    double latScale = Double.parseDouble(tre.getFieldValue("LAT_SCALE"));
+                    double latMin = latOff - (latScale / 2.0);
+                    double latMax = latOff + (latScale / 2.0);
+                    rpc.put("MAX_LAT", numberFormatter.format(latMax));
+                    rpc.put("MIN_LAT", numberFormatter.format(latMin));
+                } catch (ParseException e) {
+                    e.printStackTrace(report);
+                }
+            }
+        }
+        if (rpc.keySet().size() > 0) {
+            out.write("RPC Metadata:\n");
+            for (String tagname : rpc.keySet()) {
+                out.write(String.format("  %s=%s\n", tagname, rpc.get(tagname)));
+            }
+        }
+    }
+
+    private void addOldStyleMetadata(TreeMap <String, String> metadata, TreIndex segmentTres) {
+        for (Tre tre : segmentTres.getOldStyleTres()) {
+            if (tre.getPrefix() != null) {
+                // if it has a prefix, its probably an old-style NITF metadata field
+                List<TreEntry> entries = tre.getEntries();
+                for (TreEntry entry: entries) {
+                    metadata.put(tre.getPrefix() + entry.getName(), rightTrim(entry.getFieldValue()));
+                }
+            } else if ("ICHIPB".equals(tre.getName())) {
+                outputICHIPmetadata(metadata, tre);
+            }
+        }
+    }
+
+    private void outputICHIPmetadata(TreeMap <String, String> metadata, Tre tre) {
+        List<TreEntry> entries = tre.getEntries();
+        for (TreEntry entry: entries) {
+            // GDAL's renames and omissions for these are in the line rules
+            BigDecimal value = new BigDecimal(entry.getFieldValue().trim()).stripTrailingZeros();
+            metadata.put("ICHIP_" + entry.getName(), value.toPlainString());
+        }
+    }
+
+    // Integer fields lose their leading zeros, like GDAL prints them; anything else is just trimmed.
+    private static String formatRpcValue(String fieldValue) {
+        try {
+            return Integer.toString(Integer.parseInt(fieldValue));
+        } catch (NumberFormatException e) {
+            return fieldValue.trim();
+        }
+    }
+
+    private static String rightTrim(final String s) {
+        int i = s.length() - 1;
+        while ((i >= 0) && Character.isWhitespace(s.charAt(i))) {
+            i--;
+        }
+        return s.substring(0, i + 1);
+    }
+
+    private static String rightTrimToLetterOrDigit(final String s) {
+        int i = s.length() - 1;
+        while ((i >= 0) && !Character.isLetterOrDigit(s.charAt(i))) {
+            i--;
+        }
+        return s.substring(0, i + 1);
+    }
+
+    // This is ugly - feel free to fix it any time.
+    private static String makeGeoString(ImageCoordinatePair coords) {
+        double latitude = coords.getLatitude();
+        double longitude = coords.getLongitude();
+
+        String northSouth = "N";
+        if (latitude < 0.0) {
+            northSouth = "S";
+            latitude = Math.abs(latitude);
+        }
+        String eastWest = "E";
+        if (longitude < 0.0) {
+            eastWest = "W";
+            longitude = Math.abs(longitude);
+        }
+
+        int latDegrees = (int)Math.floor(latitude);
+        double minutesAndSecondsPart = (latitude -latDegrees) * 60;
+        int latMinutes = (int)Math.floor(minutesAndSecondsPart);
+        double secondsPart = (minutesAndSecondsPart - latMinutes) * 60;
+        int latSeconds = (int)Math.round(secondsPart);
+        if (latSeconds == 60) {
+            latMinutes++;
+            latSeconds = 0;
+        }
+        if (latMinutes == 60) {
+            latDegrees++;
+            latMinutes = 0;
+        }
+        int lonDegrees = (int)Math.floor(longitude);
+        minutesAndSecondsPart = (longitude - lonDegrees) * 60;
+        int lonMinutes = (int)Math.floor(minutesAndSecondsPart);
+        secondsPart = (minutesAndSecondsPart - lonMinutes) * 60;
+        int lonSeconds = (int)Math.round(secondsPart);
+        if (lonSeconds == 60) {
+            lonMinutes++;
+            lonSeconds = 0;
+        }
+        if (lonMinutes == 60) {
+            lonDegrees++;
+            lonMinutes = 0;
+        }
+        return String.format("%02d%02d%02d%s%03d%02d%02d%s", latDegrees, latMinutes, latSeconds, northSouth, lonDegrees, lonMinutes, lonSeconds, eastWest);
+    }
+
+    static List<String> textToLines(CharSequence text) {
+        List<String> lines = new ArrayList<String>();
+        int lineStart = 0;
+        int length = text.length();
+        for (int i = 0; i < length; ++i) {
+            if (text.charAt(i) == '\n') {
+                lines.add(text.subSequence(lineStart, i).toString());
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < length) {
+            lines.add(text.subSequence(lineStart, length).toString());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,191 @@
+package org.codice.nitf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Cheap check of whether a file looks like a NITF file, before we spend a gdalinfo run and a header parse on it.
+ *
+ * Only the start of the file is read: the FHDR/FVER magic (NITF02.00, NITF02.10 or NSIF01.00), plus the file length
+ * (FL) and header length (HL) fields, which must be numeric and consistent with each other and with the size of the
+ * file. In all three versions FL and HL sit at offsets 342 and 354, except that a NITF 2.0 header with a downgrade
+ * event (FSDWNG of 999998) has 40 more bytes before them.
+ */
+class NitfSniffer
+{
+    /**
+     * What the sniffer made of a file.
+     */
+    enum Kind
+    {
+        /** Looks like a NITF (or NSIF) file. */
+        NITF,
+        /** Not a NITF file at all. */
+        NOT_NITF,
+        /** Starts like a NITF file, but is shorter than its header says. */
+        TRUNCATED
+    }
+
+    /**
+     * The sniffer's verdict on a file, with the reason for rejecting it.
+     */
+    static class Result
+    {
+        final Kind kind;
+        final String reason;
+        // The file length (FL) of an accepted file, or -1 if the header says the length is not known
+        final long fileLength;
+
+        Result(Kind kind, String reason) {
+            this(kind, reason, -1);
+        }
+
+        Result(Kind kind, String reason, long fileLength) {
+            this.kind = kind;
+            this.reason = reason;
+            this.fileLength = fileLength;
+        }
+    }
+
+    private static final int MAGIC_LENGTH = 9;
+    static final int FSDWNG_OFFSET = 280;
+    static final int FSDWNG_LENGTH = 6;
+    private static final String FSDWNG_DOWNGRADE_EVENT = "999998";
+    private static final int FSDEVT_LENGTH = 40;
+    private static final int FL_OFFSET = 342;
+    private static final int FL_LENGTH = 12;
+    private static final int HL_LENGTH = 6;
+    // Written as FL when the length of a file was not known as it was written
+    private static final long UNKNOWN_FILE_LENGTH = 999999999999L;
+    private static final int SNIFF_LENGTH = FL_OFFSET + FSDEVT_LENGTH + FL_LENGTH + HL_LENGTH;
+
+    private NitfSniffer() {
+    }
+
+    /**
+     * Sniff a file.
+     *
+     * @param path the file
+     * @return whether it looks like a NITF file, and why not if it does not
+     * @throws IOException if the file could not be read
+     */
+    static Result sniff(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SNIFF_LENGTH);
+        long fileSize;
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            fileSize = channel.size();
+            while (buffer.hasRemaining() && (channel.read(buffer) != -1)) {
+                // Keep reading until we have the header fields or run out of file
+            }
+        } finally {
+            channel.close();
+        }
+        return check(buffer.array(), buffer.position(), fileSize);
+    }
+
+    /**
+     * Sniff data from a stream, such as an archive member.
+     *
+     * @param input the data, positioned at its start
+     * @param size the size of the whole data
+     * @return whether it looks like a NITF file, and why not if it does not
+     * @throws IOException if the data could not be read
+     */
+    static Result sniff(InputStream input, long size) throws IOException {
+        byte[] header = new byte[SNIFF_LENGTH];
+        int length = 0;
+        int count;
+        while ((length < header.length) && ((count = input.read(header, length, header.length - length)) != -1)) {
+            length += count;
+        }
+        return check(header, length, size);
+    }
+
+    /**
+     * Check the start of a file.
+     *
+     * @param header the first bytes of the file
+     * @param length how many bytes of header are valid
+     * @param fileSize the size of the whole file
+     * @return whether it looks like a NITF file, and why not if it does not
+     */
+    static Result check(byte[] header, int length, long fileSize) {
+        if (length < MAGIC_LENGTH) {
+            return new Result(Kind.NOT_NITF, (fileSize == 0) ? "empty file" : "too short for a NITF header");
+        }
+        String magic = new String(header, 0, MAGIC_LENGTH, StandardCharsets.US_ASCII);
+        int flOffset = FL_OFFSET;
+        if (magic.equals("NITF02.00")) {
+            if (length < FSDWNG_OFFSET + FSDWNG_LENGTH) {
+                return new Result(Kind.TRUNCATED, "file ends inside the NITF header");
+            }
+            if (FSDWNG_DOWNGRADE_EVENT.equals(new String(header, FSDWNG_OFFSET, FSDWNG_LENGTH, StandardCharsets.US_ASCII))) {
+                flOffset += FSDEVT_LENGTH;
+            }
+        } else if (!magic.equals("NITF02.10") && !magic.equals("NSIF01.00")) {
+            return new Result(Kind.NOT_NITF, "no NITF or NSIF magic");
+        }
+        if (length < flOffset + FL_LENGTH + HL_LENGTH) {
+            return new Result(Kind.TRUNCATED, "file ends inside the NITF header");
+        }
+        long fileLength = parseNumber(header, flOffset, FL_LENGTH);
+        long headerLength = parseNumber(header, flOffset + FL_LENGTH, HL_LENGTH);
+        if ((fileLength < 0) || (headerLength < 0)) {
+            return new Result(Kind.NOT_NITF, "file or header length is not a number");
+        }
+        if ((headerLength < flOffset + FL_LENGTH + HL_LENGTH) || ((fileLength != UNKNOWN_FILE_LENGTH) && (headerLength > fileLength))) {
+            return new Result(Kind.NOT_NITF, "header length " + headerLength + " does not fit the file length " + fileLength);
+        }
+        if (fileSize < headerLength) {
+            return new Result(Kind.TRUNCATED, "file is " + fileSize + " bytes, header length is " + headerLength);
+        }
+        if ((fileLength != UNKNOWN_FILE_LENGTH) && (fileSize < fileLength)) {
+            return new Result(Kind.TRUNCATED, "file is " + fileSize + " bytes, file length field says " + fileLength);
+        }
+        return new Result(Kind.NITF, null, (fileLength == UNKNOWN_FILE_LENGTH) ? -1 : fileLength);
+    }
+
+    /**
+     * Find the file length (FL) field in the start of a file. The header length (HL) follows it, and then the counts
+     * and lengths of the segments.
+     *
+     * @param header the first bytes of the file
+     * @param length how many bytes of header are valid
+     * @return the offset of FL, or -1 if the file is not NITF 2.0, NITF 2.1 or NSIF 1.0, or too short to tell
+     */
+    static int fileLengthOffset(byte[] header, int length) {
+        if (length < MAGIC_LENGTH) {
+            return -1;
+        }
+        String magic = new String(header, 0, MAGIC_LENGTH, StandardCharsets.US_ASCII);
+        if (magic.equals("NITF02.10") || magic.equals("NSIF01.00")) {
+            return FL_OFFSET;
+        }
+        if (!magic.equals("NITF02.00") || (length < FSDWNG_OFFSET + FSDWNG_LENGTH)) {
+            return -1;
+        }
+        if (FSDWNG_DOWNGRADE_EVENT.equals(new String(header, FSDWNG_OFFSET, FSDWNG_LENGTH, StandardCharsets.US_ASCII))) {
+            return FL_OFFSET + FSDEVT_LENGTH;
+        }
+        return FL_OFFSET;
+    }
+
+    // Returns -1 unless the field is all digits
+    private static long parseNumber(byte[] header, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            int digit = header[i] - '0';
+            if ((digit < 0) || (digit > 9)) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,201 @@
+package org.codice.nitf;
+
+/**
+ * Formats numbers for the RPC metadata the way gdalinfo prints them.
+ *
+ * This produces exactly what formatting with "%.12g" and then trimming used to: integral values print as integers;
+ * other values are rounded (half up) to 12 significant digits, using the shortest decimal digits that identify the
+ * double, and print in fixed notation if the rounded exponent is between -4 and 11, and in scientific notation
+ * otherwise. Trailing zeros (and a trailing decimal point) are trimmed from fixed notation and from negative exponent
+ * mantissas. The old trim also removed trailing zeros from positive exponents (so 1.5e20 became "1.50000000000e+2"),
+ * and that is kept too, so results stay comparable.
+ *
+ * No Formatter or regular expression is involved, and the output is appended to a caller supplied buffer. Instances
+ * keep scratch space, so they are not thread-safe.
+ */
+class NumberFormatter
+{
+    private static final int SIGNIFICANT_DIGITS = 12;
+
+    private final StringBuilder scratch = new StringBuilder(32);
+    // One more than we keep, for rounding
+    private final char[] digits = new char[SIGNIFICANT_DIGITS + 1];
+    private int scratchDigitCount = 0;
+
+    /**
+     * Format a value as a new string.
+     *
+     * @param value the value to format
+     * @return the formatted value
+     */
+    String format(double value) {
+        StringBuilder builder = new StringBuilder(24);
+        format(value, builder);
+        return builder.toString();
+    }
+
+    /**
+     * Append a formatted value.
+     *
+     * @param value the value to format
+     * @param out where the formatted value is appended
+     */
+    void format(double value, StringBuilder out) {
+        if (value == (int) value) {
+            out.append((int) value);
+            return;
+        }
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append(value);
+            return;
+        }
+        if (value < 0) {
+            out.append('-');
+        }
+        int exponent = collectDigits(Math.abs(value));
+        int numberOfDigits = Math.min(scratchDigitCount, SIGNIFICANT_DIGITS);
+        if ((scratchDigitCount > SIGNIFICANT_DIGITS) && (digits[SIGNIFICANT_DIGITS] >= '5')) {
+            if (roundUp(numberOfDigits)) {
+                exponent++;
+            }
+        }
+        for (int i = numberOfDigits; i < SIGNIFICANT_DIGITS; ++i) {
+            digits[i] = '0';
+        }
+        if ((exponent < -4) || (exponent >= SIGNIFICANT_DIGITS)) {
+            appendScientific(exponent, out);
+        } else {
+            appendFixed(exponent, out);
+        }
+    }
+
+    /**
+     * Collect the significant decimal digits of a positive, finite value.
+     *
+     * @param value the value
+     * @return the decimal exponent of the first significant digit
+     */
+    private int collectDigits(double value) {
+        scratch.setLength(0);
+        scratch.append(value);
+        int length = scratch.length();
+        int end = length;
+        int exponent = 0;
+        for (int i = 0; i < length; ++i) {
+            if (scratch.charAt(i) == 'E') {
+                end = i;
+                exponent = parseExponent(i + 1, length);
+                break;
+            }
+        }
+        int point = end;
+        for (int i = 0; i < end; ++i) {
+            if (scratch.charAt(i) == '.') {
+                point = i;
+                break;
+            }
+        }
+        scratchDigitCount = 0;
+        int firstDigitExponent = 0;
+        for (int i = 0; i < end; ++i) {
+            char c = scratch.charAt(i);
+            if ((c == '.') || ((c == '0') && (scratchDigitCount == 0))) {
+                continue;
+            }
+            if (scratchDigitCount == 0) {
+                firstDigitExponent = (i < point) ? (point - i - 1) : (point - i);
+            }
+            if (scratchDigitCount < digits.length) {
+                digits[scratchDigitCount] = c;
+            }
+            scratchDigitCount++;
+        }
+        return firstDigitExponent + exponent;
+    }
+
+    private int parseExponent(int start, int end) {
+        boolean negative = false;
+        int exponent = 0;
+        for (int i = start; i < end; ++i) {
+            char c = scratch.charAt(i);
+            if (c == '-') {
+                negative = true;
+            } else {
+                exponent = exponent * 10 + (c - '0');
+            }
+        }
+        return negative ? -exponent : exponent;
+    }
+
+    /**
+     * Add one to the last kept digit.
+     *
+     * @param numberOfDigits the number of digits kept
+     * @return true if the carry ran off the front, so the value is now a power of ten one larger
+     */
+    private boolean roundUp(int numberOfDigits) {
+        for (int i = numberOfDigits - 1; i >= 0; --i) {
+            if (digits[i] != '9') {
+                digits[i]++;
+                return false;
+            }
+            digits[i] = '0';
+        }
+        digits[0] = '1';
+        return true;
+    }
+
+    private int significantDigitsWithoutTrailingZeros() {
+        int count = SIGNIFICANT_DIGITS;
+        while ((count > 1) && (digits[count - 1] == '0')) {
+            count--;
+        }
+        return count;
+    }
+
+    private void appendFixed(int exponent, StringBuilder out) {
+        int count = significantDigitsWithoutTrailingZeros();
+        if (exponent < 0) {
+            out.append("0.");
+            for (int i = exponent + 1; i < 0; ++i) {
+                out.append('0');
+            }
+            out.append(digits, 0, count);
+            return;
+        }
+        out.append(digits, 0, exponent + 1);
+        if (count > exponent + 1) {
+            out.append('.');
+            out.append(digits, exponent + 1, count - exponent - 1);
+        }
+    }
+
+    private void appendScientific(int exponent, StringBuilder out) {
+        out.append(digits[0]);
+        if (exponent < 0) {
+            int count = significantDigitsWithoutTrailingZeros();
+            if (count > 1) {
+                out.append('.');
+                out.append(digits, 1, count - 1);
+            }
+            out.append("e-");
+        } else {
+            out.append('.');
+            out.append(digits, 1, SIGNIFICANT_DIGITS - 1);
+            out.append("e+");
+        }
+        int magnitude = Math.abs(exponent);
+        if (magnitude < 10) {
+            out.append('0');
+        }
+        if (exponent < 0) {
+            out.append(magnitude);
+        } else {
+            // The old trim also took trailing zeros off the exponent
+            while ((magnitude % 10 == 0) && (magnitude > 0)) {
+                magnitude /= 10;
+            }
+            out.append(magnitude);
+        }
+    }
+}
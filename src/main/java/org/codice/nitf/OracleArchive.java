@@ -0,0 +1,322 @@
+package org.codice.nitf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A single file holding recorded gdalinfo output for a corpus, so it can be replayed without GDAL.
+ *
+ * The file starts with a magic number, followed by one entry per dataset: the dataset name, then the (already
+ * normalized) output lines, deflated. After the entries comes an info entry holding the gdalinfo version and the
+ * line rules the output was normalized with, then the index, then a fixed size footer pointing at both.
+ *
+ * The index is an array of (name hash, entry offset) pairs sorted by hash. Readers memory-map it and binary search
+ * it, so opening an archive does not read the index, and a lookup touches only a few pages of it before a single
+ * positioned read of the entry. An archive is only complete once its writer is closed; one left behind by a run
+ * that died has no index and cannot be opened.
+ */
+class OracleArchive
+{
+    private static final byte[] MAGIC = "NITFARC1".getBytes(StandardCharsets.US_ASCII);
+    private static final int INDEX_RECORD_SIZE = 16;
+    private static final int FOOTER_SIZE = 8 + 8 + 8 + MAGIC.length;
+    // Name length, uncompressed length and compressed length
+    private static final int ENTRY_HEADER_SIZE = 12;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Path archivePath;
+    private final FileChannel channel;
+    private final MappedByteBuffer index;
+    private final int entryCount;
+    private final String gdalVersion;
+    private final String lineRules;
+
+    /**
+     * Open an archive for reading.
+     *
+     * @param path the archive file
+     * @throws IOException if the file could not be read, or is not a complete archive
+     */
+    OracleArchive(Path path) throws IOException {
+        archivePath = path;
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < MAGIC.length + FOOTER_SIZE) {
+                throw new IOException(path + " is not a complete oracle archive");
+            }
+            ByteBuffer footer = readFully(size - FOOTER_SIZE, FOOTER_SIZE);
+            long indexOffset = footer.getLong();
+            long count = footer.getLong();
+            long infoOffset = footer.getLong();
+            byte[] magic = new byte[MAGIC.length];
+            footer.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || (indexOffset + count * INDEX_RECORD_SIZE != size - FOOTER_SIZE)) {
+                throw new IOException(path + " is not a complete oracle archive");
+            }
+            entryCount = (int) count;
+            index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, count * INDEX_RECORD_SIZE);
+            String info = readEntry(infoOffset, "");
+            int newline = info.indexOf('\n');
+            gdalVersion = info.substring(0, newline);
+            lineRules = info.substring(newline + 1);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } catch (RuntimeException e) {
+            channel.close();
+            throw new IOException(path + " is not a valid oracle archive", e);
+        }
+    }
+
+    /**
+     * @return the gdalinfo version the output was recorded with
+     */
+    String getGdalVersion() {
+        return gdalVersion;
+    }
+
+    /**
+     * @return the text of the line rules the output was normalized with
+     */
+    String getLineRules() {
+        return lineRules;
+    }
+
+    /**
+     * @return the number of datasets in the archive
+     */
+    int size() {
+        return entryCount;
+    }
+
+    /**
+     * Look up the recorded output for a dataset.
+     *
+     * @param datasetName the file or subdataset name, exactly as it was recorded (relative to the corpus roots)
+     * @return the output lines, or null if the dataset is not in the archive
+     * @throws IOException if the archive could not be read
+     */
+    List<String> lookup(String datasetName) throws IOException {
+        long hash = hash(datasetName);
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleHash = index.getLong(middle * INDEX_RECORD_SIZE);
+            if (middleHash < hash) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        // low is the first record with this hash, if there is one. Later records win, so search from the end.
+        int last = low;
+        while ((last < entryCount) && (index.getLong(last * INDEX_RECORD_SIZE) == hash)) {
+            last++;
+        }
+        for (int i = last - 1; i >= low; --i) {
+            String text = readEntry(index.getLong(i * INDEX_RECORD_SIZE + 8), datasetName);
+            if (text != null) {
+                return MetadataRenderer.textToLines(text);
+            }
+        }
+        return null;
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Could not close oracle archive " + archivePath + ": " + e.getMessage());
+        }
+    }
+
+    // Returns null if the entry is for some other name with the same hash
+    private String readEntry(long offset, String expectedName) throws IOException {
+        ByteBuffer header = readFully(offset, ENTRY_HEADER_SIZE);
+        int nameLength = header.getInt();
+        int textLength = header.getInt();
+        int compressedLength = header.getInt();
+        ByteBuffer body = readFully(offset + ENTRY_HEADER_SIZE, nameLength + compressedLength);
+        String name = new String(body.array(), 0, nameLength, StandardCharsets.UTF_8);
+        if (!name.equals(expectedName)) {
+            return null;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body.array(), nameLength, compressedLength);
+            byte[] text = new byte[textLength];
+            int inflated = 0;
+            while (inflated < textLength) {
+                int count = inflater.inflate(text, inflated, textLength - inflated);
+                if ((count == 0) && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Corrupt entry for " + name + " in " + archivePath);
+                }
+                inflated += count;
+            }
+            return new String(text, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt entry for " + name + " in " + archivePath, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException(archivePath + " is truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static long hash(String name) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xFF);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Writes an archive. Entries may be added from several threads.
+     */
+    static class Writer
+    {
+        private final Path archivePath;
+        private final FileChannel channel;
+        private final String info;
+        private final Deflater deflater = new Deflater();
+        private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        private final byte[] deflateBuffer = new byte[8192];
+        private final List<long[]> indexRecords = new ArrayList<long[]>();
+        private long position = 0;
+        private boolean failed = false;
+
+        /**
+         * Start a new archive, replacing any existing file.
+         *
+         * @param path the archive file
+         * @param gdalVersion the gdalinfo version being recorded
+         * @param lineRules the text of the line rules the output is normalized with
+         * @throws IOException if the file could not be created
+         */
+        Writer(Path path, String gdalVersion, String lineRules) throws IOException {
+            archivePath = path;
+            info = gdalVersion + "\n" + lineRules;
+            channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            write(ByteBuffer.wrap(MAGIC));
+        }
+
+        /**
+         * Add the output for a dataset.
+         *
+         * @param datasetName the file or subdataset name, relative to the corpus roots
+         * @param lines the output lines
+         */
+        synchronized void add(String datasetName, List<String> lines) {
+            if (failed) {
+                return;
+            }
+            StringBuilder text = new StringBuilder();
+            for (String line : lines) {
+                text.append(line).append('\n');
+            }
+            try {
+                long offset = writeEntry(datasetName, text.toString());
+                indexRecords.add(new long[] {hash(datasetName), offset});
+            } catch (IOException e) {
+                System.err.println("Could not write oracle archive " + archivePath + ", no longer recording: " + e.getMessage());
+                failed = true;
+            }
+        }
+
+        /**
+         * Write the index and footer, and close the archive.
+         *
+         * @throws IOException if the archive could not be finished
+         */
+        synchronized void close() throws IOException {
+            try {
+                if (failed) {
+                    throw new IOException("Recording failed part way, " + archivePath + " is incomplete");
+                }
+                long infoOffset = writeEntry("", info);
+                long indexOffset = position;
+                // Stable, so for a name recorded twice the later entry stays later
+                Collections.sort(indexRecords, new Comparator<long[]>() {
+                    @Override
+                    public int compare(long[] first, long[] second) {
+                        return Long.compare(first[0], second[0]);
+                    }
+                });
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                for (long[] record : indexRecords) {
+                    if (buffer.remaining() < INDEX_RECORD_SIZE) {
+                        buffer.flip();
+                        write(buffer);
+                        buffer.clear();
+                    }
+                    buffer.putLong(record[0]).putLong(record[1]);
+                }
+                buffer.flip();
+                write(buffer);
+                ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+                footer.putLong(indexOffset).putLong(indexRecords.size()).putLong(infoOffset).put(MAGIC);
+                footer.flip();
+                write(footer);
+                channel.force(true);
+            } finally {
+                deflater.end();
+                channel.close();
+            }
+        }
+
+        private long writeEntry(String name, String text) throws IOException {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+            compressed.reset();
+            deflater.reset();
+            deflater.setInput(textBytes);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int count = deflater.deflate(deflateBuffer);
+                compressed.write(deflateBuffer, 0, count);
+            }
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_SIZE + nameBytes.length + compressed.size());
+            entry.putInt(nameBytes.length).putInt(textBytes.length).putInt(compressed.size());
+            entry.put(nameBytes);
+            entry.put(compressed.toByteArray());
+            entry.flip();
+            long offset = position;
+            write(entry);
+            return offset;
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.codice.nitf;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * The results of concurrent comparisons, handed out in the order the comparisons were added.
+ *
+ * The number of results waiting to be handed out is bounded by the number of jobs, so whatever adds comparisons
+ * (walking a huge directory, or reading a client's requests) does not get arbitrarily far ahead of them. Results
+ * can be handed out on the thread that adds the comparisons, with {@link #poll(int)}, or on a thread of their own,
+ * with {@link #take()}.
+ *
+ * @param <T> the result of a comparison
+ */
+class OrderedResults<T>
+{
+    // How many completed-but-unhandled results we allow per job before adding more comparisons blocks
+    private static final int PENDING_RESULTS_PER_JOB = 4;
+
+    private final Deque<Future<T>> pending = new ArrayDeque<Future<T>>();
+    private final int maxPending;
+    private boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param jobs how many comparisons run at once
+     */
+    OrderedResults(int jobs) {
+        maxPending = jobs * PENDING_RESULTS_PER_JOB;
+    }
+
+    /**
+     * @return how many results may wait to be handed out
+     */
+    int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * Add a comparison without waiting. The thread adding comparisons keeps to the bound by calling
+     * {@code poll(getMaxPending())} after each one.
+     *
+     * @param result the comparison's future result
+     */
+    synchronized void add(Future<T> result) {
+        pending.addLast(result);
+        notifyAll();
+    }
+
+    /**
+     * Add a comparison, first waiting for {@link #take()} to hand out a result if too many are pending.
+     *
+     * @param result the comparison's future result
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized void put(Future<T> result) throws InterruptedException {
+        while (pending.size() > maxPending) {
+            wait();
+        }
+        add(result);
+    }
+
+    /**
+     * Say that no more comparisons will be added, so {@link #take()} returns null once every result is handed out.
+     */
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Hand out the next result if it has finished, or, if more than allowedPending results are pending, once it
+     * finishes.
+     *
+     * @param allowedPending how many results may be left pending without waiting for the next one
+     * @return the next result, or null if there is none to hand out yet
+     */
+    T poll(int allowedPending) {
+        Future<T> next;
+        synchronized (this) {
+            next = pending.peekFirst();
+            if ((next == null) || (!next.isDone() && (pending.size() <= allowedPending))) {
+                return null;
+            }
+            pending.removeFirst();
+            notifyAll();
+        }
+        return waitFor(next);
+    }
+
+    /**
+     * Hand out the next result, waiting for it to be added and to finish.
+     *
+     * @return the next result, or null if there are no more
+     */
+    T take() {
+        Future<T> next;
+        synchronized (this) {
+            boolean interrupted = false;
+            while (pending.isEmpty() && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            next = pending.pollFirst();
+            if (next == null) {
+                return null;
+            }
+            notifyAll();
+        }
+        return waitFor(next);
+    }
+
+    /**
+     * @return true if the next result has finished, so handing it out would not wait
+     */
+    synchronized boolean isNextReady() {
+        Future<T> next = pending.peekFirst();
+        return (next != null) && next.isDone();
+    }
+
+    private static <T> T waitFor(Future<T> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            // ComparisonService.compare() turns anything the file causes into an ERROR verdict, so what is left is a
+            // VirtualMachineError or a programming error
+            throw new IllegalStateException("Comparison task failed", e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
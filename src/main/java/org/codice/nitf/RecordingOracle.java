@@ -0,0 +1,113 @@
+package org.codice.nitf;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Passes requests on to another oracle, and records its output in an {@link OracleArchive} for later replay.
+ *
+ * Output is recorded when the caller collects it, so requests that fail, time out or are cancelled are not
+ * recorded. Datasets are recorded under their names relative to the corpus roots, with a placeholder for the file
+ * name in the lines that name the dataset, so the corpus can be replayed from somewhere else.
+ */
+class RecordingOracle implements MetadataOracle
+{
+    private final MetadataOracle oracle;
+    private final Path archivePath;
+    private final OracleArchive.Writer archive;
+    private final CorpusRoots corpusRoots;
+    private final String version;
+
+    /**
+     * Constructor.
+     *
+     * @param recordedOracle the oracle to record
+     * @param path where to write the archive
+     * @param lineRulesText the text of the line rules the oracle's output was normalized with
+     * @param roots the corpus roots that dataset names are recorded relative to
+     * @throws IOException if the archive could not be created, or the oracle's version found
+     */
+    RecordingOracle(MetadataOracle recordedOracle, Path path, String lineRulesText, CorpusRoots roots) throws IOException {
+        oracle = recordedOracle;
+        archivePath = path;
+        corpusRoots = roots;
+        version = oracle.getVersion();
+        archive = new OracleArchive.Writer(path, version, lineRulesText);
+    }
+
+    @Override
+    public Future<List<String>> describe(String filename) {
+        return new RecordedRequest(filename, oracle.describe(filename));
+    }
+
+    @Override
+    public String getVersion() {
+        return version;
+    }
+
+    @Override
+    public void close() {
+        oracle.close();
+        try {
+            archive.close();
+        } catch (IOException e) {
+            System.err.println("Could not finish oracle archive " + archivePath + ": " + e.getMessage());
+        }
+    }
+
+    private class RecordedRequest implements Future<List<String>>
+    {
+        private final String datasetName;
+        private final Future<List<String>> request;
+        private boolean recorded = false;
+
+        RecordedRequest(String datasetName, Future<List<String>> request) {
+            this.datasetName = datasetName;
+            this.request = request;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return request.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return request.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return request.isDone();
+        }
+
+        @Override
+        public List<String> get() throws InterruptedException, ExecutionException {
+            return record(request.get());
+        }
+
+        @Override
+        public List<String> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return record(request.get(timeout, unit));
+        }
+
+        private synchronized List<String> record(List<String> lines) {
+            if (!recorded) {
+                String filename = CorpusRoots.fileName(datasetName);
+                List<String> recordedLines = new ArrayList<String>(lines.size());
+                for (String line : lines) {
+                    recordedLines.add(FilenamePlaceholder.hide(line, filename));
+                }
+                archive.add(corpusRoots.relativeName(datasetName), recordedLines);
+                recorded = true;
+            }
+            return lines;
+        }
+    }
+}
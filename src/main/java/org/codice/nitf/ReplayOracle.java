@@ -0,0 +1,76 @@
+package org.codice.nitf;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Replays gdalinfo output recorded in an {@link OracleArchive}, so comparisons can run without GDAL.
+ *
+ * Datasets are looked up by their names relative to the corpus roots, as they were recorded, and the file name put
+ * back into the lines that name the dataset. Lookups are quick enough to do on the calling thread, so requests are
+ * already complete when they are returned.
+ */
+class ReplayOracle implements MetadataOracle
+{
+    private final OracleArchive archive;
+    private final CorpusRoots corpusRoots;
+
+    /**
+     * Constructor.
+     *
+     * @param archivePath the archive to replay
+     * @param lineRules the line rules for this run, checked against those the archive was recorded with
+     * @param roots the corpus roots that dataset names are looked up relative to
+     * @throws IOException if the archive could not be opened
+     */
+    ReplayOracle(Path archivePath, LineRules lineRules, CorpusRoots roots) throws IOException {
+        archive = new OracleArchive(archivePath);
+        corpusRoots = roots;
+        if (!archive.getLineRules().equals(lineRules.getText())) {
+            // The gdalinfo side was normalized when it was recorded, so the current rules only apply to our side
+            System.err.println("Warning: " + archivePath + " was recorded with different line rules");
+        }
+    }
+
+    /**
+     * @return the text of the line rules the recorded output was normalized with
+     */
+    String getRecordedLineRules() {
+        return archive.getLineRules();
+    }
+
+    @Override
+    public Future<List<String>> describe(final String datasetName) {
+        FutureTask<List<String>> request = new FutureTask<List<String>>(new Callable<List<String>>() {
+            @Override
+            public List<String> call() throws IOException {
+                String recordedName = corpusRoots.relativeName(datasetName);
+                List<String> lines = archive.lookup(recordedName);
+                if (lines == null) {
+                    throw new IOException(recordedName + " is not in the oracle archive");
+                }
+                String filename = CorpusRoots.fileName(datasetName);
+                for (int i = 0; i < lines.size(); ++i) {
+                    lines.set(i, FilenamePlaceholder.restore(lines.get(i), filename));
+                }
+                return lines;
+            }
+        });
+        request.run();
+        return request;
+    }
+
+    @Override
+    public String getVersion() {
+        return archive.getGdalVersion();
+    }
+
+    @Override
+    public void close() {
+        archive.close();
+    }
+}
@@ -0,0 +1,258 @@
+package org.codice.nitf;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only record of the files a run has finished with, so that a run that dies part way through can be
+ * resumed without comparing everything again.
+ *
+ * The journal is a text file: a header line, then one line per file holding the verdict, a tab and the file name.
+ * Lines are buffered and forced to disk in batches (every few hundred files, or every second), so a crash loses at
+ * most the last batch, and those files are simply compared again. A line that was only partly written when the
+ * process died is ignored when the journal is read back, and cut off before anything new is appended.
+ */
+class RunJournal
+{
+    static final String JOURNAL_MAGIC = "NITF-COMPARISON-JOURNAL 1";
+    private static final int SYNC_EVERY_RECORDS = 256;
+    private static final long SYNC_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Path journalPath;
+    private final FileChannel channel;
+    private final Map<String, Verdict> completedFiles;
+    private final int resumedCount;
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingRecords = 0;
+    private long lastSyncTime = System.nanoTime();
+    private boolean failed = false;
+
+    /**
+     * Open a journal for writing.
+     *
+     * @param path the journal file
+     * @param resume true to keep the files already in the journal, false to start a new journal
+     * @throws IOException if the journal could not be read or created, or the file is not a journal
+     */
+    RunJournal(Path path, boolean resume) throws IOException {
+        journalPath = path;
+        if (resume && Files.exists(path) && (Files.size(path) > 0)) {
+            JournalReader reader = new JournalReader(path);
+            completedFiles = reader.getVerdicts();
+            channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            // Drop any partly written line, so new lines start cleanly
+            channel.truncate(reader.getValidLength());
+            channel.position(reader.getValidLength());
+        } else {
+            completedFiles = new HashMap<String, Verdict>();
+            channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            pending.append(JOURNAL_MAGIC).append('\n');
+            writePending();
+            channel.force(false);
+        }
+        resumedCount = completedFiles.size();
+    }
+
+    /**
+     * @return how many files were already complete when the journal was opened
+     */
+    int getResumedCount() {
+        return resumedCount;
+    }
+
+    /**
+     * Find out whether an earlier run already finished with a file.
+     *
+     * Each file is only handed out once, and forgotten afterwards to keep memory down on large runs.
+     *
+     * @param filename the file
+     * @return the verdict from the earlier run, or null if the file still needs comparing
+     */
+    synchronized Verdict takeCompletedVerdict(String filename) {
+        return completedFiles.remove(filename);
+    }
+
+    /**
+     * Record that a file is finished.
+     *
+     * @param filename the file
+     * @param verdict its verdict
+     */
+    synchronized void record(String filename, Verdict verdict) {
+        if (failed) {
+            return;
+        }
+        pending.append(verdict.name()).append('\t');
+        appendEscaped(pending, filename);
+        pending.append('\n');
+        pendingRecords++;
+        if ((pendingRecords >= SYNC_EVERY_RECORDS) || (System.nanoTime() - lastSyncTime >= SYNC_INTERVAL_NANOS)) {
+            sync();
+        }
+    }
+
+    /**
+     * Force everything recorded so far to disk, and close the journal.
+     */
+    synchronized void close() {
+        sync();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Could not close journal " + journalPath + ": " + e.getMessage());
+        }
+    }
+
+    private void sync() {
+        if (failed) {
+            return;
+        }
+        try {
+            writePending();
+            channel.force(false);
+        } catch (IOException e) {
+            // Carry on comparing, a resumed run will just redo more work
+            System.err.println("Could not write journal " + journalPath + ", no longer recording progress: " + e.getMessage());
+            failed = true;
+        }
+        pendingRecords = 0;
+        lastSyncTime = System.nanoTime();
+    }
+
+    private void writePending() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.UTF_8));
+        pending.setLength(0);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // File names can in principle hold newlines, which would split a line
+    private static void appendEscaped(StringBuilder builder, String filename) {
+        for (int i = 0; i < filename.length(); ++i) {
+            char c = filename.charAt(i);
+            if (c == '\\') {
+                builder.append("\\\\");
+            } else if (c == '\n') {
+                builder.append("\\n");
+            } else if (c == '\r') {
+                builder.append("\\r");
+            } else {
+                builder.append(c);
+            }
+        }
+    }
+
+    private static String unescape(String text) {
+        if (text.indexOf('\\') < 0) {
+            return text;
+        }
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if ((c == '\\') && (i + 1 < text.length())) {
+                char next = text.charAt(++i);
+                if (next == 'n') {
+                    builder.append('\n');
+                } else if (next == 'r') {
+                    builder.append('\r');
+                } else {
+                    builder.append(next);
+                }
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Reads the verdicts back out of a journal.
+     */
+    static class JournalReader
+    {
+        private final Map<String, Verdict> verdicts = new HashMap<String, Verdict>();
+        private long validLength = 0;
+
+        /**
+         * Read a journal.
+         *
+         * @param path the journal file
+         * @throws IOException if the file could not be read, or is not a journal
+         */
+        JournalReader(Path path) throws IOException {
+            InputStream input = new BufferedInputStream(Files.newInputStream(path));
+            try {
+                read(path, input);
+            } finally {
+                input.close();
+            }
+        }
+
+        private void read(Path path, InputStream input) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            long position = 0;
+            boolean sawHeader = false;
+            int b;
+            while ((b = input.read()) != -1) {
+                position++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+                line.reset();
+                if (!sawHeader) {
+                    if (!JOURNAL_MAGIC.equals(text)) {
+                        throw new IOException(path + " is not a comparison journal");
+                    }
+                    sawHeader = true;
+                } else {
+                    parseLine(text);
+                }
+                validLength = position;
+            }
+            if (!sawHeader) {
+                throw new IOException(path + " is not a comparison journal");
+            }
+        }
+
+        private void parseLine(String text) {
+            int tab = text.indexOf('\t');
+            if (tab < 0) {
+                return;
+            }
+            try {
+                // A file compared twice (by a resumed run, say) keeps its latest verdict
+                verdicts.put(unescape(text.substring(tab + 1)), Verdict.valueOf(text.substring(0, tab)));
+            } catch (IllegalArgumentException e) {
+                // Not a verdict we know, skip the line
+            }
+        }
+
+        /**
+         * @return the latest verdict for each file in the journal
+         */
+        Map<String, Verdict> getVerdicts() {
+            return verdicts;
+        }
+
+        /**
+         * @return the length of the journal up to the end of its last complete line
+         */
+        long getValidLength() {
+            return validLength;
+        }
+    }
+}
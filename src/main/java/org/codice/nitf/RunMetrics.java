@@ -0,0 +1,272 @@
+package org.codice.nitf;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time goes in a run: latency histograms for each phase of a comparison, per-file times, throughput, and
+ * the slowest files.
+ *
+ * Callers bracket a phase with {@link #start()} and {@link #record(Phase, long)}. When metrics are disabled, those
+ * do nothing (not even read the clock), so the instrumentation can stay in place.
+ */
+class RunMetrics
+{
+    /**
+     * The instrumented phases of a comparison.
+     */
+    enum Phase
+    {
+        GDAL_SPAWN("gdalinfo spawn", "gdalinfo_spawn"),
+        GDAL_READ("gdalinfo read", "gdalinfo_read"),
+        PARSE("header parse", "parse"),
+        RENDER("render", "render"),
+        COMPARE("compare", "compare"),
+        ARTIFACT_IO("artifact I/O", "artifact_io"),
+        // Only in watch mode: from first seeing a new file to printing its verdict
+        INGEST("ingest latency", "ingest_latency");
+
+        final String label;
+        final String key;
+
+        Phase(String label, String key) {
+            this.label = label;
+            this.key = key;
+        }
+    }
+
+    static final RunMetrics DISABLED = new RunMetrics(false);
+
+    private static final int SLOW_FILES = 10;
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final boolean enabled;
+    private final long runStartTime = System.nanoTime();
+    private final Map<Phase, LatencyHistogram> phases = new EnumMap<Phase, LatencyHistogram>(Phase.class);
+    private final LatencyHistogram fileTimes = new LatencyHistogram();
+    private final AtomicLong headerBytesRead = new AtomicLong();
+    // The slowest files seen so far, quickest first
+    private final PriorityQueue<SlowFile> slowFiles = new PriorityQueue<SlowFile>(SLOW_FILES + 1, new Comparator<SlowFile>() {
+        @Override
+        public int compare(SlowFile first, SlowFile second) {
+            return Long.compare(first.nanos, second.nanos);
+        }
+    });
+
+    RunMetrics(boolean enableMetrics) {
+        enabled = enableMetrics;
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new LatencyHistogram());
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the start time to pass to {@link #record(Phase, long)}
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void record(Phase phase, long startTime) {
+        if (enabled) {
+            phases.get(phase).record(System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Record a finished file.
+     *
+     * @param filename the file
+     * @param startTime when the comparison started, from {@link #start()}
+     * @param bytesRead how many header bytes were read from the file
+     */
+    void recordFile(String filename, long startTime, long bytesRead) {
+        if (!enabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - startTime;
+        fileTimes.record(nanos);
+        headerBytesRead.addAndGet(bytesRead);
+        synchronized (slowFiles) {
+            if ((slowFiles.size() < SLOW_FILES) || (nanos > slowFiles.peek().nanos)) {
+                slowFiles.add(new SlowFile(filename, nanos));
+                if (slowFiles.size() > SLOW_FILES) {
+                    slowFiles.poll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Print the timing report for the run.
+     *
+     * @param out where to print it
+     */
+    void print(PrintStream out) {
+        double elapsedSeconds = elapsedSeconds();
+        out.println("Timing:");
+        out.println(String.format(Locale.ROOT, "  %-16s %8s %10s %10s %10s %10s", "Phase", "Count", "p50 ms", "p99 ms", "max ms", "total s"));
+        for (Phase phase : Phase.values()) {
+            printHistogram(out, phase.label, phases.get(phase));
+        }
+        printHistogram(out, "whole file", fileTimes);
+        out.println(String.format(Locale.ROOT, "  %d files in %.2f s (%.2f files/s), %d header bytes read",
+                                  fileTimes.getCount(), elapsedSeconds, filesPerSecond(elapsedSeconds), headerBytesRead.get()));
+        List<SlowFile> slowest = getSlowestFiles();
+        if (!slowest.isEmpty()) {
+            out.println("Slowest files:");
+            for (SlowFile file : slowest) {
+                out.println(String.format(Locale.ROOT, "  %10.1f ms  %s", file.nanos / NANOS_PER_MILLI, file.filename));
+            }
+        }
+    }
+
+    /**
+     * Write the metrics in a machine-readable form: CSV if the file name ends in .csv, JSON otherwise.
+     *
+     * @param path the file to write
+     * @throws IOException if the file could not be written
+     */
+    void write(Path path) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), "UTF-8"));
+        try {
+            if (path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv")) {
+                writeCsv(writer);
+            } else {
+                writeJson(writer);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void writeJson(Writer writer) throws IOException {
+        double elapsedSeconds = elapsedSeconds();
+        writer.write("{\n");
+        writer.write(String.format(Locale.ROOT, "  \"files\": %d,\n", fileTimes.getCount()));
+        writer.write(String.format(Locale.ROOT, "  \"elapsed_seconds\": %.3f,\n", elapsedSeconds));
+        writer.write(String.format(Locale.ROOT, "  \"files_per_second\": %.3f,\n", filesPerSecond(elapsedSeconds)));
+        writer.write(String.format(Locale.ROOT, "  \"header_bytes_read\": %d,\n", headerBytesRead.get()));
+        writer.write("  \"phases\": {\n");
+        for (Phase phase : Phase.values()) {
+            writer.write("    \"" + phase.key + "\": " + histogramJson(phases.get(phase)) + ",\n");
+        }
+        writer.write("    \"file\": " + histogramJson(fileTimes) + "\n");
+        writer.write("  },\n");
+        writer.write("  \"slowest_files\": [");
+        List<SlowFile> slowest = getSlowestFiles();
+        for (int i = 0; i < slowest.size(); ++i) {
+            writer.write((i == 0) ? "\n" : ",\n");
+            writer.write(String.format(Locale.ROOT, "    {\"file\": \"%s\", \"ms\": %.3f}",
+                                       jsonEscape(slowest.get(i).filename), slowest.get(i).nanos / NANOS_PER_MILLI));
+        }
+        writer.write(slowest.isEmpty() ? "]\n" : "\n  ]\n");
+        writer.write("}\n");
+    }
+
+    private void writeCsv(Writer writer) throws IOException {
+        double elapsedSeconds = elapsedSeconds();
+        writer.write("section,name,value\n");
+        writer.write(String.format(Locale.ROOT, "run,files,%d\n", fileTimes.getCount()));
+        writer.write(String.format(Locale.ROOT, "run,elapsed_seconds,%.3f\n", elapsedSeconds));
+        writer.write(String.format(Locale.ROOT, "run,files_per_second,%.3f\n", filesPerSecond(elapsedSeconds)));
+        writer.write(String.format(Locale.ROOT, "run,header_bytes_read,%d\n", headerBytesRead.get()));
+        for (Phase phase : Phase.values()) {
+            writeHistogramCsv(writer, phase.key, phases.get(phase));
+        }
+        writeHistogramCsv(writer, "file", fileTimes);
+        for (SlowFile file : getSlowestFiles()) {
+            writer.write(String.format(Locale.ROOT, "slow_file_ms,%s,%.3f\n", csvQuote(file.filename), file.nanos / NANOS_PER_MILLI));
+        }
+    }
+
+    private List<SlowFile> getSlowestFiles() {
+        List<SlowFile> slowest;
+        synchronized (slowFiles) {
+            slowest = new ArrayList<SlowFile>(slowFiles);
+        }
+        Collections.sort(slowest, Collections.reverseOrder(slowFiles.comparator()));
+        return slowest;
+    }
+
+    private double elapsedSeconds() {
+        return (System.nanoTime() - runStartTime) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private double filesPerSecond(double elapsedSeconds) {
+        return (elapsedSeconds > 0) ? (fileTimes.getCount() / elapsedSeconds) : 0;
+    }
+
+    private static void printHistogram(PrintStream out, String label, LatencyHistogram histogram) {
+        out.println(String.format(Locale.ROOT, "  %-16s %8d %10.2f %10.2f %10.2f %10.2f", label, histogram.getCount(),
+                                  histogram.getPercentile(0.5) / NANOS_PER_MILLI, histogram.getPercentile(0.99) / NANOS_PER_MILLI,
+                                  histogram.getMax() / NANOS_PER_MILLI, histogram.getTotal() / (NANOS_PER_MILLI * 1000)));
+    }
+
+    private static String histogramJson(LatencyHistogram histogram) {
+        return String.format(Locale.ROOT, "{\"count\": %d, \"p50_ms\": %.3f, \"p99_ms\": %.3f, \"max_ms\": %.3f, \"total_ms\": %.3f}",
+                             histogram.getCount(), histogram.getPercentile(0.5) / NANOS_PER_MILLI,
+                             histogram.getPercentile(0.99) / NANOS_PER_MILLI, histogram.getMax() / NANOS_PER_MILLI,
+                             histogram.getTotal() / NANOS_PER_MILLI);
+    }
+
+    private static void writeHistogramCsv(Writer writer, String key, LatencyHistogram histogram) throws IOException {
+        writer.write(String.format(Locale.ROOT, "%s,count,%d\n", key, histogram.getCount()));
+        writer.write(String.format(Locale.ROOT, "%s,p50_ms,%.3f\n", key, histogram.getPercentile(0.5) / NANOS_PER_MILLI));
+        writer.write(String.format(Locale.ROOT, "%s,p99_ms,%.3f\n", key, histogram.getPercentile(0.99) / NANOS_PER_MILLI));
+        writer.write(String.format(Locale.ROOT, "%s,max_ms,%.3f\n", key, histogram.getMax() / NANOS_PER_MILLI));
+        writer.write(String.format(Locale.ROOT, "%s,total_ms,%.3f\n", key, histogram.getTotal() / NANOS_PER_MILLI));
+    }
+
+    private static String jsonEscape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length() + 8);
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String csvQuote(String text) {
+        if ((text.indexOf(',') < 0) && (text.indexOf('"') < 0) && (text.indexOf('\n') < 0)) {
+            return text;
+        }
+        return "\"" + text.replace("\"", "\"\"") + "\"";
+    }
+
+    private static class SlowFile
+    {
+        final String filename;
+        final long nanos;
+
+        SlowFile(String filename, long nanos) {
+            this.filename = filename;
+            this.nanos = nanos;
+        }
+    }
+}
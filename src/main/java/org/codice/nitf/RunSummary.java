@@ -0,0 +1,89 @@
+package org.codice.nitf;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Totals for a comparison run.
+ *
+ * The summary only holds counts and sorted file names, so two runs over the same files produce the same summary
+ * regardless of how many jobs were used or what order the comparisons completed in.
+ */
+public class RunSummary
+{
+    private final Map<Verdict, Integer> counts = new EnumMap<Verdict, Integer>(Verdict.class);
+    private final SortedSet<String> mismatchedFiles = new TreeSet<String>();
+    private final SortedSet<String> failedFiles = new TreeSet<String>();
+    private final SortedSet<String> truncatedFiles = new TreeSet<String>();
+
+    public RunSummary() {
+        for (Verdict verdict : Verdict.values()) {
+            counts.put(verdict, 0);
+        }
+    }
+
+    public synchronized void record(String filename, Verdict verdict) {
+        counts.put(verdict, counts.get(verdict) + 1);
+        if (verdict == Verdict.MISMATCH) {
+            mismatchedFiles.add(filename);
+        } else if (verdict == Verdict.ERROR) {
+            failedFiles.add(filename);
+        } else if (verdict == Verdict.TRUNCATED) {
+            truncatedFiles.add(filename);
+        }
+    }
+
+    public synchronized int getCount(Verdict verdict) {
+        return counts.get(verdict);
+    }
+
+    public synchronized int getTotal() {
+        int total = 0;
+        for (int count : counts.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of files that were actually compared, leaving out those rejected as not NITF or truncated
+     */
+    public synchronized int getComparedTotal() {
+        int total = 0;
+        for (Verdict verdict : Verdict.values()) {
+            if (verdict.wasCompared()) {
+                total += counts.get(verdict);
+            }
+        }
+        return total;
+    }
+
+    public synchronized void print(PrintStream out) {
+        out.println("Summary:");
+        out.println(String.format("  Files compared: %d", getComparedTotal()));
+        for (Verdict verdict : Verdict.values()) {
+            out.println(String.format("  %s: %d", verdict, counts.get(verdict)));
+        }
+        if (mismatchedFiles.size() > 0) {
+            out.println("Mismatched files:");
+            for (String filename : mismatchedFiles) {
+                out.println("  " + filename);
+            }
+        }
+        if (failedFiles.size() > 0) {
+            out.println("Failed files:");
+            for (String filename : failedFiles) {
+                out.println("  " + filename);
+            }
+        }
+        if (truncatedFiles.size() > 0) {
+            out.println("Truncated files:");
+            for (String filename : truncatedFiles) {
+                out.println("  " + filename);
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.codice.nitf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the outputs section by section, and key by key within each section.
+ *
+ * Both outputs are split into sections ("Metadata:", "RPC Metadata:", "Image Structure Metadata:",
+ * "Subdatasets:", "Coordinate System is:" and so on, with anything before the first section in a header section).
+ * Within a section, "  KEY=VALUE" lines are compared through hash lookups, so the work is linear in the size of
+ * the output and each difference is reported once, as a missing key, an extra key or a different value. A key that
+ * appears more than once is compared occurrence by occurrence, so a repeated or dropped duplicate is reported too.
+ *
+ * Order is checked separately, once the contents have been: if the sections, or the keys within a section, that
+ * both outputs have come in a different order, that is reported as one difference giving the first place they
+ * part. Where the text lines of a section fall among its key/value lines is not checked.
+ *
+ * Lines that are not key/value pairs (such as the xml:TRE dump or the coordinate system WKT) are compared as
+ * text within their own section, using the text diff given.
+ */
+class SectionDiffEngine implements DiffEngine
+{
+    private static final String HEADER_SECTION = "(header)";
+    private static final String COORDINATE_SYSTEM_HEADER = "Coordinate System is:";
+
+    private final DiffEngine textDiff;
+
+    SectionDiffEngine(DiffEngine textDiffEngine) {
+        textDiff = textDiffEngine;
+    }
+
+    @Override
+    public List<String> compare(List<String> theirs, List<String> ours) {
+        Map<String, Section> theirSections = parse(theirs);
+        Map<String, Section> ourSections = parse(ours);
+        List<String> differences = new ArrayList<String>();
+        for (Section theirSection : theirSections.values()) {
+            Section ourSection = ourSections.get(theirSection.name);
+            if (ourSection == null) {
+                differences.add(String.format("%s: section missing from our output (%d lines)", theirSection.name, theirSection.size()));
+            } else {
+                compareSections(theirSection, ourSection, differences);
+            }
+        }
+        for (Section ourSection : ourSections.values()) {
+            if (!theirSections.containsKey(ourSection.name)) {
+                differences.add(String.format("%s: section only in our output (%d lines)", ourSection.name, ourSection.size()));
+            }
+        }
+        compareOrder("Sections", sectionOrder(theirs), sectionOrder(ours), differences);
+        return differences;
+    }
+
+    private void compareSections(Section theirs, Section ours, List<String> differences) {
+        for (Map.Entry<String, List<String>> theirEntry : theirs.entries.entrySet()) {
+            String key = theirEntry.getKey();
+            List<String> theirValues = theirEntry.getValue();
+            List<String> ourValues = ours.entries.get(key);
+            int ourCount = (ourValues == null) ? 0 : ourValues.size();
+            boolean repeated = (theirValues.size() > 1) || (ourCount > 1);
+            for (int i = 0; i < theirValues.size(); ++i) {
+                String occurrence = repeated ? String.format("%s (occurrence %d)", key, i + 1) : key;
+                if (i >= ourCount) {
+                    differences.add(String.format("%s: %s=%s missing from our output", theirs.name, occurrence, theirValues.get(i)));
+                } else if (!ourValues.get(i).equals(theirValues.get(i))) {
+                    differences.add(String.format("%s: %s differs: gdalinfo [%s], ours [%s]", theirs.name, occurrence,
+                                                  theirValues.get(i), ourValues.get(i)));
+                }
+            }
+            for (int i = theirValues.size(); i < ourCount; ++i) {
+                String occurrence = repeated ? String.format("%s (occurrence %d)", key, i + 1) : key;
+                differences.add(String.format("%s: %s=%s only in our output", ours.name, occurrence, ourValues.get(i)));
+            }
+        }
+        for (Map.Entry<String, List<String>> ourEntry : ours.entries.entrySet()) {
+            if (!theirs.entries.containsKey(ourEntry.getKey())) {
+                for (String ourValue : ourEntry.getValue()) {
+                    differences.add(String.format("%s: %s=%s only in our output", ours.name, ourEntry.getKey(), ourValue));
+                }
+            }
+        }
+        compareOrder(theirs.name + ": keys", theirs.keyOrder, ours.keyOrder, differences);
+        if (!theirs.text.equals(ours.text)) {
+            for (String delta : textDiff.compare(theirs.text, ours.text)) {
+                differences.add(theirs.name + ": " + delta);
+            }
+        }
+    }
+
+    /**
+     * Report the first place where the items both outputs have come in a different order.
+     *
+     * Items only one side has are left out, since they are reported already; repeated items are told apart by
+     * occurrence, so moving one of two equal keys is noticed too.
+     */
+    private static void compareOrder(String what, List<String> theirOrder, List<String> ourOrder, List<String> differences) {
+        List<String> theirCommon = commonItems(theirOrder, ourOrder);
+        List<String> ourCommon = commonItems(ourOrder, theirOrder);
+        for (int i = 0; i < theirCommon.size(); ++i) {
+            if (!theirCommon.get(i).equals(ourCommon.get(i))) {
+                differences.add(String.format("%s in a different order: gdalinfo has %s where ours has %s", what,
+                                              theirCommon.get(i), ourCommon.get(i)));
+                return;
+            }
+        }
+    }
+
+    // The items of one list that the other also has, numbered by occurrence, in the order of the first list
+    private static List<String> commonItems(List<String> items, List<String> otherItems) {
+        Map<String, Integer> available = countOccurrences(otherItems);
+        Map<String, Integer> seen = new HashMap<String, Integer>();
+        List<String> common = new ArrayList<String>();
+        for (String item : items) {
+            Integer previous = seen.get(item);
+            int occurrence = (previous == null) ? 1 : previous + 1;
+            seen.put(item, occurrence);
+            Integer limit = available.get(item);
+            if ((limit != null) && (occurrence <= limit)) {
+                common.add((occurrence == 1) ? item : String.format("%s (occurrence %d)", item, occurrence));
+            }
+        }
+        return common;
+    }
+
+    private static Map<String, Integer> countOccurrences(List<String> items) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (String item : items) {
+            Integer count = counts.get(item);
+            counts.put(item, (count == null) ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    // The section headers in the order they appear, including the header section and any repeated headers
+    private static List<String> sectionOrder(List<String> lines) {
+        List<String> order = new ArrayList<String>();
+        for (String line : lines) {
+            if (isSectionHeader(line)) {
+                order.add(sectionName(line));
+            } else if (order.isEmpty()) {
+                order.add(HEADER_SECTION);
+            }
+        }
+        return order;
+    }
+
+    private static Map<String, Section> parse(List<String> lines) {
+        Map<String, Section> sections = new LinkedHashMap<String, Section>();
+        Section current = new Section(HEADER_SECTION);
+        sections.put(current.name, current);
+        for (String line : lines) {
+            if (isSectionHeader(line)) {
+                String name = sectionName(line);
+                current = sections.get(name);
+                if (current == null) {
+                    current = new Section(name);
+                    sections.put(name, current);
+                }
+                continue;
+            }
+            int separator = keyValueSeparator(line);
+            if (separator > 0) {
+                current.add(line.substring(2, separator), line.substring(separator + 1));
+            } else {
+                current.text.add(line);
+            }
+        }
+        if (sections.get(HEADER_SECTION).size() == 0) {
+            sections.remove(HEADER_SECTION);
+        }
+        return sections;
+    }
+
+    private static String sectionName(String headerLine) {
+        if (headerLine.equals(COORDINATE_SYSTEM_HEADER)) {
+            return "Coordinate System";
+        }
+        return headerLine.substring(0, headerLine.length() - 1);
+    }
+
+    private static boolean isSectionHeader(String line) {
+        if (!line.endsWith(":") || line.startsWith(" ")) {
+            return false;
+        }
+        return line.equals(COORDINATE_SYSTEM_HEADER)
+            || line.equals("Subdatasets:")
+            || line.endsWith("Metadata:")
+            || (line.startsWith("Metadata (") && line.endsWith("):"));
+    }
+
+    /**
+     * Find the '=' in a "  KEY=VALUE" line.
+     *
+     * @param line the line to check
+     * @return the index of the separator, or -1 if this is not a key/value line
+     */
+    private static int keyValueSeparator(String line) {
+        if ((line.length() < 4) || (line.charAt(0) != ' ') || (line.charAt(1) != ' ') || (line.charAt(2) == ' ')) {
+            return -1;
+        }
+        for (int i = 2; i < line.length(); ++i) {
+            char c = line.charAt(i);
+            if (c == '=') {
+                return (i > 2) ? i : -1;
+            }
+            if (Character.isWhitespace(c) || (c == '<')) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static class Section
+    {
+        final String name;
+        // Every value of each key, in the order they appear
+        final Map<String, List<String>> entries = new LinkedHashMap<String, List<String>>();
+        final List<String> keyOrder = new ArrayList<String>();
+        final List<String> text = new ArrayList<String>();
+
+        Section(String sectionName) {
+            name = sectionName;
+        }
+
+        void add(String key, String value) {
+            List<String> values = entries.get(key);
+            if (values == null) {
+                values = new ArrayList<String>(1);
+                entries.put(key, values);
+            }
+            values.add(value);
+            keyOrder.add(key);
+        }
+
+        int size() {
+            return keyOrder.size() + text.size();
+        }
+    }
+}
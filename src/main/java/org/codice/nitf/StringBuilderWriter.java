@@ -0,0 +1,74 @@
+package org.codice.nitf;
+
+import java.io.Writer;
+
+/**
+ * A Writer that appends to a StringBuilder the caller owns, so a rendering buffer can be reused from one file to the
+ * next. Unlike StringWriter it is not synchronized, and closing it does nothing, so the text stays available.
+ */
+class StringBuilderWriter extends Writer
+{
+    private final StringBuilder builder;
+
+    StringBuilderWriter(StringBuilder target) {
+        builder = target;
+    }
+
+    /**
+     * @return the builder the text is appended to
+     */
+    StringBuilder getBuilder() {
+        return builder;
+    }
+
+    @Override
+    public void write(int c) {
+        builder.append((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        builder.append(chars, offset, length);
+    }
+
+    @Override
+    public void write(String s) {
+        builder.append(s);
+    }
+
+    @Override
+    public void write(String s, int offset, int length) {
+        builder.append(s, offset, offset + length);
+    }
+
+    @Override
+    public Writer append(CharSequence csq) {
+        builder.append(csq);
+        return this;
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) {
+        builder.append(csq, start, end);
+        return this;
+    }
+
+    @Override
+    public Writer append(char c) {
+        builder.append(c);
+        return this;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public String toString() {
+        return builder.toString();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,163 @@
+package org.codice.nitf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codice.imaging.nitf.core.AbstractNitfSegment;
+import org.codice.imaging.nitf.core.NitfFile;
+import org.codice.imaging.nitf.core.Tre;
+
+/**
+ * The TREs of one segment, sorted once into the groups the rendering stages need.
+ *
+ * Building the index is a single pass over the segment's TREs, so the stages no longer each walk the whole
+ * collection comparing names. Each list keeps the TREs in the order they appear in the segment. An index is not
+ * changed after it is built, so it can be shared by comparisons running on different threads.
+ */
+class TreIndex
+{
+    private static final String RPC_TRE = "RPC00B";
+    private static final String ICHIP_TRE = "ICHIPB";
+
+    private final Map<String, List<Tre>> byName = new HashMap<String, List<Tre>>();
+    private final List<Tre> parsedTres = new ArrayList<Tre>();
+    private final List<Tre> oldStyleTres = new ArrayList<Tre>();
+    private boolean hasParsedTresOtherThanRpf = false;
+
+    /**
+     * Index the TREs of a segment.
+     *
+     * @param segment the segment (or the file header)
+     */
+    TreIndex(AbstractNitfSegment segment) {
+        this(segment.getTREsRawStructure().getTREs());
+    }
+
+    /**
+     * Index a list of TREs.
+     *
+     * @param tres the TREs, in segment order
+     */
+    TreIndex(List<Tre> tres) {
+        for (Tre tre : tres) {
+            String name = tre.getName();
+            List<Tre> named = byName.get(name);
+            if (named == null) {
+                named = new ArrayList<Tre>(1);
+                byName.put(name, named);
+            }
+            named.add(tre);
+            boolean parsed = (tre.getRawData() == null);
+            if (parsed) {
+                parsedTres.add(tre);
+                if (!isRpfTre(name)) {
+                    hasParsedTresOtherThanRpf = true;
+                }
+            }
+            // TREs with a prefix are probably old-style NITF metadata fields; GDAL also reports ICHIPB as metadata
+            if ((tre.getPrefix() != null) || ICHIP_TRE.equals(name)) {
+                oldStyleTres.add(tre);
+            }
+        }
+    }
+
+    /**
+     * Index the TREs of every segment of a file.
+     *
+     * @param nitf the parsed headers
+     * @return the indexes for the file
+     */
+    static FileTreIndex forFile(NitfFile nitf) {
+        return new FileTreIndex(nitf);
+    }
+
+    private static boolean isRpfTre(String name) {
+        return name.equals("RPFHDR") || name.equals("RPFIMG") || name.equals("RPFDES");
+    }
+
+    /**
+     * @param name the TRE name
+     * @return the TREs with that name, possibly none
+     */
+    List<Tre> getTres(String name) {
+        List<Tre> named = byName.get(name);
+        if (named == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(named);
+    }
+
+    /**
+     * @return the TREs the parser understood (rather than just kept the raw bytes of)
+     */
+    List<Tre> getParsedTres() {
+        return Collections.unmodifiableList(parsedTres);
+    }
+
+    /**
+     * @return true if the parser understood any TRE apart from the RPF ones, which GDAL leaves out of xml:TRE
+     */
+    boolean hasParsedTresOtherThanRpf() {
+        return hasParsedTresOtherThanRpf;
+    }
+
+    /**
+     * @return the TREs GDAL reports as ordinary metadata: the ones with a prefix, and ICHIPB
+     */
+    List<Tre> getOldStyleTres() {
+        return Collections.unmodifiableList(oldStyleTres);
+    }
+
+    /**
+     * @return the RPC00B TREs
+     */
+    List<Tre> getRpcTres() {
+        return getTres(RPC_TRE);
+    }
+
+    /**
+     * @return true if there is an RPC00B TRE
+     */
+    boolean hasRpc() {
+        return byName.containsKey(RPC_TRE);
+    }
+
+    /**
+     * The TRE indexes for a whole file, built once after the headers are parsed.
+     */
+    static class FileTreIndex
+    {
+        private final TreIndex fileHeader;
+        private final List<TreIndex> imageSegments = new ArrayList<TreIndex>();
+        private final List<TreIndex> dataExtensionSegments = new ArrayList<TreIndex>();
+
+        private FileTreIndex(NitfFile nitf) {
+            fileHeader = new TreIndex(nitf);
+            for (int i = 1; i <= nitf.getNumberOfImageSegments(); ++i) {
+                imageSegments.add(new TreIndex(nitf.getImageSegment(i)));
+            }
+            for (int i = 1; i <= nitf.getNumberOfDataExtensionSegments(); ++i) {
+                dataExtensionSegments.add(new TreIndex(nitf.getDataExtensionSegment(i)));
+            }
+        }
+
+        TreIndex getFileHeader() {
+            return fileHeader;
+        }
+
+        /**
+         * @param imageSegmentNumber the image segment, starting at 1
+         * @return the index for that image segment
+         */
+        TreIndex getImageSegment(int imageSegmentNumber) {
+            return imageSegments.get(imageSegmentNumber - 1);
+        }
+
+        List<TreIndex> getDataExtensionSegments() {
+            return Collections.unmodifiableList(dataExtensionSegments);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.codice.nitf;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import org.codice.imaging.nitf.core.Tre;
+import org.codice.imaging.nitf.core.TreEntry;
+import org.codice.imaging.nitf.core.TreGroup;
+
+/**
+ * Writes TREs in the xml:TRE layout gdalinfo uses.
+ *
+ * Output is built in a char buffer that is reused until it fills, and only then handed to the underlying writer, so
+ * call {@link #flush()} before writing anything else to it. The buffer belongs to the thread rather than the writer,
+ * so rendering a file does not allocate one; only one TreXmlWriter per thread may be in use at a time. Attribute
+ * values are escaped the way GDAL escapes them (&amp;, &lt;, &gt; and &quot;), and anything without those characters
+ * comes out exactly as it always has.
+ */
+class TreXmlWriter
+{
+    private static final int BUFFER_SIZE = 8192;
+    private static final int INDENT_WIDTH = 2;
+    // Enough spaces for any indent we are likely to see; deeper levels are written in several pieces
+    private static final char[] INDENT = new char[64 * INDENT_WIDTH];
+
+    private static final ThreadLocal<char[]> BUFFERS = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[BUFFER_SIZE];
+        }
+    };
+
+    static {
+        Arrays.fill(INDENT, ' ');
+    }
+
+    private final Writer out;
+    private final char[] buffer = BUFFERS.get();
+    private int position = 0;
+
+    TreXmlWriter(Writer output) {
+        out = output;
+    }
+
+    /**
+     * Write one TRE, with all of its fields and repeated groups.
+     *
+     * @param tre the TRE
+     * @param location the location attribute, such as "image"
+     * @throws IOException if the output could not be written
+     */
+    void writeTre(Tre tre, String location) throws IOException {
+        String name = tre.getName();
+        int nameStart = 0;
+        int nameEnd = name.length();
+        while ((nameStart < nameEnd) && (name.charAt(nameStart) <= ' ')) {
+            nameStart++;
+        }
+        while ((nameEnd > nameStart) && (name.charAt(nameEnd - 1) <= ' ')) {
+            nameEnd--;
+        }
+        indent(1);
+        put("<tre name=\"");
+        putEscaped(name, nameStart, nameEnd);
+        put("\" location=\"");
+        putEscaped(location, 0, location.length());
+        put("\">\n");
+        for (TreEntry entry : tre.getEntries()) {
+            writeEntry(entry, 2);
+        }
+        indent(1);
+        put("</tre>\n");
+    }
+
+    /**
+     * Pass everything buffered so far on to the underlying writer.
+     *
+     * @throws IOException if the output could not be written
+     */
+    void flush() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private void writeEntry(TreEntry entry, int indentLevel) throws IOException {
+        String value = entry.getFieldValue();
+        if (value != null) {
+            int valueEnd = value.length();
+            while ((valueEnd > 0) && Character.isWhitespace(value.charAt(valueEnd - 1))) {
+                valueEnd--;
+            }
+            indent(indentLevel);
+            put("<field name=\"");
+            putEscaped(entry.getName(), 0, entry.getName().length());
+            put("\" value=\"");
+            putEscaped(value, 0, valueEnd);
+            put("\" />\n");
+        }
+        if ((entry.getGroups() != null) && (entry.getGroups().size() > 0)) {
+            indent(indentLevel);
+            put("<repeated name=\"");
+            putEscaped(entry.getName(), 0, entry.getName().length());
+            put("\" number=\"");
+            putNumber(entry.getGroups().size());
+            put("\">\n");
+            int i = 0;
+            for (TreGroup group : entry.getGroups()) {
+                indent(indentLevel + 1);
+                put("<group index=\"");
+                putNumber(i);
+                put("\">\n");
+                for (TreEntry groupEntry : group.getEntries()) {
+                    writeEntry(groupEntry, indentLevel + 2);
+                }
+                indent(indentLevel + 1);
+                put("</group>\n");
+                i = i + 1;
+            }
+            indent(indentLevel);
+            put("</repeated>\n");
+        }
+    }
+
+    private void indent(int indentLevel) throws IOException {
+        int remaining = indentLevel * INDENT_WIDTH;
+        while (remaining > 0) {
+            int chunk = Math.min(remaining, INDENT.length);
+            put(INDENT, chunk);
+            remaining -= chunk;
+        }
+    }
+
+    private void putEscaped(String s, int start, int end) throws IOException {
+        int runStart = start;
+        for (int i = start; i < end; ++i) {
+            String replacement;
+            switch (s.charAt(i)) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                default:
+                    continue;
+            }
+            put(s, runStart, i);
+            put(replacement);
+            runStart = i + 1;
+        }
+        put(s, runStart, end);
+    }
+
+    private void putNumber(int number) throws IOException {
+        if (number >= 10) {
+            putNumber(number / 10);
+        }
+        if (position == buffer.length) {
+            flush();
+        }
+        buffer[position++] = (char) ('0' + (number % 10));
+    }
+
+    private void put(String s) throws IOException {
+        put(s, 0, s.length());
+    }
+
+    private void put(String s, int start, int end) throws IOException {
+        int from = start;
+        while (from < end) {
+            if (position == buffer.length) {
+                flush();
+            }
+            int chunkEnd = Math.min(end, from + buffer.length - position);
+            s.getChars(from, chunkEnd, buffer, position);
+            position += chunkEnd - from;
+            from = chunkEnd;
+        }
+    }
+
+    private void put(char[] chars, int length) throws IOException {
+        if (position + length > buffer.length) {
+            flush();
+        }
+        System.arraycopy(chars, 0, buffer, position, length);
+        position += length;
+    }
+}
@@ -0,0 +1,25 @@
+package org.codice.nitf;
+
+/**
+ * The outcome of comparing a single file.
+ */
+public enum Verdict
+{
+    /** Our output and the gdalinfo output were identical. */
+    MATCH,
+    /** There was at least one difference between our output and the gdalinfo output. */
+    MISMATCH,
+    /** The comparison could not be completed. */
+    ERROR,
+    /** The file is not a NITF file, so it was not compared. */
+    NOT_NITF,
+    /** The file starts like a NITF file but is shorter than its header says, so it was not compared. */
+    TRUNCATED;
+
+    /**
+     * @return true if the file was actually compared, false if it was rejected up front
+     */
+    public boolean wasCompared() {
+        return (this == MATCH) || (this == MISMATCH) || (this == ERROR);
+    }
+}
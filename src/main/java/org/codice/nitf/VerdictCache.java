@@ -0,0 +1,437 @@
+package org.codice.nitf;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk cache of comparison results, so unchanged files are not compared again on the next run.
+ *
+ * Entries are keyed by a hash of the file content, the gdalinfo version and the version of this tool, so a new
+ * GDAL build or a new parser invalidates them. The content hash covers the file size and everything the metadata
+ * comes from, the headers, subheaders and TREs, but not the image data (see {@link HeaderDigest}), so it reads no
+ * more of a file than the header parse does. We also remember the content hash for each path along with its size
+ * and modification time, and only hash again when those change. Because the key is the content, identical copies
+ * of a file at different paths share a single entry; the file name is replaced by a placeholder in the lines of the
+ * stored output that name the dataset.
+ *
+ * Every file in the cache is written to a temporary name and moved into place, so concurrent workers (including
+ * other processes sharing the same cache directory) never see partial entries. Within this process, only one
+ * worker compares a given content key at a time; the others wait and then use its result.
+ *
+ * The cache is bounded in size, counting both the entries and the remembered content hashes. Each is touched when it
+ * is used, and the least recently used are removed when the cache grows past its limit.
+ */
+class VerdictCache
+{
+    private static final String ENTRY_MAGIC = "NITF-COMPARISON-CACHE 1";
+    // Marks remembered content hashes that were made the way hashContent() makes them now
+    private static final String CONTENT_HASH_KIND = "header";
+    // How much we let the cache grow between eviction passes
+    private static final long EVICTION_SLACK_BYTES = 16 * 1024 * 1024;
+    // Temporary files older than this were left behind by a process that died
+    private static final long STALE_TEMPORARY_FILE_MILLIS = 60 * 60 * 1000;
+
+    private final Path entriesDirectory;
+    private final Path pathsDirectory;
+    private final Path cacheDirectory;
+    private final String configuration;
+    private final long maxBytes;
+    private final AtomicLong bytesSinceEviction = new AtomicLong(0);
+    private final ConcurrentMap<String, CountDownLatch> inFlight = new ConcurrentHashMap<String, CountDownLatch>();
+
+    /**
+     * A cached comparison result.
+     */
+    static class Entry
+    {
+        final Verdict verdict;
+        final List<String> ourLines;
+        final List<String> theirLines;
+
+        Entry(Verdict verdict, List<String> ourLines, List<String> theirLines) {
+            this.verdict = verdict;
+            this.ourLines = ourLines;
+            this.theirLines = theirLines;
+        }
+    }
+
+    /**
+     * Open (or create) a cache.
+     *
+     * @param directory the directory to keep the cache in
+     * @param maximumBytes the size the cache is trimmed back to
+     * @param configurationDescription everything apart from the file content that affects the comparison result,
+     * such as the gdalinfo and tool versions
+     * @throws IOException if the cache directory could not be created
+     */
+    VerdictCache(Path directory, long maximumBytes, String configurationDescription) throws IOException {
+        cacheDirectory = directory;
+        entriesDirectory = directory.resolve("entries");
+        pathsDirectory = directory.resolve("paths");
+        Files.createDirectories(entriesDirectory);
+        Files.createDirectories(pathsDirectory);
+        maxBytes = maximumBytes;
+        configuration = configurationDescription;
+    }
+
+    /**
+     * Work out the cache key for a file.
+     *
+     * @param file the file to be compared
+     * @return the cache key
+     * @throws IOException if the file could not be read
+     */
+    String keyFor(Path file) throws IOException {
+        return hexDigest(contentHashFor(file, null, null) + "\n" + extensionOf(file.getFileName().toString()) + "\n" + configuration);
+    }
+
+    /**
+     * Work out the cache key for a member of an archive.
+     *
+     * The key is made from the member's own content, just as for a file, so changing one member of an archive does
+     * not mean comparing the others again. The member is only hashed again when the archive changes.
+     *
+     * @param member the archive member to be compared
+     * @param archiveReader where to read the member from
+     * @return the cache key
+     * @throws IOException if the archive could not be read
+     */
+    String keyForArchiveMember(ArchiveReader.Member member, ArchiveReader archiveReader) throws IOException {
+        return hexDigest(contentHashFor(member.getArchive(), member, archiveReader) + "\n" + extensionOf(member.getName())
+                         + "\n" + configuration);
+    }
+
+    // The extension matters because RPF names are only reported for files not ending in .ntf
+    private static String extensionOf(String name) {
+        String fileName = name.substring(name.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+        return fileName.contains(".") ? fileName.substring(fileName.lastIndexOf('.')) : "";
+    }
+
+    /**
+     * Work out the cache key for one image segment of a file, compared on its own.
+     *
+     * @param fileKey the key for the whole file, from {@link #keyFor(Path)}
+     * @param imageSegmentNumber the image segment number, starting at 1
+     * @return the key
+     */
+    String keyForImageSegment(String fileKey, int imageSegmentNumber) {
+        return hexDigest(fileKey + "\nimage segment " + imageSegmentNumber);
+    }
+
+    /**
+     * Look up a cached result, or claim the right to produce it.
+     *
+     * If this returns null, the caller must compare the file and then call {@link #release(String)}, whether or
+     * not it managed to {@link #store} a result. Other callers asking for the same key wait until then.
+     *
+     * @param key the cache key
+     * @param filename the name of the file being compared, which is substituted back into the stored output
+     * @return the cached result, or null if the caller should produce it
+     * @throws InterruptedException if interrupted while waiting for another worker
+     */
+    Entry lookupOrClaim(String key, String filename) throws InterruptedException {
+        while (true) {
+            Entry entry = readEntry(entryPath(key), filename);
+            if (entry != null) {
+                return entry;
+            }
+            CountDownLatch claim = new CountDownLatch(1);
+            CountDownLatch existingClaim = inFlight.putIfAbsent(key, claim);
+            if (existingClaim == null) {
+                return null;
+            }
+            existingClaim.await();
+        }
+    }
+
+    /**
+     * Store a comparison result.
+     *
+     * @param key the cache key
+     * @param filename the name of the file that was compared
+     * @param verdict the verdict for the file
+     * @param ourLines our output
+     * @param theirLines the gdalinfo output
+     */
+    void store(String key, String filename, Verdict verdict, List<String> ourLines, List<String> theirLines) {
+        Path entryPath = entryPath(key);
+        try {
+            Files.createDirectories(entryPath.getParent());
+            Path temporary = Files.createTempFile(entryPath.getParent(), "entry", ".tmp");
+            BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8);
+            try {
+                writer.write(ENTRY_MAGIC + "\n");
+                writer.write(verdict.name() + "\n");
+                writeLines(writer, ourLines, filename);
+                writeLines(writer, theirLines, filename);
+            } finally {
+                writer.close();
+            }
+            long size = Files.size(temporary);
+            moveIntoPlace(temporary, entryPath);
+            if (bytesSinceEviction.addAndGet(size) > EVICTION_SLACK_BYTES) {
+                bytesSinceEviction.set(0);
+                evict();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write cache entry for " + filename + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Give up the claim on a key obtained from {@link #lookupOrClaim}.
+     *
+     * @param key the cache key
+     */
+    void release(String key) {
+        CountDownLatch claim = inFlight.remove(key);
+        if (claim != null) {
+            claim.countDown();
+        }
+    }
+
+    /**
+     * Trim the cache back to its size limit, removing the least recently used entries and remembered content hashes
+     * first. Temporary files left behind by a process that died are removed whatever the size.
+     */
+    void evict() {
+        final List<Path> files = new ArrayList<Path>();
+        final List<BasicFileAttributes> attributes = new ArrayList<BasicFileAttributes>();
+        long totalBytes = 0;
+        try {
+            totalBytes += scanBuckets(entriesDirectory, files, attributes);
+            totalBytes += scanBuckets(pathsDirectory, files, attributes);
+        } catch (IOException e) {
+            System.err.println("Could not scan cache " + cacheDirectory + ": " + e.getMessage());
+            return;
+        }
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < files.size(); ++i) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return attributes.get(a).lastModifiedTime().compareTo(attributes.get(b).lastModifiedTime());
+            }
+        });
+        for (int i : order) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(files.get(i));
+            } catch (IOException e) {
+                // Leave it for the next pass
+                continue;
+            }
+            totalBytes -= attributes.get(i).size();
+        }
+    }
+
+    /**
+     * List the files in the buckets of a cache directory, with their attributes, deleting stale temporary files.
+     *
+     * @return the total size of the files listed
+     */
+    private static long scanBuckets(Path directory, List<Path> files, List<BasicFileAttributes> attributes) throws IOException {
+        long totalBytes = 0;
+        DirectoryStream<Path> buckets = Files.newDirectoryStream(directory);
+        try {
+            for (Path bucket : buckets) {
+                DirectoryStream<Path> bucketFiles = Files.newDirectoryStream(bucket);
+                try {
+                    for (Path file : bucketFiles) {
+                        try {
+                            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                            if (file.getFileName().toString().endsWith(".tmp")) {
+                                long age = System.currentTimeMillis() - attrs.lastModifiedTime().toMillis();
+                                if (age >= STALE_TEMPORARY_FILE_MILLIS) {
+                                    Files.deleteIfExists(file);
+                                }
+                                // Otherwise probably still being written
+                                continue;
+                            }
+                            files.add(file);
+                            attributes.add(attrs);
+                            totalBytes += attrs.size();
+                        } catch (NoSuchFileException e) {
+                            // Another process evicted it first
+                        } catch (IOException e) {
+                            // Leave it for the next pass
+                        }
+                    }
+                } finally {
+                    bucketFiles.close();
+                }
+            }
+        } finally {
+            buckets.close();
+        }
+        return totalBytes;
+    }
+
+    private Entry readEntry(Path entryPath, String filename) {
+        try {
+            BufferedReader reader = Files.newBufferedReader(entryPath, StandardCharsets.UTF_8);
+            Entry entry;
+            try {
+                if (!ENTRY_MAGIC.equals(reader.readLine())) {
+                    return null;
+                }
+                String verdictName = reader.readLine();
+                if (verdictName == null) {
+                    return null;
+                }
+                Verdict verdict = Verdict.valueOf(verdictName);
+                List<String> ourLines = readLines(reader, filename);
+                List<String> theirLines = readLines(reader, filename);
+                entry = new Entry(verdict, ourLines, theirLines);
+            } finally {
+                reader.close();
+            }
+            // Mark this entry as recently used
+            Files.setLastModifiedTime(entryPath, FileTime.fromMillis(System.currentTimeMillis()));
+            return entry;
+        } catch (IOException e) {
+            // Usually just not cached yet
+            return null;
+        } catch (IllegalArgumentException e) {
+            // Corrupt or truncated entry, treat it as missing
+            return null;
+        }
+    }
+
+    private static void writeLines(BufferedWriter writer, List<String> lines, String filename) throws IOException {
+        writer.write(lines.size() + "\n");
+        for (String line : lines) {
+            writer.write(FilenamePlaceholder.hide(line, filename));
+            writer.write("\n");
+        }
+    }
+
+    private static List<String> readLines(BufferedReader reader, String filename) throws IOException {
+        String countLine = reader.readLine();
+        if (countLine == null) {
+            throw new IOException("Truncated cache entry");
+        }
+        int count = Integer.parseInt(countLine);
+        List<String> lines = new ArrayList<String>(count);
+        for (int i = 0; i < count; ++i) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Truncated cache entry");
+            }
+            lines.add(FilenamePlaceholder.restore(line, filename));
+        }
+        return lines;
+    }
+
+    /**
+     * Find the content hash of a file or archive member, from what we remember of the path if it has not changed.
+     *
+     * @param file the file, or the archive holding the member
+     * @param member the archive member, or null for a file
+     * @param archiveReader where to read the member from, or null for a file
+     */
+    private String contentHashFor(Path file, ArchiveReader.Member member, ArchiveReader archiveReader) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        String fingerprint = CONTENT_HASH_KIND + " " + attrs.size() + " " + attrs.lastModifiedTime().toMillis();
+        String path = file.toAbsolutePath().toString();
+        if (member != null) {
+            path += "\n" + member.getName();
+        }
+        Path pathEntry = bucketPath(pathsDirectory, hexDigest(path));
+        try {
+            List<String> lines = Files.readAllLines(pathEntry, StandardCharsets.UTF_8);
+            if ((lines.size() == 2) && lines.get(0).equals(fingerprint)) {
+                // Mark it as recently used, as for entries
+                Files.setLastModifiedTime(pathEntry, FileTime.fromMillis(System.currentTimeMillis()));
+                return lines.get(1);
+            }
+        } catch (IOException e) {
+            // Not seen before, or being replaced by another process
+        }
+        HeaderInputStream input = (member == null) ? new HeaderInputStream(file) : archiveReader.openHeaderInput(member);
+        String contentHash;
+        try {
+            contentHash = hashContent(input);
+        } finally {
+            input.close();
+        }
+        Files.createDirectories(pathEntry.getParent());
+        Path temporary = Files.createTempFile(pathEntry.getParent(), "path", ".tmp");
+        Files.write(temporary, (fingerprint + "\n" + contentHash + "\n").getBytes(StandardCharsets.UTF_8));
+        moveIntoPlace(temporary, pathEntry);
+        return contentHash;
+    }
+
+    private static String hashContent(HeaderInputStream input) throws IOException {
+        MessageDigest digest = newDigest();
+        // The size covers whatever the header region leaves out, such as data after the last segment
+        digest.update((input.getRemainingLength() + "\n").getBytes(StandardCharsets.UTF_8));
+        HeaderDigest.update(input, digest);
+        return toHex(digest.digest());
+    }
+
+    private static void moveIntoPlace(Path temporary, Path target) throws IOException {
+        try {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private Path entryPath(String key) {
+        return bucketPath(entriesDirectory, key);
+    }
+
+    // Spread files over subdirectories so no single directory gets huge
+    private static Path bucketPath(Path directory, String hexName) {
+        return directory.resolve(hexName.substring(0, 2)).resolve(hexName);
+    }
+
+    private static String hexDigest(String text) {
+        return toHex(newDigest().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is always available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b & 0xFF));
+        }
+        return builder.toString();
+    }
+}
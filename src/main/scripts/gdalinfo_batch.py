@@ -0,0 +1,40 @@
+#!/usr/bin/env python3
+"""Long-lived gdalinfo helper for FileComparison's batch oracle (--oracle batch).
+
+Reads one path per line on standard input. For each path, writes the same output as
+"gdalinfo -nogcp -mdd xml:TRE <path>", followed by a line "@@END <status>", where a
+non-zero status means the file could not be opened. A request of "--version" is
+answered with the GDAL version line.
+
+Needs the GDAL Python bindings (GDAL 2.1 or later, for gdal.Info).
+"""
+
+import sys
+
+from osgeo import gdal
+
+gdal.SetConfigOption("NITF_OPEN_UNDERLYING_DS", "NO")
+gdal.UseExceptions()
+
+INFO_OPTIONS = gdal.InfoOptions(options=["-nogcp", "-mdd", "xml:TRE"])
+
+
+def describe(path):
+    if path == "--version":
+        return gdal.VersionInfo("--version") + "\n", 0
+    try:
+        dataset = gdal.Open(path)
+        text = gdal.Info(dataset, options=INFO_OPTIONS)
+        dataset = None
+        return text, 0
+    except RuntimeError as e:
+        return str(e) + "\n", 1
+
+
+for line in sys.stdin:
+    text, status = describe(line.rstrip("\n"))
+    if text and not text.endswith("\n"):
+        text += "\n"
+    sys.stdout.write(text)
+    sys.stdout.write("@@END %d\n" % status)
+    sys.stdout.flush()
@@ -0,0 +1,14 @@
+#!/bin/sh
+# Minimal helper for FileComparison's batch oracle (--oracle batch).
+#
+# This still runs gdalinfo once per file, so it is mostly useful as a reference for the
+# protocol, or as a starting point for a stand-in that does not need GDAL at all:
+# read a path per line, write the gdalinfo output for it, then "@@END <status>".
+while IFS= read -r path; do
+    if [ "$path" = "--version" ]; then
+        gdalinfo --version
+    else
+        gdalinfo -nogcp -mdd xml:TRE "$path"
+    fi
+    echo "@@END $?"
+done
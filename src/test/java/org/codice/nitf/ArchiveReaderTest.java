@@ -0,0 +1,284 @@
+package org.codice.nitf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reads tar archives in the ustar, GNU and pax flavours, built a block at a time here so each header is known.
+ */
+public class ArchiveReaderTest
+{
+    private static final int BLOCK_SIZE = 512;
+    // Too long for the 100 bytes of the name field, but fits the 155 bytes of the ustar prefix
+    private static final String USTAR_DIRECTORY = repeat("directory-", 12);
+    // Too long for either
+    private static final String LONG_DIRECTORY = repeat("directory-", 12) + "/" + repeat("nested-", 20);
+    private static final String LONG_NAME = LONG_DIRECTORY + "/" + repeat("file-", 25) + ".ntf";
+    private static final String UNICODE_NAME = "caf\u00e9/\u5730\u56f3.ntf";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ByteArrayOutputStream tar = new ByteArrayOutputStream();
+
+    @Test
+    public void readsUstarNamesAndPrefixes() throws IOException {
+        addHeader("plain.ntf", '0', 5, true, null);
+        addData("first");
+        addHeader("dir/", '5', 0, true, null);
+        // Split between the prefix and the name fields
+        addHeader("file.ntf", '0', 1000, true, USTAR_DIRECTORY);
+        addData(repeat("x", 1000));
+        addHeader("link.ntf", '2', 0, true, null);
+        addHeader("contiguous.ntf", '7', 3, true, null);
+        addData("abc");
+        addHeader("empty.ntf", '0', 0, true, null);
+        finish();
+        Path archive = write("ustar.tar");
+        assertMembers(archive, "plain.ntf", USTAR_DIRECTORY + "/file.ntf", "contiguous.ntf", "empty.ntf");
+        assertContent(archive, "plain.ntf", "first");
+        assertContent(archive, USTAR_DIRECTORY + "/file.ntf", repeat("x", 1000));
+        assertContent(archive, "contiguous.ntf", "abc");
+        assertContent(archive, "empty.ntf", "");
+    }
+
+    @Test
+    public void readsOldStyleHeaders() throws IOException {
+        // Before ustar there is no prefix field, so whatever is there is not part of the name
+        addHeader("old.ntf", '\0', 4, false, "ignored");
+        addData("data");
+        finish();
+        Path archive = write("v7.tar");
+        assertMembers(archive, "old.ntf");
+        assertContent(archive, "old.ntf", "data");
+    }
+
+    @Test
+    public void readsGnuLongNames() throws IOException {
+        addLongName(LONG_NAME);
+        addHeader(LONG_NAME.substring(0, 99), '0', 700, true, null);
+        addData(repeat("y", 700));
+        // The long name only applies to the entry after it
+        addHeader("short.ntf", '0', 2, true, null);
+        addData("zz");
+        addLongName(LONG_DIRECTORY + "/");
+        addHeader(LONG_DIRECTORY.substring(0, 99), '5', 0, true, null);
+        addLongName(LONG_DIRECTORY + "/last.ntf");
+        addHeader("truncated name", '0', 1, true, null);
+        addData("!");
+        finish();
+        Path archive = write("gnu.tar");
+        assertMembers(archive, LONG_NAME, "short.ntf", LONG_DIRECTORY + "/last.ntf");
+        assertContent(archive, LONG_NAME, repeat("y", 700));
+        assertContent(archive, "short.ntf", "zz");
+        assertContent(archive, LONG_DIRECTORY + "/last.ntf", "!");
+    }
+
+    @Test
+    public void readsPaxPathsAndSizes() throws IOException {
+        addPax('g', paxRecord("comment", "global headers apply to the whole archive, and are skipped"));
+        addPax('x', paxRecord("path", LONG_NAME) + paxRecord("mtime", "1700000000.5"));
+        addHeader("PaxHeaders/ignored", '0', 4, true, null);
+        addData("pax!");
+        // A size too big for the octal field is given in the extended header, and the header's own size is ignored
+        addPax('x', paxRecord("size", "1300"));
+        addHeader("sized.ntf", '0', 0, true, null);
+        addData(repeat("s", 1300));
+        addHeader("after.ntf", '0', 3, true, null);
+        addData("end");
+        // Unicode names are UTF-8 in pax records
+        addPax('x', paxRecord("path", UNICODE_NAME));
+        addHeader("ascii fallback", '0', 1, true, null);
+        addData("u");
+        finish();
+        Path archive = write("pax.tar");
+        assertMembers(archive, LONG_NAME, "sized.ntf", "after.ntf", UNICODE_NAME);
+        assertContent(archive, LONG_NAME, "pax!");
+        assertContent(archive, "sized.ntf", repeat("s", 1300));
+        assertContent(archive, "after.ntf", "end");
+        assertContent(archive, UNICODE_NAME, "u");
+    }
+
+    @Test
+    public void readsBase256Sizes() throws IOException {
+        byte[] header = header("big.ntf", '0', 0, true, null);
+        Arrays.fill(header, 124, 136, (byte) 0);
+        header[124] = (byte) 0x80;
+        header[134] = 0x02;
+        header[135] = 0x01;
+        setChecksum(header);
+        tar.write(header);
+        addData(repeat("b", 513));
+        finish();
+        Path archive = write("base256.tar");
+        assertMembers(archive, "big.ntf");
+        assertContent(archive, "big.ntf", repeat("b", 513));
+    }
+
+    @Test
+    public void stopsAtEndOfArchiveWithoutTrailingBlocks() throws IOException {
+        addHeader("only.ntf", '0', 2, true, null);
+        addData("ok");
+        Path archive = write("unterminated.tar");
+        assertMembers(archive, "only.ntf");
+    }
+
+    @Test
+    public void rejectsTruncatedArchive() throws IOException {
+        addHeader("cut.ntf", '0', 2000, true, null);
+        addData("not enough");
+        assertUnreadable(write("truncated.tar"));
+    }
+
+    @Test
+    public void rejectsBadChecksum() throws IOException {
+        byte[] header = header("bad.ntf", '0', 0, true, null);
+        header[0] = 'B';
+        tar.write(header);
+        finish();
+        assertUnreadable(write("checksum.tar"));
+    }
+
+    private void assertMembers(Path archive, String... expected) throws IOException {
+        List<String> names = new ArrayList<String>();
+        for (ArchiveReader.Member member : ArchiveReader.listMembers(archive, ArchiveReader.Format.TAR)) {
+            names.add(member.getName());
+            assertEquals("/vsitar/" + archive + "/" + member.getName(), member.getDatasetName());
+        }
+        assertEquals(Arrays.asList(expected), names);
+    }
+
+    private static void assertContent(Path archive, String name, String expected) throws IOException {
+        ArchiveReader reader = new ArchiveReader();
+        try {
+            ArchiveReader.Member member = ArchiveReader.Member.parse("/vsitar/" + archive + "/" + name);
+            assertEquals(name, member.getName());
+            HeaderInputStream input = reader.openHeaderInput(member);
+            try {
+                assertEquals(expected.length(), input.getRemainingLength());
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[100];
+                int count;
+                while ((count = input.read(buffer, 0, buffer.length)) != -1) {
+                    content.write(buffer, 0, count);
+                }
+                assertEquals(expected, new String(content.toByteArray(), StandardCharsets.UTF_8));
+            } finally {
+                input.close();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void assertUnreadable(Path archive) {
+        try {
+            ArchiveReader.listMembers(archive, ArchiveReader.Format.TAR);
+            fail("Read " + archive);
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private Path write(String name) throws IOException {
+        Path archive = folder.getRoot().toPath().resolve(name);
+        Files.write(archive, tar.toByteArray());
+        return archive;
+    }
+
+    private void addHeader(String name, char type, long size, boolean ustar, String prefix) throws IOException {
+        tar.write(header(name, type, size, ustar, prefix));
+    }
+
+    private void addLongName(String name) throws IOException {
+        byte[] data = (name + "\0").getBytes(StandardCharsets.UTF_8);
+        addHeader("././@LongLink", 'L', data.length, true, null);
+        addData(data);
+    }
+
+    private void addPax(char type, String records) throws IOException {
+        byte[] data = records.getBytes(StandardCharsets.UTF_8);
+        addHeader("PaxHeaders/entry", type, data.length, true, null);
+        addData(data);
+    }
+
+    private void addData(String data) throws IOException {
+        addData(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Data is padded out to a whole number of blocks
+    private void addData(byte[] data) throws IOException {
+        tar.write(data);
+        int padding = (BLOCK_SIZE - data.length % BLOCK_SIZE) % BLOCK_SIZE;
+        tar.write(new byte[padding]);
+    }
+
+    private void finish() throws IOException {
+        tar.write(new byte[2 * BLOCK_SIZE]);
+    }
+
+    private static byte[] header(String name, char type, long size, boolean ustar, String prefix) {
+        byte[] header = new byte[BLOCK_SIZE];
+        put(header, 0, 100, name);
+        put(header, 100, 8, "0000644");
+        put(header, 108, 8, "0001750");
+        put(header, 116, 8, "0001750");
+        put(header, 124, 12, String.format("%011o", size));
+        put(header, 136, 12, "14500000000");
+        header[156] = (byte) type;
+        if (ustar) {
+            put(header, 257, 6, "ustar");
+            put(header, 263, 2, "00");
+        }
+        if (prefix != null) {
+            put(header, 345, 155, prefix);
+        }
+        setChecksum(header);
+        return header;
+    }
+
+    private static void setChecksum(byte[] header) {
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long sum = 0;
+        for (byte b : header) {
+            sum += b & 0xFF;
+        }
+        put(header, 148, 8, String.format("%06o", sum));
+    }
+
+    private static void put(byte[] header, int offset, int length, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+    }
+
+    // "LENGTH KEY=VALUE\n", where the length counts itself
+    private static String paxRecord(String key, String value) {
+        int length = key.length() + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int digits = Integer.toString(length).length();
+        while (Integer.toString(length + digits).length() != digits) {
+            ++digits;
+        }
+        return (length + digits) + " " + key + "=" + value + "\n";
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder repeated = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            repeated.append(text);
+        }
+        return repeated.toString();
+    }
+}
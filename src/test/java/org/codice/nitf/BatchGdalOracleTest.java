@@ -0,0 +1,145 @@
+package org.codice.nitf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs BatchGdalOracle against a small shell helper that answers, fails, dies or hangs depending on the file name.
+ */
+public class BatchGdalOracleTest
+{
+    private static final long TIMEOUT_SECONDS = 20;
+    private static final String VERSION = "GDAL 9.9.9, released 2099/01/01";
+    // Each start and each request is logged, so the test can see which helper did what
+    private static final String HELPER_SCRIPT = "log=\"$1\"\n"
+        + "echo start >> \"$log\"\n"
+        + "while IFS= read -r path; do\n"
+        + "    echo \"request $path\" >> \"$log\"\n"
+        + "    case \"$path\" in\n"
+        + "        --version) echo \"" + VERSION + "\"; echo \"@@END 0\" ;;\n"
+        + "        *fail*) echo \"ERROR 4: not recognized as a supported file format\"; echo \"@@END 2\" ;;\n"
+        + "        *die*) echo \"Driver: NITF/National Imagery Transmission Format\"; exit 1 ;;\n"
+        + "        *hang*) echo \"Driver: NITF/National Imagery Transmission Format\"; exec sleep 60 ;;\n"
+        + "        *slow*) sleep 1; echo \"Files: $path\"; echo \"@@END\" ;;\n"
+        + "        *) echo \"Driver: NITF/National Imagery Transmission Format\"\n"
+        + "           echo \"Files: $path\"\n"
+        + "           echo \"Origin = (0.0,0.0)\"\n"
+        + "           echo \"Corner Coordinates:\"\n"
+        + "           echo \"Upper Left  (   0.0,    0.0)\"\n"
+        + "           echo \"@@END 0\" ;;\n"
+        + "    esac\n"
+        + "done\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path log;
+    private BatchGdalOracle oracle = null;
+
+    @Before
+    public void writeHelper() throws IOException {
+        Path script = folder.getRoot().toPath().resolve("helper.sh");
+        Files.write(script, HELPER_SCRIPT.getBytes(StandardCharsets.US_ASCII));
+        log = folder.getRoot().toPath().resolve("helper.log");
+        oracle = new BatchGdalOracle(Arrays.asList("/bin/sh", script.toString(), log.toString()), 1,
+                                     LineRules.loadDefaults().forTheirs(), RunMetrics.DISABLED);
+    }
+
+    @After
+    public void closeOracle() {
+        if (oracle != null) {
+            oracle.close();
+        }
+    }
+
+    @Test
+    public void readsUpToEndMarker() throws Exception {
+        assertEquals(VERSION, oracle.getVersion());
+        // Filtered by the rules, up to the end marker however much is left out, and "@@END" with no status is success
+        assertEquals(Arrays.asList("Driver: NITF/National Imagery Transmission Format", "Files: a.ntf"), get(oracle.describe("a.ntf")));
+        assertEquals(Arrays.asList("Files: b slow.ntf"), get(oracle.describe("b slow.ntf")));
+        assertEquals(Arrays.asList("start", "request --version", "request a.ntf", "request b slow.ntf"), readLog());
+    }
+
+    @Test
+    public void nonZeroStatusFailsOnlyThatFile() throws Exception {
+        try {
+            get(oracle.describe("fail.ntf"));
+            fail("Described a file the helper failed on");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof BatchGdalOracle.HelperFailureException);
+            assertEquals("Helper could not describe fail.ntf, status 2", e.getCause().getMessage());
+        }
+        // The same helper carries on
+        assertEquals(Arrays.asList("Driver: NITF/National Imagery Transmission Format", "Files: c.ntf"), get(oracle.describe("c.ntf")));
+        assertEquals(Arrays.asList("start", "request fail.ntf", "request c.ntf"), readLog());
+    }
+
+    @Test
+    public void restartsHelperThatDied() throws Exception {
+        try {
+            get(oracle.describe("die.ntf"));
+            fail("Described a file the helper died on");
+        } catch (ExecutionException e) {
+            assertFalse(String.valueOf(e.getCause()), e.getCause() instanceof BatchGdalOracle.HelperFailureException);
+            assertEquals("Helper exited while describing die.ntf", e.getCause().getMessage());
+        }
+        assertEquals(Arrays.asList("Driver: NITF/National Imagery Transmission Format", "Files: d.ntf"), get(oracle.describe("d.ntf")));
+        assertEquals(Arrays.asList("start", "request die.ntf", "start", "request d.ntf"), readLog());
+    }
+
+    @Test
+    public void cancelStopsOnlyTheHelperWorkingOnTheRequest() throws Exception {
+        Future<List<String>> slow = oracle.describe("slow.ntf");
+        waitForLog("request slow.ntf");
+        // Waiting for the only helper, so cancelling it must leave the helper to the request it is working on
+        Future<List<String>> queued = oracle.describe("queued.ntf");
+        queued.cancel(true);
+        assertEquals(Arrays.asList("Files: slow.ntf"), get(slow));
+        // Nor does cancelling a request that has finished
+        slow.cancel(true);
+        Future<List<String>> hung = oracle.describe("hang.ntf");
+        waitForLog("request hang.ntf");
+        hung.cancel(true);
+        // Cancelling the hung request killed its helper, so the next request gets a new one
+        assertEquals(Arrays.asList("Driver: NITF/National Imagery Transmission Format", "Files: e.ntf"), get(oracle.describe("e.ntf")));
+        assertEquals(Arrays.asList("start", "request slow.ntf", "request hang.ntf", "start", "request e.ntf"), readLog());
+    }
+
+    private static List<String> get(Future<List<String>> future) throws Exception {
+        return future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private List<String> readLog() throws IOException {
+        return Files.exists(log) ? Files.readAllLines(log, StandardCharsets.UTF_8) : new ArrayList<String>();
+    }
+
+    private void waitForLog(String line) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (!readLog().contains(line)) {
+            if (System.nanoTime() > deadline) {
+                fail("Helper never logged " + line + ": " + readLog());
+            }
+            Thread.sleep(10);
+        }
+    }
+}
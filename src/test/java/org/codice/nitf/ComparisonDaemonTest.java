@@ -0,0 +1,128 @@
+package org.codice.nitf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Serves requests over streams, including when a comparison throws instead of giving a verdict.
+ */
+public class ComparisonDaemonTest
+{
+    private static final long SERVE_TIMEOUT_MILLIS = 30000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void answersInRequestOrder() throws Exception {
+        StringBuilder requests = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20; ++i) {
+            Path file = textFile("file" + i + ".txt");
+            requests.append(file).append("\n\n");
+            expected.append("Dumping output of ").append(file).append("\n");
+            expected.append("Not a NITF file (no NITF or NSIF magic), skipping\n");
+            expected.append(ComparisonDaemon.END_MARKER).append("NOT_NITF\n");
+        }
+        ComparisonContext context = new ComparisonContext(options(3), new ThrowingOracle(new StackOverflowError()));
+        try {
+            ComparisonDaemon daemon = new ComparisonDaemon(context);
+            ByteArrayOutputStream responses = new ByteArrayOutputStream();
+            assertEquals(null, serve(daemon, requests.toString(), responses));
+            assertEquals(expected.toString(), new String(responses.toByteArray(), StandardCharsets.UTF_8));
+            assertEquals(20, daemon.finish().getCount(Verdict.NOT_NITF));
+        } finally {
+            context.close();
+        }
+    }
+
+    @Test
+    public void failedComparisonEndsConnectionWithoutBlocking() throws Exception {
+        // Many more requests than the queue holds, so a responder that stopped taking results would block the reader
+        StringBuilder requests = new StringBuilder();
+        requests.append(textFile("before.txt")).append("\n");
+        requests.append(ComparisonServiceTest.writeNitfHeader(folder.getRoot().toPath().resolve("fails.ntf"))).append("\n");
+        for (int i = 0; i < 50; ++i) {
+            requests.append(textFile("after" + i + ".txt")).append("\n");
+        }
+        OutOfMemoryError error = new OutOfMemoryError("test");
+        ComparisonContext context = new ComparisonContext(options(1), new ThrowingOracle(error));
+        try {
+            ComparisonDaemon daemon = new ComparisonDaemon(context);
+            ByteArrayOutputStream responses = new ByteArrayOutputStream();
+            Throwable failure = serve(daemon, requests.toString(), responses);
+            assertNotNull(failure);
+            assertTrue(failure.toString(), failure instanceof IOException);
+            assertTrue(failure.toString(), hasCause(failure, error));
+            String output = new String(responses.toByteArray(), StandardCharsets.UTF_8);
+            assertTrue(output, output.startsWith("Dumping output of " + folder.getRoot().toPath().resolve("before.txt")));
+            assertFalse(output, output.contains("fails.ntf"));
+            RunSummary summary = daemon.finish();
+            assertEquals(0, summary.getCount(Verdict.ERROR));
+            assertTrue(String.valueOf(summary.getTotal()), summary.getTotal() >= 1);
+        } finally {
+            context.close();
+        }
+    }
+
+    private static ComparisonOptions options(int jobs) {
+        ComparisonOptions options = new ComparisonOptions();
+        options.setJobs(jobs);
+        return options;
+    }
+
+    /**
+     * Serve the requests on another thread, failing the test if that does not finish.
+     *
+     * @return what serve() threw, or null if it returned
+     */
+    private static Throwable serve(final ComparisonDaemon daemon, String requests, final ByteArrayOutputStream responses)
+            throws InterruptedException {
+        final ByteArrayInputStream input = new ByteArrayInputStream(requests.getBytes(StandardCharsets.UTF_8));
+        final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+        Thread server = new Thread("test-serve") {
+            @Override
+            public void run() {
+                try {
+                    daemon.serve(input, responses);
+                } catch (Throwable e) {
+                    thrown.set(e);
+                }
+            }
+        };
+        server.setDaemon(true);
+        server.start();
+        server.join(SERVE_TIMEOUT_MILLIS);
+        assertFalse("serve() did not return", server.isAlive());
+        return thrown.get();
+    }
+
+    private static boolean hasCause(Throwable failure, Throwable cause) {
+        for (Throwable e = failure; e != null; e = e.getCause()) {
+            if (e == cause) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Path textFile(String name) throws IOException {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, "Not an image\n".getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+}
@@ -0,0 +1,105 @@
+package org.codice.nitf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Errors thrown while comparing a file: those the file can cause give an ERROR verdict and the run carries on.
+ */
+public class ComparisonServiceTest
+{
+    private static final int HEADER_LENGTH = 400;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void stackOverflowGivesErrorVerdict() throws IOException {
+        ComparisonService service = new ComparisonService(new ComparisonContext(new ComparisonOptions(),
+                                                                                new ThrowingOracle(new StackOverflowError())));
+        try {
+            ComparisonResult result = service.compare(nitfHeader("deep.ntf").toString());
+            assertEquals(Verdict.ERROR, result.getVerdict());
+            assertTrue(result.getReport(), result.getReport().contains("java.lang.StackOverflowError"));
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void runContinuesAfterStackOverflow() throws IOException {
+        ComparisonOptions options = new ComparisonOptions();
+        options.setJobs(2);
+        ComparisonContext context = new ComparisonContext(options, new ThrowingOracle(new StackOverflowError()));
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        try {
+            ComparisonExecutor executor = new ComparisonExecutor(context, new PrintStream(console, true));
+            for (String name : Arrays.asList("first.ntf", "second.ntf", "third.ntf")) {
+                executor.submit(nitfHeader(name).toString());
+            }
+            executor.submit(textFile("notes.txt").toString());
+            RunSummary summary = executor.finish();
+            assertEquals(4, summary.getTotal());
+            assertEquals(3, summary.getCount(Verdict.ERROR));
+            assertEquals(1, summary.getCount(Verdict.NOT_NITF));
+        } finally {
+            context.close();
+        }
+        String output = new String(console.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(output, output.contains("Dumping output of " + folder.getRoot().toPath().resolve("third.ntf")));
+        assertTrue(output, output.contains("Not a NITF file"));
+    }
+
+    @Test
+    public void outOfMemoryIsThrown() throws IOException {
+        OutOfMemoryError error = new OutOfMemoryError("test");
+        ComparisonService service = new ComparisonService(new ComparisonContext(new ComparisonOptions(), new ThrowingOracle(error)));
+        try {
+            service.compare(nitfHeader("large.ntf").toString());
+            fail("Compared after running out of memory");
+        } catch (OutOfMemoryError e) {
+            assertEquals(error, e);
+        } finally {
+            service.close();
+        }
+    }
+
+    private Path nitfHeader(String name) throws IOException {
+        return writeNitfHeader(folder.getRoot().toPath().resolve(name));
+    }
+
+    // Just enough of a NITF 2.1 header to get past the sniffer, so the oracle is asked to describe the file
+    static Path writeNitfHeader(Path file) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        Arrays.fill(header, (byte) ' ');
+        put(header, 0, "NITF02.10");
+        put(header, 342, String.format("%012d", HEADER_LENGTH));
+        put(header, 354, String.format("%06d", HEADER_LENGTH));
+        Files.write(file, header);
+        return file;
+    }
+
+    private Path textFile(String name) throws IOException {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, "Not an image\n".getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    private static void put(byte[] header, int offset, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+}
@@ -0,0 +1,68 @@
+package org.codice.nitf;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+/**
+ * Checks the names datasets are recorded and replayed under.
+ */
+public class CorpusRootsTest
+{
+    private final Path root = Paths.get("corpus").toAbsolutePath();
+
+    private CorpusRoots roots(Path... directories) {
+        CorpusRoots corpusRoots = new CorpusRoots();
+        for (Path directory : directories) {
+            corpusRoots.add(directory);
+        }
+        return corpusRoots;
+    }
+
+    @Test
+    public void namesFilesRelativeToTheirRoot() {
+        CorpusRoots corpusRoots = roots(root);
+        assertEquals("a.ntf", corpusRoots.relativeName(root.resolve("a.ntf").toString()));
+        assertEquals("sub/dir/b.ntf", corpusRoots.relativeName(root.resolve("sub/dir/b.ntf").toString()));
+        // Relative to the working directory, as the walker hands them out when the corpus is given that way
+        assertEquals("sub/c.ntf", corpusRoots.relativeName("corpus/sub/c.ntf"));
+        assertEquals("d.ntf", corpusRoots.relativeName("corpus/./sub/../d.ntf"));
+    }
+
+    @Test
+    public void sameNamesFromAnotherPlace() {
+        Path moved = Paths.get("elsewhere", "copy").toAbsolutePath();
+        assertEquals(roots(root).relativeName(root.resolve("sub/a.ntf").toString()),
+                     roots(moved).relativeName(moved.resolve("sub/a.ntf").toString()));
+    }
+
+    @Test
+    public void rebuildsArchiveAndSubdatasetNames() {
+        CorpusRoots corpusRoots = roots(root);
+        assertEquals("/vsizip/sub/bundle.zip/dir/m.ntf", corpusRoots.relativeName("/vsizip/" + root.resolve("sub/bundle.zip") + "/dir/m.ntf"));
+        assertEquals("/vsitar/b.tar/m.ntf", corpusRoots.relativeName("/vsitar/corpus/b.tar/m.ntf"));
+        assertEquals("NITF_IM:2:sub/a.ntf", corpusRoots.relativeName("NITF_IM:2:" + root.resolve("sub/a.ntf")));
+        assertEquals("NITF_IM:0:/vsizip/bundle.zip/m.ntf", corpusRoots.relativeName("NITF_IM:0:/vsizip/corpus/bundle.zip/m.ntf"));
+    }
+
+    @Test
+    public void usesFirstRootContainingTheFile() {
+        Path other = Paths.get("other").toAbsolutePath();
+        CorpusRoots corpusRoots = roots(other, root, root.resolve("sub"));
+        assertEquals("x.ntf", corpusRoots.relativeName(other.resolve("x.ntf").toString()));
+        assertEquals("sub/y.ntf", corpusRoots.relativeName(root.resolve("sub/y.ntf").toString()));
+    }
+
+    @Test
+    public void keepsNamesOutsideTheRoots() {
+        CorpusRoots corpusRoots = roots(root);
+        String outside = Paths.get("corpus-other", "a.ntf").toAbsolutePath().toString();
+        assertEquals(outside, corpusRoots.relativeName(outside));
+        assertEquals("NITF_IM:bad", corpusRoots.relativeName("NITF_IM:bad"));
+        assertEquals("/vsizip/not-an-archive/m.ntf", corpusRoots.relativeName("/vsizip/not-an-archive/m.ntf"));
+        assertEquals("/tmp/x.ntf", roots().relativeName("/tmp/x.ntf"));
+    }
+}
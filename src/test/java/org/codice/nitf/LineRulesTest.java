@@ -0,0 +1,217 @@
+package org.codice.nitf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks rule precedence, the rule file syntax, and that the built-in rules filter as the hard-coded checks they
+ * replaced did.
+ */
+public class LineRulesTest
+{
+    // Lines like gdalinfo's output, including near misses for each built-in rule
+    private static final List<String> GDALINFO_LINES = Arrays.asList(
+        "Driver: NITF/National Imagery Transmission Format",
+        "Files: sample.ntf",
+        "Size is 1024, 1024",
+        "Origin = (0.000000000000000,0.000000000000000)",
+        "Pixel Size = (1.000000000000000,-1.000000000000000)",
+        "Pixel Size is not compared",
+        "Metadata:",
+        "  NITF_FTITLE=Origin = (title)",
+        "  NITF_IREP=MONO",
+        "RPC Metadata:",
+        "  LINE_DEN_COEFF=1 0 0 0",
+        "  LINE_NUM_COEFF=0 1 0 0",
+        "  SAMP_DEN_COEFF=1 0 0 0",
+        "  SAMP_NUM_COEFF=0 0 1 0",
+        "  LINE_DEN_COEFF_EXTRA=kept",
+        "  LAT_OFF=32.5",
+        "  LAT_SCALE=0.25",
+        "  LONG_OFF=-117.5",
+        "  LONG_SCALE=0.25",
+        "  LAT_OFFSET=kept",
+        "  LINE_OFF=512",
+        "  MIN_LAT=32.25",
+        "Corner Coordinates:",
+        "Upper Left  (   0.0,    0.0)",
+        "Band 1 Block=1024x1 Type=Byte, ColorInterp=Gray");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void longestMatchWins() throws IOException {
+        LineRules.Normalizer normalizer = rules("drop both prefix AB",
+                                                "rewrite both prefix ABC x",
+                                                "drop both prefix ABCD").forOurs();
+        assertEquals(Arrays.asList("A", "x1", "xX"), normalizer.apply(Arrays.asList("A", "ABZ", "ABC1", "ABCDE", "ABCX")));
+        // Rules are found however they were added
+        normalizer = rules("drop both prefix ABCD",
+                           "rewrite both prefix ABC x",
+                           "drop both prefix AB").forOurs();
+        assertEquals(Arrays.asList("A", "x1", "xX"), normalizer.apply(Arrays.asList("A", "ABZ", "ABC1", "ABCDE", "ABCX")));
+    }
+
+    @Test
+    public void laterRuleWithSameTextReplacesEarlier() throws IOException {
+        LineRules.Normalizer normalizer = rules("drop both prefix Q", "rewrite both prefix Q R").forOurs();
+        assertEquals(Collections.singletonList("R1"), normalizer.apply(Collections.singletonList("Q1")));
+    }
+
+    @Test
+    public void exactEntryBeatsRuleWithSameText() throws IOException {
+        LineRules lineRules = rules("rewrite both key K K2",
+                                    "rewrite both key K=1 K=one",
+                                    "drop both prefix \"  L=1\"",
+                                    "rewrite both key L=1 L=one");
+        assertEquals(Arrays.asList("  K=one", "  K2=12", "  K2=2", "  L=one", "  L=2"),
+                     lineRules.forOurs().apply(Arrays.asList("  K=1", "  K=12", "  K=2", "  L=1", "  L=10", "  L=2")));
+    }
+
+    @Test
+    public void stopDropsTheRestOfTheOutput() throws IOException {
+        LineRules lineRules = rules("stop theirs prefix End:", "drop theirs prefix Skip");
+        List<String> lines = Arrays.asList("First", "Skip me", "End: here", "After");
+        assertEquals(Collections.singletonList("First"), lineRules.forTheirs().apply(lines));
+        // The rules were only for the other side
+        assertEquals(lines, lineRules.forOurs().apply(lines));
+        List<String> output = new ArrayList<String>();
+        assertEquals(true, lineRules.forTheirs().apply("Skip", output));
+        assertEquals(false, lineRules.forTheirs().apply("End:", output));
+        assertEquals(Collections.emptyList(), output);
+    }
+
+    @Test
+    public void rewriteKeepsTheRestOfTheLine() throws IOException {
+        LineRules lineRules = rules("rewrite both prefix \"Old \" \"New: \"",
+                                    "rewrite ours key ICHIP_ANAMRPH_CORR ICHIP_ANAMORPH_CORR");
+        assertEquals(Arrays.asList("New: value here", "  ICHIP_ANAMORPH_CORR=0.5", "  ICHIP_ANAMRPH_CORRECTION=1"),
+                     lineRules.forOurs().apply(Arrays.asList("Old value here", "  ICHIP_ANAMRPH_CORR=0.5", "  ICHIP_ANAMRPH_CORRECTION=1")));
+        assertEquals(Collections.singletonList("  ICHIP_ANAMRPH_CORR=0.5"),
+                     lineRules.forTheirs().apply(Collections.singletonList("  ICHIP_ANAMRPH_CORR=0.5")));
+    }
+
+    @Test
+    public void quotedFieldsTakeEscapes() throws IOException {
+        LineRules lineRules = rules("  rewrite\tboth   prefix \"say \\\"hi\\\"\" \"said \\\\ \\\"bye\\\"\"  ",
+                                    "# drop both prefix say",
+                                    "",
+                                    "drop both prefix \"with # and spaces\"");
+        assertEquals(Arrays.asList("said \\ \"bye\" now", "say hi"),
+                     lineRules.forOurs().apply(Arrays.asList("say \"hi\" now", "say hi", "with # and spaces too")));
+    }
+
+    @Test
+    public void reportsParseErrorsWithLineNumbers() throws IOException {
+        assertParseError("frobnicate both prefix X", "1: unknown action frobnicate");
+        assertParseError("drop everywhere prefix X", "1: unknown side everywhere");
+        assertParseError("drop both sideways X", "1: match must be prefix or key, got sideways");
+        assertParseError("drop both prefix", "1: expected ACTION SIDE MATCH TEXT [REPLACEMENT]");
+        assertParseError("rewrite both prefix A", "1: rewrite takes 2 text argument(s)");
+        assertParseError("drop both prefix A B", "1: drop takes 1 text argument(s)");
+        assertParseError("drop both prefix \"\"", "1: empty match text");
+        assertParseError("rewrite both key K=1 K2", "1: the replacement for a KEY=VALUE entry must be a KEY=VALUE entry");
+        assertParseError("# comment\n\ndrop both prefix A\ndrop both prefix \"unterminated", "4: unterminated quote");
+    }
+
+    @Test
+    public void builtInRulesFilterGdalinfoLikeBaseline() throws IOException {
+        LineRules defaults = LineRules.loadDefaults();
+        assertEquals(baselineFilter(GDALINFO_LINES), defaults.forTheirs().apply(GDALINFO_LINES));
+        // Shuffled, so each stop rule gets to be the first one reached
+        Random random = new Random(0x52554c45L);
+        for (int i = 0; i < 200; ++i) {
+            List<String> lines = new ArrayList<String>(GDALINFO_LINES);
+            Collections.shuffle(lines, random);
+            assertEquals(lines.toString(), baselineFilter(lines), defaults.forTheirs().apply(lines));
+        }
+        // Our own output is left alone but for the spellings GDAL uses
+        assertEquals(GDALINFO_LINES, defaults.forOurs().apply(GDALINFO_LINES));
+    }
+
+    @Test
+    public void builtInRulesRewriteOursLikeBaseline() throws IOException {
+        LineRules defaults = LineRules.loadDefaults();
+        List<String> ours = Arrays.asList("  ICHIP_ANAMRPH_CORR=0",
+                                          "  ICHIP_FI_COL=1",
+                                          "  ICHIP_XFRM_FLAG=00",
+                                          "  NITF_SERIES_ABBREVIATION=JOG-A",
+                                          "  NITF_SERIES_NAME=Joint Operations Graphic - Air",
+                                          "  NITF_SERIES_NAME=Joint Operations Graphic - Air (extra)");
+        assertEquals(Arrays.asList("  ICHIP_ANAMORPH_CORR=0",
+                                   "  ICHIP_FI_COL=1",
+                                   "  NITF_SERIES_ABBREVIATION=JOG-A",
+                                   "  NITF_SERIES_NAME=Joint Operation Graphic - Air",
+                                   "  NITF_SERIES_NAME=Joint Operations Graphic - Air (extra)"),
+                     defaults.forOurs().apply(ours));
+        // gdalinfo's own output already has GDAL's spellings
+        assertEquals(ours, defaults.forTheirs().apply(ours));
+    }
+
+    private LineRules rules(String... lines) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append("\n");
+        }
+        return LineRules.load(write(text.toString()));
+    }
+
+    private void assertParseError(String text, String expectedMessage) throws IOException {
+        Path file = write(text);
+        try {
+            LineRules.load(file);
+            fail("Loaded " + text);
+        } catch (IOException e) {
+            assertEquals(file + ":" + expectedMessage, e.getMessage());
+        }
+    }
+
+    private Path write(String text) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    // The gdalinfo filtering FileComparer had before the rules, as it was written there
+    private static List<String> baselineFilter(List<String> lines) {
+        List<String> output = new ArrayList<String>();
+        for (String line : lines) {
+            if (line.startsWith("Origin = (")) {
+                continue;
+            }
+            if (line.startsWith("Pixel Size = (")) {
+                continue;
+            }
+            if (line.startsWith("  LINE_DEN_COEFF=") || line.startsWith("  LINE_NUM_COEFF=") || line.startsWith("  SAMP_DEN_COEFF=")
+                || line.startsWith("  SAMP_NUM_COEFF=")) {
+                continue;
+            }
+            if (line.startsWith("  LAT_SCALE=") || line.startsWith("  LONG_SCALE=") || line.startsWith("  LAT_OFF=") || line.startsWith("  LONG_OFF=")) {
+                continue;
+            }
+            if (line.startsWith("Corner Coordinates:")) {
+                break;
+            }
+            if (line.startsWith("Band 1 Block=")) {
+                break;
+            }
+            output.add(line);
+        }
+        return output;
+    }
+}
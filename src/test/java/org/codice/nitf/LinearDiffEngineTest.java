@@ -0,0 +1,190 @@
+package org.codice.nitf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import difflib.Delta;
+import difflib.DiffUtils;
+import difflib.Patch;
+import org.junit.Test;
+
+/**
+ * Checks LinearDiffEngine against DiffUtils, which {@link LineDiffEngine} uses: the same number of edits, the same
+ * report when the edit script is unique, and the edit cap applying exactly at the number of edits needed.
+ */
+public class LinearDiffEngineTest
+{
+    private static final int RANDOM_PAIRS = 20000;
+    private static final String ALPHABET = "abcdefgh";
+
+    private final Random random = new Random(0x4d594552L);
+
+    @Test
+    public void sameEditCountAsDiffUtils() {
+        for (int pair = 0; pair < RANDOM_PAIRS; ++pair) {
+            List<String> theirs = randomLines();
+            List<String> ours = random.nextBoolean() ? randomLines() : edited(theirs);
+            String label = theirs + " to " + ours;
+            int expectedEdits = editCount(DiffUtils.diff(theirs, ours));
+            List<String> differences = new LinearDiffEngine(Integer.MAX_VALUE).compare(theirs, ours);
+            assertEquals(label, expectedEdits, editCount(differences));
+            assertEquals(label, ours, apply(theirs, differences));
+        }
+    }
+
+    @Test
+    public void sameReportAsDiffUtilsForUniqueLines() {
+        // Like real gdalinfo output, nearly every line is different, so there is only one shortest edit script
+        for (int pair = 0; pair < RANDOM_PAIRS / 10; ++pair) {
+            List<String> theirs = new ArrayList<String>();
+            int length = random.nextInt(200);
+            for (int i = 0; i < length; ++i) {
+                theirs.add("KEY_" + i + "=" + i);
+            }
+            List<String> ours = new ArrayList<String>(theirs);
+            int changes = random.nextInt(6);
+            for (int change = 0; change < changes; ++change) {
+                int position = random.nextInt(ours.size() + 1);
+                int kind = random.nextInt(3);
+                if ((kind == 0) || (position == ours.size())) {
+                    ours.add(position, "NEW_" + change + "=" + pair);
+                } else if (kind == 1) {
+                    ours.remove(position);
+                } else {
+                    ours.set(position, "CHANGED_" + change + "=" + pair);
+                }
+            }
+            assertEquals(theirs + " to " + ours, diffUtilsReport(theirs, ours), new LinearDiffEngine(1000).compare(theirs, ours));
+        }
+    }
+
+    @Test
+    public void reportsEachKindOfDelta() {
+        List<String> theirs = Arrays.asList("Driver: NITF", "A=1", "B=2", "C=3", "D=4");
+        List<String> ours = Arrays.asList("Driver: NITF", "A=1", "B=two", "C=3", "E=5", "D=4");
+        assertEquals(Arrays.asList("[ChangeDelta, position: 2, lines: [B=2] to [B=two]]",
+                                   "[InsertDelta, position: 4, lines: [E=5]]"),
+                     new LinearDiffEngine(10).compare(theirs, ours));
+        assertEquals(Arrays.asList("[DeleteDelta, position: 2, lines: [B=two]]", "[DeleteDelta, position: 4, lines: [E=5]]"),
+                     new LinearDiffEngine(10).compare(ours, Arrays.asList("Driver: NITF", "A=1", "C=3", "D=4")));
+        assertEquals(Collections.emptyList(), new LinearDiffEngine(0).compare(theirs, theirs));
+    }
+
+    @Test
+    public void capAppliesAtTheBoundary() {
+        for (int pair = 0; pair < RANDOM_PAIRS / 4; ++pair) {
+            List<String> theirs = randomLines();
+            List<String> ours = edited(theirs);
+            int edits = editCount(DiffUtils.diff(theirs, ours));
+            if (edits == 0) {
+                continue;
+            }
+            String label = theirs + " to " + ours + ", " + edits + " edits";
+            List<String> atCap = new LinearDiffEngine(edits).compare(theirs, ours);
+            assertEquals(label, edits, editCount(atCap));
+            List<String> overCap = new LinearDiffEngine(edits - 1).compare(theirs, ours);
+            assertEquals(label, 1, overCap.size());
+            assertTrue(label + ": " + overCap, overCap.get(0).startsWith("[TooDifferent, "));
+        }
+    }
+
+    @Test
+    public void reportsFirstDifferenceWhenTooDifferent() {
+        List<String> theirs = Arrays.asList("same", "a", "b", "c", "end");
+        List<String> ours = Arrays.asList("same", "x", "y", "end");
+        assertEquals(Collections.singletonList("[TooDifferent, position: 1, more than 4 lines differ between 3 lines of gdalinfo output"
+                                               + " and 2 of ours, first difference: [a] to [x]]"),
+                     new LinearDiffEngine(4).compare(theirs, ours));
+        assertEquals(Collections.singletonList("[TooDifferent, position: 1, more than 1 lines differ between 0 lines of gdalinfo output"
+                                               + " and 2 of ours, first difference: end of output to [x]]"),
+                     new LinearDiffEngine(1).compare(Arrays.asList("same"), Arrays.asList("same", "x", "y")));
+    }
+
+    private List<String> randomLines() {
+        List<String> lines = new ArrayList<String>();
+        int length = random.nextInt(30);
+        int alphabetSize = 1 + random.nextInt(ALPHABET.length());
+        for (int i = 0; i < length; ++i) {
+            lines.add(String.valueOf(ALPHABET.charAt(random.nextInt(alphabetSize))));
+        }
+        return lines;
+    }
+
+    private List<String> edited(List<String> lines) {
+        List<String> edited = new ArrayList<String>(lines);
+        for (int i = random.nextInt(6); i > 0; --i) {
+            int position = random.nextInt(edited.size() + 1);
+            if ((position < edited.size()) && random.nextBoolean()) {
+                edited.remove(position);
+            } else {
+                edited.add(position, String.valueOf(ALPHABET.charAt(random.nextInt(ALPHABET.length()))));
+            }
+        }
+        return edited;
+    }
+
+    private static List<String> diffUtilsReport(List<String> theirs, List<String> ours) {
+        List<String> report = new ArrayList<String>();
+        for (Delta delta : DiffUtils.diff(theirs, ours).getDeltas()) {
+            report.add(delta.toString());
+        }
+        return report;
+    }
+
+    private static int editCount(Patch patch) {
+        int edits = 0;
+        for (Delta delta : patch.getDeltas()) {
+            edits += delta.getOriginal().size() + delta.getRevised().size();
+        }
+        return edits;
+    }
+
+    // The lines in the report; the random lines are single letters, so the lists can be split on commas
+    private static int editCount(List<String> differences) {
+        int edits = 0;
+        for (String difference : differences) {
+            for (List<String> lines : parseLines(difference)) {
+                edits += lines.size();
+            }
+        }
+        return edits;
+    }
+
+    // Turn the lines they had into the lines we had, using the report
+    private static List<String> apply(List<String> theirs, List<String> differences) {
+        List<String> result = new ArrayList<String>();
+        int theirIndex = 0;
+        for (String difference : differences) {
+            int position = Integer.parseInt(difference.substring(difference.indexOf("position: ") + 10, difference.indexOf(", lines")));
+            result.addAll(theirs.subList(theirIndex, position));
+            List<List<String>> lines = parseLines(difference);
+            if (difference.startsWith("[InsertDelta")) {
+                theirIndex = position;
+                result.addAll(lines.get(0));
+            } else if (difference.startsWith("[DeleteDelta")) {
+                theirIndex = position + lines.get(0).size();
+            } else {
+                theirIndex = position + lines.get(0).size();
+                result.addAll(lines.get(1));
+            }
+        }
+        result.addAll(theirs.subList(theirIndex, theirs.size()));
+        return result;
+    }
+
+    private static List<List<String>> parseLines(String difference) {
+        List<List<String>> lists = new ArrayList<List<String>>();
+        String text = difference.substring(difference.indexOf("lines: ") + 7, difference.length() - 1);
+        for (String list : text.split(" to ")) {
+            String items = list.substring(1, list.length() - 1);
+            lists.add(items.isEmpty() ? new ArrayList<String>() : Arrays.asList(items.split(", ")));
+        }
+        return lists;
+    }
+}
@@ -0,0 +1,128 @@
+package org.codice.nitf;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks NumberFormatter against the String.format and replaceAll code it replaced, which is kept here as the
+ * reference.
+ */
+public class NumberFormatterTest
+{
+    private static final long SEED = 0x4e495446L;
+    private static final int RANDOM_VALUES = 250000;
+
+    private final NumberFormatter formatter = new NumberFormatter();
+
+    // What MetadataRenderer.cleanupNumberString used to do
+    private static String reference(double fieldVal) {
+        if (fieldVal == (int)fieldVal) {
+            return String.format(Locale.ROOT, "%d", (int)fieldVal);
+        }
+        String naiveString = String.format(Locale.ROOT, "%.12g", fieldVal);
+        if (naiveString.contains("e-")) {
+            return naiveString.replaceAll("\\.?0*e", "e");
+        } else if (naiveString.contains(".")) {
+            return naiveString.replaceAll("\\.?0*$", "");
+        }
+        return naiveString;
+    }
+
+    private void check(double value) {
+        checkOne(value);
+        checkOne(-value);
+    }
+
+    private void checkOne(double value) {
+        String expected = reference(value);
+        assertEquals(value + " (bits " + Long.toHexString(Double.doubleToRawLongBits(value)) + ")", expected, formatter.format(value));
+        StringBuilder appended = new StringBuilder("x");
+        formatter.format(value, appended);
+        assertEquals("x" + expected, appended.toString());
+    }
+
+    // A value and the doubles either side of it
+    private void checkNeighbourhood(double value) {
+        check(value);
+        check(Math.nextUp(value));
+        check(Math.nextAfter(value, Double.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    public void specialValues() {
+        check(0.0);
+        check(Double.NaN);
+        check(Double.POSITIVE_INFINITY);
+        check(Double.MAX_VALUE);
+        check(Integer.MAX_VALUE);
+        check(Integer.MAX_VALUE + 0.5);
+        check(Integer.MIN_VALUE);
+        check(Integer.MIN_VALUE - 0.5);
+        check(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void subnormals() {
+        checkNeighbourhood(Double.MIN_NORMAL);
+        for (long bits = 1; bits < 100000; ++bits) {
+            check(Double.longBitsToDouble(bits));
+        }
+        for (long bits = 1; bits < (1L << 52); bits = bits * 3 + 1) {
+            check(Double.longBitsToDouble(bits));
+            check(Double.longBitsToDouble((1L << 52) - bits));
+        }
+    }
+
+    @Test
+    public void powersOfTen() {
+        for (int exponent = -323; exponent <= 308; ++exponent) {
+            double power = Double.parseDouble("1e" + exponent);
+            checkNeighbourhood(power);
+            checkNeighbourhood(power * 1.5);
+            checkNeighbourhood(power * 9.5);
+        }
+    }
+
+    @Test
+    public void roundingBoundaries() {
+        String[] mantissas = {
+            "9.9999999999995", "9.99999999999949", "9.99999999999951", "9.999999999999", "9.9999999999999",
+            "1.0000000000005", "1.00000000000049", "1.00000000000051", "1.23456789012345", "1.234567890125",
+            "1.234567890135", "5.00000000000050", "4.99999999999950", "9.99999999999500000001", "1.11111111111150"
+        };
+        for (int exponent = -15; exponent <= 20; ++exponent) {
+            for (String mantissa : mantissas) {
+                checkNeighbourhood(Double.parseDouble(mantissa + "e" + exponent));
+            }
+        }
+        // The switches between fixed and scientific notation, before and after rounding
+        checkNeighbourhood(0.0001);
+        checkNeighbourhood(0.000099999999999995);
+        checkNeighbourhood(99999999999.9995);
+        checkNeighbourhood(999999999999.5);
+        checkNeighbourhood(99999999999.5);
+    }
+
+    @Test
+    public void randomBitPatterns() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < RANDOM_VALUES; ++i) {
+            check(Double.longBitsToDouble(random.nextLong()));
+        }
+    }
+
+    @Test
+    public void randomRpcMagnitudes() {
+        // Offsets and scales in RPC00B are latitudes, longitudes, heights and line and sample numbers
+        Random random = new Random(SEED + 1);
+        for (int i = 0; i < RANDOM_VALUES; ++i) {
+            double magnitude = Math.pow(10, random.nextInt(16) - 6);
+            check(random.nextDouble() * magnitude);
+            check(Math.rint(random.nextDouble() * 1e8) / Math.pow(10, random.nextInt(9)));
+        }
+    }
+}
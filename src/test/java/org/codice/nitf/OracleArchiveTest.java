@@ -0,0 +1,107 @@
+package org.codice.nitf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes oracle archives and reads them back.
+ */
+public class OracleArchiveTest
+{
+    private static final int ENTRIES = 200000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsManyEntries() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("corpus.arc");
+        OracleArchive.Writer writer = new OracleArchive.Writer(path, "GDAL 3.8.4", "drop theirs key A\nrewrite ours key B C");
+        for (int i = 0; i < ENTRIES; ++i) {
+            writer.add(datasetName(i), linesFor(i));
+        }
+        // Recorded twice, so the later output wins
+        writer.add(datasetName(5), Arrays.asList("again"));
+        writer.close();
+
+        OracleArchive archive = new OracleArchive(path);
+        try {
+            assertEquals(ENTRIES + 1, archive.size());
+            assertEquals("GDAL 3.8.4", archive.getGdalVersion());
+            assertEquals("drop theirs key A\nrewrite ours key B C", archive.getLineRules());
+            for (int i = 0; i < ENTRIES; ++i) {
+                List<String> expected = (i == 5) ? Arrays.asList("again") : linesFor(i);
+                assertEquals(datasetName(i), expected, archive.lookup(datasetName(i)));
+            }
+            assertNull(archive.lookup("dir/missing.ntf"));
+            assertNull(archive.lookup(""));
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void emptyArchive() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("empty.arc");
+        new OracleArchive.Writer(path, "GDAL 2.4.0", "").close();
+        OracleArchive archive = new OracleArchive(path);
+        try {
+            assertEquals(0, archive.size());
+            assertEquals("", archive.getLineRules());
+            assertNull(archive.lookup("a.ntf"));
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void refusesUnfinishedArchive() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("unfinished.arc");
+        OracleArchive.Writer writer = new OracleArchive.Writer(path, "GDAL 3.8.4", "");
+        writer.add("a.ntf", Arrays.asList("Driver: NITF/National Imagery Transmission Format"));
+        // A run that dies leaves the entries without an index; simulate that by copying the file before close()
+        Path copy = folder.getRoot().toPath().resolve("copy.arc");
+        Files.copy(path, copy);
+        writer.close();
+        try {
+            new OracleArchive(copy).close();
+            fail("Opened an archive without an index");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static String datasetName(int i) {
+        switch (i % 3) {
+            case 0:
+                return "dir" + (i % 97) + "/file" + i + ".ntf";
+            case 1:
+                return "NITF_IM:" + (i % 4) + ":dir/file" + i + ".ntf";
+            default:
+                return "/vsizip/bundle" + (i % 11) + ".zip/member" + i + ".ntf";
+        }
+    }
+
+    private static List<String> linesFor(int i) {
+        List<String> lines = new ArrayList<String>();
+        lines.add("Driver: NITF/National Imagery Transmission Format");
+        lines.add("Files: " + datasetName(i));
+        for (int j = 0; j < i % 7; ++j) {
+            lines.add("  NITF_FTITLE=Title " + (i * 31 + j));
+        }
+        lines.add("");
+        return lines;
+    }
+}
@@ -0,0 +1,126 @@
+package org.codice.nitf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes journals, tears and resumes them, and checks both the verdicts read back and the bytes on disk.
+ */
+public class RunJournalTest
+{
+    private static final String NEWLINE_NAME = "dir/two\nlines.ntf";
+    private static final String ESCAPES_NAME = "back\\slash\r.ntf";
+    private static final String WRITTEN = RunJournal.JOURNAL_MAGIC + "\n"
+        + "MATCH\ta.ntf\n"
+        + "MISMATCH\tdir/two\\nlines.ntf\n"
+        + "ERROR\tback\\\\slash\\r.ntf\n"
+        + "ERROR\ta.ntf\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void resumeIgnoresTornLineAndTruncatesIt() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("run.journal");
+        RunJournal journal = new RunJournal(path, false);
+        journal.record("a.ntf", Verdict.MATCH);
+        journal.record(NEWLINE_NAME, Verdict.MISMATCH);
+        journal.record(ESCAPES_NAME, Verdict.ERROR);
+        journal.record("a.ntf", Verdict.ERROR);
+        journal.close();
+        assertEquals(WRITTEN, read(path));
+
+        // As if the process died part way through writing a line
+        Files.write(path, "MATCH\tc.n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        RunJournal.JournalReader reader = new RunJournal.JournalReader(path);
+        assertEquals(WRITTEN.getBytes(StandardCharsets.UTF_8).length, reader.getValidLength());
+        Map<String, Verdict> expected = new HashMap<String, Verdict>();
+        expected.put("a.ntf", Verdict.ERROR);
+        expected.put(NEWLINE_NAME, Verdict.MISMATCH);
+        expected.put(ESCAPES_NAME, Verdict.ERROR);
+        assertEquals(expected, reader.getVerdicts());
+
+        RunJournal resumed = new RunJournal(path, true);
+        assertEquals(3, resumed.getResumedCount());
+        // The latest verdict wins, and each is handed out once
+        assertEquals(Verdict.ERROR, resumed.takeCompletedVerdict("a.ntf"));
+        assertNull(resumed.takeCompletedVerdict("a.ntf"));
+        assertEquals(Verdict.MISMATCH, resumed.takeCompletedVerdict(NEWLINE_NAME));
+        assertEquals(Verdict.ERROR, resumed.takeCompletedVerdict(ESCAPES_NAME));
+        assertNull(resumed.takeCompletedVerdict("c.n"));
+        resumed.record("c.ntf", Verdict.MATCH);
+        resumed.close();
+        // The torn line was cut off before the new one was appended
+        assertEquals(WRITTEN + "MATCH\tc.ntf\n", read(path));
+        expected.put("c.ntf", Verdict.MATCH);
+        assertEquals(expected, new RunJournal.JournalReader(path).getVerdicts());
+    }
+
+    @Test
+    public void skipsLinesItCannotParse() throws IOException {
+        Path path = write(RunJournal.JOURNAL_MAGIC + "\nno tab here\nMAYBE\tb.ntf\nNOT_NITF\tc.txt\n");
+        assertEquals(Verdict.NOT_NITF, new RunJournal.JournalReader(path).getVerdicts().get("c.txt"));
+        RunJournal journal = new RunJournal(path, true);
+        assertEquals(1, journal.getResumedCount());
+        journal.close();
+    }
+
+    @Test
+    public void startingAfreshReplacesOldJournal() throws IOException {
+        Path path = write(WRITTEN);
+        RunJournal journal = new RunJournal(path, false);
+        assertEquals(0, journal.getResumedCount());
+        assertNull(journal.takeCompletedVerdict("a.ntf"));
+        journal.close();
+        assertEquals(RunJournal.JOURNAL_MAGIC + "\n", read(path));
+    }
+
+    @Test
+    public void resumingEmptyFileStartsNewJournal() throws IOException {
+        Path path = write("");
+        new RunJournal(path, true).close();
+        assertEquals(RunJournal.JOURNAL_MAGIC + "\n", read(path));
+    }
+
+    @Test
+    public void refusesToResumeOtherFiles() throws IOException {
+        assertNotAJournal(write("MATCH\ta.ntf\n"));
+        // A header cut off part way is not a journal either
+        assertNotAJournal(write(RunJournal.JOURNAL_MAGIC.substring(0, 10)));
+    }
+
+    private static void assertNotAJournal(Path path) throws IOException {
+        String before = read(path);
+        try {
+            new RunJournal(path, true);
+            fail("Resumed " + before);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith(" is not a comparison journal"));
+        }
+        assertEquals(before, read(path));
+    }
+
+    private Path write(String content) throws IOException {
+        Path path = folder.newFile().toPath();
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,106 @@
+package org.codice.nitf;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks the differences SectionDiffEngine reports for keys, repeated keys, order, and the text lines of a section.
+ */
+public class SectionDiffEngineTest
+{
+    private static final String DRIVER = "Driver: NITF/National Imagery Transmission Format";
+
+    private final SectionDiffEngine engine = new SectionDiffEngine(new LinearDiffEngine(100));
+
+    @Test
+    public void reportsMissingExtraAndDifferentKeys() {
+        List<String> theirs = Arrays.asList(DRIVER, "Metadata:", "  A=1", "  B=2", "  C=3");
+        List<String> ours = Arrays.asList(DRIVER, "Metadata:", "  A=1", "  B=two", "  D=4");
+        assertEquals(Arrays.asList("Metadata: B differs: gdalinfo [2], ours [two]",
+                                   "Metadata: C=3 missing from our output",
+                                   "Metadata: D=4 only in our output"),
+                     engine.compare(theirs, ours));
+        assertEquals(Collections.emptyList(), engine.compare(theirs, theirs));
+    }
+
+    @Test
+    public void reportsMissingAndExtraSections() {
+        List<String> theirs = Arrays.asList(DRIVER, "Metadata:", "  A=1", "RPC Metadata:", "  LINE_OFF=1", "  LINE_SCALE=2");
+        List<String> ours = Arrays.asList(DRIVER, "Metadata:", "  A=1", "Image Structure Metadata:", "  COMPRESSION=JPEG");
+        assertEquals(Arrays.asList("RPC Metadata: section missing from our output (2 lines)",
+                                   "Image Structure Metadata: section only in our output (1 lines)"),
+                     engine.compare(theirs, ours));
+    }
+
+    @Test
+    public void comparesRepeatedKeysByOccurrence() {
+        List<String> theirs = Arrays.asList("Metadata:", "  K=a", "  K=b", "  L=1");
+        assertEquals(Arrays.asList("Metadata: K (occurrence 2) differs: gdalinfo [b], ours [c]",
+                                   "Metadata: K (occurrence 3)=d only in our output"),
+                     engine.compare(theirs, Arrays.asList("Metadata:", "  K=a", "  K=c", "  K=d", "  L=1")));
+        assertEquals(Collections.singletonList("Metadata: K (occurrence 2)=b missing from our output"),
+                     engine.compare(theirs, Arrays.asList("Metadata:", "  K=a", "  L=1")));
+        // A duplicate dropped from one side is a difference even though the value is the same
+        assertEquals(Collections.singletonList("Metadata: K (occurrence 2)=a only in our output"),
+                     engine.compare(Arrays.asList("Metadata:", "  K=a"), Arrays.asList("Metadata:", "  K=a", "  K=a")));
+    }
+
+    @Test
+    public void reportsReorderedSectionsAndKeysOnce() {
+        List<String> theirs = Arrays.asList(DRIVER, "Metadata:", "  A=1", "  B=2", "  C=3", "RPC Metadata:", "  X=1");
+        List<String> ours = Arrays.asList(DRIVER, "RPC Metadata:", "  X=1", "Metadata:", "  B=2", "  A=1", "  C=3");
+        assertEquals(Arrays.asList("Metadata: keys in a different order: gdalinfo has A where ours has B",
+                                   "Sections in a different order: gdalinfo has Metadata where ours has RPC Metadata"),
+                     engine.compare(theirs, ours));
+    }
+
+    @Test
+    public void orderLeavesOutKeysOnlyOneSideHas() {
+        // The extra key is reported, but does not also count as the keys being out of order
+        assertEquals(Collections.singletonList("Metadata: E=5 only in our output"),
+                     engine.compare(Arrays.asList("Metadata:", "  A=1", "  B=2"),
+                                    Arrays.asList("Metadata:", "  E=5", "  A=1", "  B=2")));
+        // Moving one of two equal keys is noticed
+        assertEquals(Collections.singletonList("Metadata: keys in a different order: gdalinfo has J where ours has K (occurrence 2)"),
+                     engine.compare(Arrays.asList("Metadata:", "  K=1", "  J=2", "  K=3"),
+                                    Arrays.asList("Metadata:", "  K=1", "  K=3", "  J=2")));
+    }
+
+    @Test
+    public void comparesXmlTreLinesAsText() {
+        List<String> theirs = Arrays.asList(DRIVER, "Metadata (xml:TRE):", "<tres>", "  <tre name=\"ACCPOB\" location=\"image\">",
+                                            "    <field name=\"NUMACPO\" value=\"1\" />", "  </tre>", "</tres>");
+        List<String> ours = Arrays.asList(DRIVER, "Metadata (xml:TRE):", "<tres>", "  <tre name=\"ACCPOB\" location=\"image\">",
+                                          "    <field name=\"NUMACPO\" value=\"2\" />", "  </tre>", "</tres>");
+        assertEquals(Collections.singletonList("Metadata (xml:TRE): [ChangeDelta, position: 2, lines: [    <field name=\"NUMACPO\" value=\"1\" />]"
+                                               + " to [    <field name=\"NUMACPO\" value=\"2\" />]]"),
+                     engine.compare(theirs, ours));
+    }
+
+    @Test
+    public void comparesCoordinateSystemLinesAsText() {
+        List<String> theirs = Arrays.asList(DRIVER, "Coordinate System is:", "GEOGCS[\"WGS 84\",", "    DATUM[\"WGS_1984\",",
+                                            "        SPHEROID[\"WGS 84\",6378137,298.257223563]],", "    AUTHORITY[\"EPSG\",\"4326\"]]",
+                                            "Metadata:", "  A=1");
+        List<String> ours = Arrays.asList(DRIVER, "Coordinate System is:", "GEOGCS[\"WGS 84\",", "    DATUM[\"WGS_1984\",",
+                                          "    AUTHORITY[\"EPSG\",\"4326\"]]", "Metadata:", "  A=1");
+        assertEquals(Collections.singletonList("Coordinate System: [DeleteDelta, position: 2,"
+                                               + " lines: [        SPHEROID[\"WGS 84\",6378137,298.257223563]],]]"),
+                     engine.compare(theirs, ours));
+    }
+
+    @Test
+    public void ignoresWhereTextFallsAmongKeys() {
+        assertEquals(Collections.emptyList(),
+                     engine.compare(Arrays.asList("Metadata:", "  A=1", "some text", "  B=2"),
+                                    Arrays.asList("Metadata:", "  A=1", "  B=2", "some text")));
+        // A line that only looks like a key/value pair stays text
+        assertEquals(Collections.singletonList("Metadata: [ChangeDelta, position: 0, lines: [  NOT A KEY=1] to [  NOT A KEY=2]]"),
+                     engine.compare(Arrays.asList("Metadata:", "  NOT A KEY=1"), Arrays.asList("Metadata:", "  NOT A KEY=2")));
+    }
+}
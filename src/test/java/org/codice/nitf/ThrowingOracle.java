@@ -0,0 +1,30 @@
+package org.codice.nitf;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * A metadata oracle that fails as soon as it is asked to describe a file, as a parser that recursed too deep would.
+ */
+class ThrowingOracle implements MetadataOracle
+{
+    private final Error error;
+
+    ThrowingOracle(Error describeError) {
+        error = describeError;
+    }
+
+    @Override
+    public Future<List<String>> describe(String filename) {
+        throw error;
+    }
+
+    @Override
+    public String getVersion() {
+        return "test";
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,123 @@
+package org.codice.nitf;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.codice.imaging.nitf.core.Tre;
+import org.codice.imaging.nitf.core.TreEntry;
+import org.junit.Test;
+
+/**
+ * Checks TreIndex against the collection scans MetadataRenderer used to do in each rendering stage, which are kept
+ * here as the reference.
+ */
+public class TreIndexTest
+{
+    private static final int SEGMENTS = 20000;
+    private static final String[] NAMES = {
+        "RPC00B", "ICHIPB", "RPFHDR", "RPFIMG", "RPFDES", "ACFTB", "AIMIDB", "BLOCKA", "PIAIMC", "STDIDC", "USE00A"
+    };
+    private static final String[] PREFIXES = {"BLOCKA_", "PIAIMC_", "STDIDC_"};
+
+    private final Random random = new Random(0x54524549L);
+
+    @Test
+    public void matchesOldScansForRandomSegments() {
+        for (int segment = 0; segment < SEGMENTS; ++segment) {
+            List<Tre> tres = randomTres();
+            TreIndex index = new TreIndex(tres);
+            String label = "segment " + segment;
+            assertEquals(label, parsedTres(tres), index.getParsedTres());
+            assertEquals(label, hasTREsOtherThanRPF(tres), index.hasParsedTresOtherThanRpf());
+            assertEquals(label, oldStyleTres(tres), index.getOldStyleTres());
+            assertEquals(label, named(tres, "RPC00B"), index.getRpcTres());
+            assertEquals(label, !named(tres, "RPC00B").isEmpty(), index.hasRpc());
+            for (String name : NAMES) {
+                assertEquals(label + " " + name, named(tres, name), index.getTres(name));
+            }
+        }
+    }
+
+    @Test
+    public void emptySegment() {
+        TreIndex index = new TreIndex(new ArrayList<Tre>());
+        assertEquals(0, index.getParsedTres().size());
+        assertEquals(false, index.hasParsedTresOtherThanRpf());
+        assertEquals(0, index.getOldStyleTres().size());
+        assertEquals(0, index.getRpcTres().size());
+        assertEquals(false, index.hasRpc());
+    }
+
+    private List<Tre> randomTres() {
+        List<Tre> tres = new ArrayList<Tre>();
+        int count = random.nextInt(12);
+        for (int i = 0; i < count; ++i) {
+            Tre tre = new Tre(NAMES[random.nextInt(NAMES.length)]);
+            tre.add(new TreEntry("F" + i, "V" + i));
+            if (random.nextInt(3) == 0) {
+                tre.setRawData(new byte[] {(byte) i});
+            }
+            if (random.nextInt(4) == 0) {
+                tre.setPrefix(PREFIXES[random.nextInt(PREFIXES.length)]);
+            }
+            tres.add(tre);
+        }
+        return tres;
+    }
+
+    // What outputTresForSegment used to pick out
+    private static List<Tre> parsedTres(List<Tre> tres) {
+        List<Tre> parsed = new ArrayList<Tre>();
+        for (Tre tre : tres) {
+            if (tre.getRawData() == null) {
+                // We parsed this TRE
+                parsed.add(tre);
+            }
+        }
+        return parsed;
+    }
+
+    // What MetadataRenderer.hasTREsOtherThanRPF used to do
+    private static boolean hasTREsOtherThanRPF(List<Tre> tres) {
+        int treCountNonRPF = 0;
+        for (Tre tre : tres) {
+            if ((tre.getName().equals("RPFHDR")) || (tre.getName().equals("RPFIMG")) || (tre.getName().equals("RPFDES"))) {
+                continue;
+            }
+            if (tre.getRawData() != null) {
+                //  We have raw data for this TRE, so this is not a TRE we recognised
+                continue;
+            }
+            treCountNonRPF++;
+        }
+        return (treCountNonRPF != 0);
+    }
+
+    // What addOldStyleMetadata used to pick out
+    private static List<Tre> oldStyleTres(List<Tre> tres) {
+        List<Tre> oldStyle = new ArrayList<Tre>();
+        for (Tre tre : tres) {
+            if (tre.getPrefix() != null) {
+                // if it has a prefix, its probably an old-style NITF metadata field
+                oldStyle.add(tre);
+            } else if ("ICHIPB".equals(tre.getName())) {
+                oldStyle.add(tre);
+            }
+        }
+        return oldStyle;
+    }
+
+    // The name comparisons the RPC and coordinate system stages used to make
+    private static List<Tre> named(List<Tre> tres, String name) {
+        List<Tre> matching = new ArrayList<Tre>();
+        for (Tre tre : tres) {
+            if (tre.getName().equals(name)) {
+                matching.add(tre);
+            }
+        }
+        return matching;
+    }
+}
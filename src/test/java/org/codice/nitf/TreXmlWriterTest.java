@@ -0,0 +1,150 @@
+package org.codice.nitf;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.codice.imaging.nitf.core.Tre;
+import org.codice.imaging.nitf.core.TreEntry;
+import org.codice.imaging.nitf.core.TreGroup;
+import org.junit.Test;
+
+/**
+ * Checks TreXmlWriter against the outputThisTre code it replaced, which is kept here as the reference.
+ */
+public class TreXmlWriterTest
+{
+    private static final int TRE_SETS = 500;
+    // Field value characters, with the whitespace that right trimming has to deal with, but nothing that needs escaping
+    private static final String VALUE_CHARACTERS = "AB c1.-+ 9Z\t";
+
+    private final Random random = new Random(0x54524558L);
+
+    @Test
+    public void matchesOldOutputForRandomTres() throws IOException {
+        for (int set = 0; set < TRE_SETS; ++set) {
+            List<Tre> tres = new ArrayList<Tre>();
+            int treCount = 1 + random.nextInt(5);
+            for (int i = 0; i < treCount; ++i) {
+                tres.add(randomTre(i));
+            }
+            String location = random.nextBoolean() ? "image" : "des TRE_OVERFLOW";
+            StringWriter expected = new StringWriter();
+            for (Tre tre : tres) {
+                outputThisTre(expected, tre, location);
+            }
+            assertEquals("TRE set " + set, expected.toString(), render(tres, location, new StringWriter()));
+            assertEquals("TRE set " + set, expected.toString(), render(tres, location, new StringBuilderWriter(new StringBuilder())));
+        }
+    }
+
+    @Test
+    public void escapesAttributeValues() throws IOException {
+        Tre tre = new Tre(" Q&A ");
+        tre.add(new TreEntry("X", "a\"b<c>&d  "));
+        List<Tre> tres = new ArrayList<Tre>();
+        tres.add(tre);
+        assertEquals("  <tre name=\"Q&amp;A\" location=\"des TRE_OVERFLOW\">\n"
+                     + "    <field name=\"X\" value=\"a&quot;b&lt;c&gt;&amp;d\" />\n"
+                     + "  </tre>\n", render(tres, "des TRE_OVERFLOW", new StringWriter()));
+    }
+
+    private static String render(List<Tre> tres, String location, Writer out) throws IOException {
+        TreXmlWriter xml = new TreXmlWriter(out);
+        for (Tre tre : tres) {
+            xml.writeTre(tre, location);
+        }
+        xml.flush();
+        return out.toString();
+    }
+
+    private Tre randomTre(int index) {
+        Tre tre = new Tre((random.nextBoolean() ? " " : "") + "TRE" + index + (random.nextBoolean() ? "  " : ""));
+        int entryCount = random.nextInt(10);
+        for (int i = 0; i < entryCount; ++i) {
+            tre.add(randomEntry(0));
+        }
+        return tre;
+    }
+
+    private TreEntry randomEntry(int depth) {
+        String value = ((random.nextInt(3) > 0) || (depth > 3)) ? randomValue() : null;
+        TreEntry entry = new TreEntry("F" + random.nextInt(1000), value);
+        if ((depth <= 3) && (random.nextInt(3) == 0)) {
+            // Now and then, enough groups to run through the writer's buffer several times
+            int groupCount = random.nextInt(((depth == 0) && (random.nextInt(4) == 0)) ? 300 : 5);
+            for (int i = 0; i < groupCount; ++i) {
+                TreGroup group = new TreGroup();
+                int groupEntryCount = 1 + random.nextInt(4);
+                for (int j = 0; j < groupEntryCount; ++j) {
+                    group.add(randomEntry(depth + 1));
+                }
+                entry.addGroup(group);
+            }
+        }
+        return entry;
+    }
+
+    private String randomValue() {
+        int length = random.nextInt(40);
+        StringBuilder value = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            value.append(VALUE_CHARACTERS.charAt(random.nextInt(VALUE_CHARACTERS.length())));
+        }
+        return value.toString();
+    }
+
+    // What MetadataRenderer used to do, before TreXmlWriter
+    private static void outputThisTre(Writer out, Tre tre, String location) throws IOException {
+        doIndent(out, 1);
+        out.write("<tre name=\"" + tre.getName().trim() + "\" location=\"" + location + "\">\n");
+        for (TreEntry entry : tre.getEntries()) {
+            outputThisEntry(out, entry, 2);
+        }
+        doIndent(out, 1);
+        out.write("</tre>\n");
+    }
+
+    private static void outputThisEntry(Writer out, TreEntry entry, int indentLevel) throws IOException {
+        if (entry.getFieldValue() != null) {
+            doIndent(out, indentLevel);
+            out.write("<field name=\"" + entry.getName() + "\" value=\"" + rightTrim(entry.getFieldValue()) + "\" />\n");
+        }
+        if ((entry.getGroups() != null) && (entry.getGroups().size() > 0)) {
+            doIndent(out, indentLevel);
+            out.write("<repeated name=\"" + entry.getName() + "\" number=\"" + entry.getGroups().size() + "\">\n");
+            int i = 0;
+            for (TreGroup group : entry.getGroups()) {
+                doIndent(out, indentLevel + 1);
+                out.write(String.format("<group index=\"%d\">\n", i));
+                for (TreEntry groupEntry : group.getEntries()) {
+                    outputThisEntry(out, groupEntry, indentLevel + 2);
+                }
+                doIndent(out, indentLevel + 1);
+                out.write(String.format("</group>\n"));
+                i = i + 1;
+            }
+            doIndent(out, indentLevel);
+            out.write("</repeated>\n");
+        }
+    }
+
+    private static String rightTrim(final String s) {
+        int i = s.length() - 1;
+        while ((i >= 0) && Character.isWhitespace(s.charAt(i))) {
+            i--;
+        }
+        return s.substring(0, i + 1);
+    }
+
+    private static void doIndent(Writer out, int indentLevel) throws IOException {
+        for (int i = 0; i < indentLevel; ++i) {
+            out.write("  ");
+        }
+    }
+}